@@ -0,0 +1,58 @@
+package cz.mallat.uasparser;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+/**
+ * Reads how much heap the current thread allocated so far, on JVMs which can tell (HotSpot and
+ * derivatives). Looked up reflectively, so other JVMs just report it as unsupported.
+ *
+ * @author chetan
+ *
+ */
+final class AllocationCounter {
+
+    private static final Object THREAD_BEAN;
+    private static final Method ALLOCATED_BYTES;
+
+    static {
+        Object bean = null;
+        Method allocatedBytes = null;
+        try {
+            bean = ManagementFactory.getThreadMXBean();
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            if (type.isInstance(bean)
+                    && Boolean.TRUE.equals(type.getMethod("isThreadAllocatedMemoryEnabled").invoke(bean))) {
+                allocatedBytes = type.getMethod("getThreadAllocatedBytes", long.class);
+            }
+        } catch (Exception e) {
+            // unsupported
+        } catch (LinkageError e) {
+            // unsupported
+        }
+        THREAD_BEAN = bean;
+        ALLOCATED_BYTES = allocatedBytes;
+    }
+
+    private AllocationCounter() {
+    }
+
+    static boolean isSupported() {
+        return ALLOCATED_BYTES != null;
+    }
+
+    /**
+     * @return bytes allocated by the current thread so far, or -1 if unsupported
+     */
+    static long allocatedBytes() {
+        if (ALLOCATED_BYTES == null) {
+            return -1;
+        }
+        try {
+            return (Long) ALLOCATED_BYTES.invoke(THREAD_BEAN, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+}
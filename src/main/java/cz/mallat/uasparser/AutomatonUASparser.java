@@ -0,0 +1,187 @@
+package cz.mallat.uasparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import cz.mallat.uasparser.regex.CompiledRegex;
+import cz.mallat.uasparser.regex.MultiPatternAutomaton;
+import cz.mallat.uasparser.regex.RegexEngine;
+import cz.mallat.uasparser.regex.RegexMatcher;
+
+/**
+ * A {@link UASparser} which combines each regex table into a single {@link MultiPatternAutomaton}.
+ *
+ * One pass over the user agent per chunk of the table finds the first matching entry; only
+ * that one pattern is then run with the regex engine, to extract the browser version. Results
+ * are identical to {@link UASparser}, and a table costs one pass per chunk of patterns instead
+ * of one search per pattern, see {@link MultiPatternAutomaton} for the chunking.
+ *
+ * Thread-safe.
+ *
+ * @author chetan
+ *
+ */
+public class AutomatonUASparser extends UASparser {
+
+    /**
+     * A database with an automaton per regex table
+     */
+    protected static class AutomatonDatabase extends Database {
+        MultiPatternAutomaton browserAutomaton;
+        MultiPatternAutomaton osAutomaton;
+        MultiPatternAutomaton deviceAutomaton;
+    }
+
+    /**
+     * Create a parser without a database, see {@link UASparser#UASparser()}
+     */
+    public AutomatonUASparser() {
+    }
+
+    public AutomatonUASparser(InputStream inputStreamToDefinitionFile) throws IOException {
+        super(inputStreamToDefinitionFile);
+    }
+
+    public AutomatonUASparser(InputStream inputStreamToDefinitionFile, RegexEngine regexEngine) throws IOException {
+        super(inputStreamToDefinitionFile, regexEngine);
+    }
+
+    public AutomatonUASparser(String localDefinitionFilename) throws IOException {
+        super(localDefinitionFilename);
+    }
+
+    public AutomatonUASparser(String localDefinitionFilename, RegexEngine regexEngine) throws IOException {
+        super(localDefinitionFilename, regexEngine);
+    }
+
+    @Override
+    protected Database newDatabase() {
+        return new AutomatonDatabase();
+    }
+
+    /**
+     * Build the automatons instead of the literal prefilters
+     */
+    @Override
+    protected void preCompilePrefilters(Database db) {
+        final AutomatonDatabase adb = (AutomatonDatabase) db;
+        BuildTasks tasks = new BuildTasks(buildExecutor);
+        tasks.submit(new Runnable() {
+            @Override
+            public void run() {
+                adb.browserAutomaton = new MultiPatternAutomaton(adb.browserRegMap.keySet());
+            }
+        });
+        tasks.submit(new Runnable() {
+            @Override
+            public void run() {
+                adb.osAutomaton = new MultiPatternAutomaton(adb.osRegMap.keySet());
+            }
+        });
+        if (adb.deviceRegMap != null) {
+            tasks.submit(new Runnable() {
+                @Override
+                public void run() {
+                    adb.deviceAutomaton = new MultiPatternAutomaton(adb.deviceRegMap.keySet());
+                }
+            });
+        }
+        tasks.await();
+    }
+
+    @Override
+    protected void processBrowserRegex(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
+        // one automaton pass counts as a single step of the budget
+        if (!withinBudget(uaInfo)) {
+            return;
+        }
+        int index = findFirst(((AutomatonDatabase) db).browserAutomaton, db.browserPatterns, useragent);
+        if (index >= 0 && !uaInfo.wants(UaField.BROWSER_VERSION)) {
+            // no need to match again for the version
+            uaInfo.browserIndex = index;
+            applyBrowserMatch(db, db.browserTargets[index], null, uaInfo);
+        } else if (index >= 0) {
+            // the scanning patterns are group-free in two-phase mode
+            CompiledRegex pattern = db.browserCapturePatterns != null
+                    ? db.browserCapturePatterns[index] : db.browserPatterns[index];
+            RegexMatcher matcher = pattern.matcher(useragent);
+            if (matcher.find()) {
+                uaInfo.browserIndex = index;
+                applyBrowserMatch(db, db.browserTargets[index], matcher, uaInfo);
+            } else {
+                // the engine disagrees with the automaton, trust the engine
+                scanBrowserPatterns(db, useragent, uaInfo);
+            }
+        }
+    }
+
+    /**
+     * Scan the browser table with the regex engine, in table order, as {@link UASparser} does
+     * without a prefilter
+     */
+    private void scanBrowserPatterns(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
+        CompiledRegex[] browserPatterns = db.browserPatterns;
+        for (int index = 0; index < browserPatterns.length; index++) {
+            if (!withinBudget(uaInfo)) {
+                return;
+            }
+            RegexMatcher matcher = browserPatterns[index].matcher(useragent);
+            if (matcher.find()) {
+                uaInfo.browserIndex = index;
+                applyBrowserMatch(db, db.browserTargets[index],
+                        captureBrowserMatch(db, index, matcher, useragent, uaInfo), uaInfo);
+                return;
+            }
+        }
+    }
+
+    @Override
+    protected void processOsRegex(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
+        if (!withinBudget(uaInfo)) {
+            return;
+        }
+        int index = findFirst(((AutomatonDatabase) db).osAutomaton, db.osPatterns, useragent);
+        if (index >= 0) {
+            uaInfo.osIndex = index;
+            uaInfo.setOsEntry(db.oses[db.osTargets[index]]);
+        }
+    }
+
+    @Override
+    protected void processDeviceRegex(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
+        MultiPatternAutomaton deviceAutomaton = ((AutomatonDatabase) db).deviceAutomaton;
+        if (deviceAutomaton == null || db.devices == null || !withinBudget(uaInfo)) {
+            return;
+        }
+        int index = findFirst(deviceAutomaton, db.devicePatterns, useragent);
+        if (index >= 0) {
+            uaInfo.deviceIndex = index;
+            uaInfo.setDeviceEntry(db.devices[db.deviceTargets[index]]);
+        }
+    }
+
+    /**
+     * Find the first pattern of a table matching the user agent
+     *
+     * @param automaton
+     * @param patterns
+     * @param useragent
+     * @return index of the pattern, or -1 if nothing matches
+     */
+    protected int findFirst(MultiPatternAutomaton automaton, CompiledRegex[] patterns, CharSequence useragent) {
+        int index = automaton.firstMatch(useragent);
+        int limit = index < 0 ? patterns.length : index;
+
+        // patterns the automaton can't handle are tried in table order
+        for (int unsupported : automaton.getUnsupported()) {
+            if (unsupported >= limit) {
+                break;
+            }
+            if (patterns[unsupported].matcher(useragent).find()) {
+                return unsupported;
+            }
+        }
+        return index;
+    }
+
+}
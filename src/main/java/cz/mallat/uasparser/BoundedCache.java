@@ -0,0 +1,411 @@
+package cz.mallat.uasparser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounded W-TinyLFU cache keyed by strings, the base of the parse result caches.
+ *
+ * New entries go into a small LRU window; an entry leaving the window only replaces an entry of
+ * the main area if its key was seen more often, according to a count-min sketch which is halved
+ * periodically. The cache is split into segments which are locked separately.
+ *
+ * @author chetan
+ *
+ */
+class BoundedCache<V> {
+
+    private static final int MIN_SEGMENT_SIZE = 64;
+    private static final int MAX_SEGMENTS = 16;
+
+    private final int maximumSize;
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    /**
+     * Bumped on every {@link #clear()}, values computed against an older database are dropped
+     */
+    private volatile int epoch;
+
+    /**
+     * @param maximumSize
+     *            maximum number of entries
+     */
+    BoundedCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        int count = 1;
+        int shift = 32;
+        while (count < MAX_SEGMENTS && maximumSize / (count * 2) >= MIN_SEGMENT_SIZE) {
+            count *= 2;
+            shift--;
+        }
+        this.segmentShift = shift;
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(this, maximumSize / count + (i < maximumSize % count ? 1 : 0));
+        }
+    }
+
+    /**
+     * @param key
+     * @return the cached value, or null
+     */
+    public V get(String key) {
+        return get(key, epoch);
+    }
+
+    /**
+     * Look up a value which was added at the given epoch; values from before a
+     * {@link #clear()} which has not yet reached their segment are not returned
+     */
+    @SuppressWarnings("unchecked")
+    V get(String key, int epoch) {
+        int hash = spread(key.hashCode());
+        return (V) segmentFor(hash).get(key, hash, epoch);
+    }
+
+    /**
+     * Add a value. It may not be admitted if the key is rare.
+     *
+     * @param key
+     * @param value
+     */
+    public void put(String key, V value) {
+        put(key, value, epoch);
+    }
+
+    /**
+     * Add a value which was computed after {@link #getEpoch()} returned the given value. It is
+     * dropped if the cache was cleared in the meantime.
+     */
+    void put(String key, V value, int epoch) {
+        int hash = spread(key.hashCode());
+        segmentFor(hash).put(key, hash, value, epoch);
+    }
+
+    int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Remove all entries. Access frequencies and counters are kept.
+     */
+    public void clear() {
+        synchronized (this) {
+            epoch++;
+        }
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        long count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.hits;
+            }
+        }
+        return count;
+    }
+
+    public long getMissCount() {
+        long count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.misses;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return number of entries removed to make room, including new entries which were not
+     *         admitted
+     */
+    public long getEvictionCount() {
+        long count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.evictions;
+            }
+        }
+        return count;
+    }
+
+    private Segment segmentFor(int hash) {
+        return segmentShift == 32 ? segments[0] : segments[hash >>> segmentShift];
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static final class Node {
+        final String key;
+        final int hash;
+        Object value;
+        int epoch;
+        int queue;
+        Node prev;
+        Node next;
+
+        Node(String key, int hash, Object value) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Doubly linked list of nodes, least recently used first
+     */
+    private static final class Queue {
+        Node head;
+        Node tail;
+        int size;
+
+        void addLast(Node node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        void remove(Node node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        void moveToLast(Node node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        void clear() {
+            head = null;
+            tail = null;
+            size = 0;
+        }
+    }
+
+    /**
+     * An independent W-TinyLFU cache; the window takes 1% of the entries, the rest is a segmented
+     * LRU of which 80% is protected
+     */
+    private static final class Segment {
+        final BoundedCache<?> owner;
+        final int maximumSize;
+        final int maxWindow;
+        final int maxProtected;
+        final Map<String, Node> map;
+        final Queue window = new Queue();
+        final Queue probation = new Queue();
+        final Queue protectedQueue = new Queue();
+        final FrequencySketch sketch;
+
+        long hits;
+        long misses;
+        long evictions;
+
+        Segment(BoundedCache<?> owner, int maximumSize) {
+            this.owner = owner;
+            this.maximumSize = maximumSize;
+            this.maxWindow = Math.max(1, maximumSize / 100);
+            this.maxProtected = (maximumSize - maxWindow) * 4 / 5;
+            this.map = new HashMap<String, Node>();
+            this.sketch = new FrequencySketch(maximumSize);
+        }
+
+        synchronized Object get(String key, int hash, int getEpoch) {
+            sketch.increment(hash);
+            Node node = map.get(key);
+            if (node == null || node.epoch != getEpoch) {
+                misses++;
+                return null;
+            }
+            hits++;
+            onHit(node);
+            return node.value;
+        }
+
+        synchronized void put(String key, int hash, Object value, int putEpoch) {
+            if (putEpoch != owner.epoch) {
+                return;
+            }
+            Node node = map.get(key);
+            if (node != null) {
+                node.value = value;
+                node.epoch = putEpoch;
+                return;
+            }
+            node = new Node(key, hash, value);
+            node.epoch = putEpoch;
+            node.queue = WINDOW;
+            map.put(key, node);
+            window.addLast(node);
+            evict();
+        }
+
+        synchronized void clear() {
+            map.clear();
+            window.clear();
+            probation.clear();
+            protectedQueue.clear();
+        }
+
+        private void onHit(Node node) {
+            switch (node.queue) {
+            case WINDOW:
+                window.moveToLast(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedQueue.addLast(node);
+                if (protectedQueue.size > maxProtected) {
+                    Node demoted = protectedQueue.head;
+                    protectedQueue.remove(demoted);
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                }
+                break;
+            default:
+                protectedQueue.moveToLast(node);
+            }
+        }
+
+        /**
+         * Move the oldest window entry to the main area, and if the segment is full, keep
+         * either it or the oldest probation entry, whichever was seen more often
+         */
+        private void evict() {
+            if (window.size <= maxWindow) {
+                return;
+            }
+            Node candidate = window.head;
+            window.remove(candidate);
+            candidate.queue = PROBATION;
+            probation.addLast(candidate);
+            if (map.size() <= maximumSize) {
+                return;
+            }
+            Node victim = probation.head;
+            if (victim != candidate && sketch.frequency(candidate.hash) <= sketch.frequency(victim.hash)) {
+                victim = candidate;
+            }
+            probation.remove(victim);
+            map.remove(victim.key);
+            evictions++;
+        }
+    }
+
+    /**
+     * Count-min sketch with four 4-bit counters per item. All counters are halved once enough
+     * items were counted, so old popularity fades away.
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+                0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int size;
+
+        FrequencySketch(int maximumSize) {
+            int length = Integer.highestOneBit(Math.max(maximumSize, 8) - 1) << 1;
+            table = new long[length];
+            tableMask = length - 1;
+            sampleSize = 10 * maximumSize;
+        }
+
+        int frequency(int hash) {
+            int start = (hash & 3) << 2;
+            int frequency = 15;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = (start + i) << 2;
+                long mask = 0xfL << offset;
+                if ((table[index] & mask) != mask) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++size >= sampleSize) {
+                reset();
+            }
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & tableMask;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size /= 2;
+        }
+    }
+
+}
@@ -4,119 +4,82 @@ import java.util.Iterator;
 import java.util.List;
 
 /**
- * JavaBean that holds the data from the [browser] section in the data file
+ * JavaBean that holds the data from the [browser] section in the data file. The metadata columns
+ * are kept in the {@link StringTable} of the database.
  *
  * @author oli
  *
  */
 class BrowserEntry {
 
-	private Long type;
-	private String family;
-	@Deprecated
-	private String name;
-	private String url;
-	private String company;
-	private String companyUrl;
-	private String ico;
-	private String infoUrl;
+	private final StringTable strings;
+	private final Long type;
+	private final String family;
+	private final int url;
+	private final int company;
+	private final int companyUrl;
+	private final int ico;
+	private final int infoUrl;
 
-	public BrowserEntry(List<String> data) {
+	public BrowserEntry(List<String> data, StringTable strings) {
 		Iterator<String> it = data.iterator();
+		this.strings = strings;
 		this.type = Long.parseLong(it.next());
 		this.family = it.next();
-		this.url = it.next();
-		this.company = it.next();
-		this.companyUrl = it.next();
-		this.ico = it.next();
-		this.infoUrl = it.next();
-		// this.name stays empty, will be filled with family + version
+		this.url = strings.add(MetadataField.URL, it.next());
+		this.company = strings.add(MetadataField.COMPANY, it.next());
+		this.companyUrl = strings.add(MetadataField.COMPANY_URL, it.next());
+		this.ico = strings.add(MetadataField.ICON, it.next());
+		this.infoUrl = strings.add(MetadataField.INFO_URL, it.next());
 	}
 
 	public String getFamily() {
 		return family;
 	}
 
-	public void setFamily(String family) {
-		this.family = family;
-	}
-
 	public Long getType() {
 		return type;
 	}
 
-	public void setType(Long type) {
-		this.type = type;
-	}
-
 	/**
 	 * This field is never used
 	 * @return
 	 */
 	@Deprecated
 	public String getName() {
-		return name;
-	}
-
-	/**
-	 * This field is never used
-	 * @param name
-	 */
-	@Deprecated
-	public void setName(String name) {
-		this.name = name;
+		return null;
 	}
 
 	public String getUrl() {
-		return url;
-	}
-
-	public void setUrl(String url) {
-		this.url = url;
+		return strings.get(url);
 	}
 
 	public String getCompany() {
-		return company;
-	}
-
-	public void setCompany(String company) {
-		this.company = company;
+		return strings.get(company);
 	}
 
 	public String getCompanyUrl() {
-		return companyUrl;
-	}
-
-	public void setCompanyUrl(String companyUrl) {
-		this.companyUrl = companyUrl;
+		return strings.get(companyUrl);
 	}
 
 	public String getIco() {
-		return ico;
-	}
-
-	public void setIco(String ico) {
-		this.ico = ico;
+		return strings.get(ico);
 	}
 
 	public String getInfoUrl() {
-		return infoUrl;
-	}
-
-	public void setInfoUrl(String infoUrl) {
-		this.infoUrl = infoUrl;
+		return strings.get(infoUrl);
 	}
 
     @Override
     public String toString() {
         return  "Browser: \n" +
-                "  Family: " + family + "\n" +
+                "  Family: " + getFamily() + "\n" +
                 "  Type: " + type + "\n" +
-                "  URL: " + url + "\n" +
-                "  Company: " + company + "\n" +
-                "  Company URL: " + companyUrl + "\n" +
-                "  ICO: " + ico + "\n" +
-                "  Info URL: " + infoUrl;
+                "  URL: " + getUrl() + "\n" +
+                "  Company: " + getCompany() + "\n" +
+                "  Company URL: " + getCompanyUrl() + "\n" +
+                "  ICO: " + getIco() + "\n" +
+                "  Info URL: " + getInfoUrl();
     }
 
 }
\ No newline at end of file
@@ -2,12 +2,16 @@ package cz.mallat.uasparser;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
-import jregex.Matcher;
-import jregex.Pattern;
+import cz.mallat.uasparser.regex.CompiledRegex;
+import cz.mallat.uasparser.regex.LiteralPrefilter;
+import cz.mallat.uasparser.regex.RegexMatcher;
 
 /**
  * A {@link UASparser} which is only concerned with returning the browser 
@@ -22,8 +26,12 @@ import jregex.Pattern;
  */
 public class BrowserFamilyParser extends UASparser {
 
-	protected Map<Pattern, Long> compiledBrowserRegMap;
-	protected Map<Pattern, Long> compiledOsRegMap;
+	/**
+	 * A database with the browser patterns of the wanted browsers only
+	 */
+	protected static class FamilyDatabase extends Database {
+		Map<CompiledRegex, Long> compiledBrowserRegMap;
+	}
 
 	public static final String UNKNOWN = "unknown";
 
@@ -61,15 +69,29 @@ public class BrowserFamilyParser extends UASparser {
 		for (String b : browsers) {
 			this.browsers.put(b, 1);
 		}
-		preCompileRegExes(); // recompile
+		recompile();
+	}
+
+	/**
+	 * Ignored, {@link #parseBrowserFamily(String)} only scans the patterns of the wanted
+	 * browsers, while the skeleton cache expects the full browser table
+	 */
+	@Override
+	public void setSkeletonCache(SkeletonCache skeletonCache) {
 	}
 
 	public String parseBrowserFamily(String userAgent) {
-		for (Map.Entry<Pattern, Long> entry : compiledBrowserRegMap.entrySet()) {
-			Matcher matcher = entry.getKey().matcher(userAgent);
+		FamilyDatabase db = (FamilyDatabase) database;
+		BitSet candidates = db.browserPrefilter.candidates(userAgent);
+		int i = 0;
+		for (Map.Entry<CompiledRegex, Long> entry : db.compiledBrowserRegMap.entrySet()) {
+			if (!candidates.get(i++)) {
+				continue;
+			}
+			RegexMatcher matcher = entry.getKey().matcher(userAgent);
 			if (matcher.find()) {
 				Long idBrowser = entry.getValue();
-				BrowserEntry be = browserMap.get(idBrowser);
+				BrowserEntry be = db.browserMap.get(idBrowser);
 				if (be != null) {
 					return be.getFamily();
 				}
@@ -80,24 +102,41 @@ public class BrowserFamilyParser extends UASparser {
 	}
 
 	@Override
-	protected void preCompileRegExes() {
-		preCompileBrowserRegMap();
-		preCompileOsRegMap();
+	protected Database newDatabase() {
+		return new FamilyDatabase();
+	}
+
+	@Override
+	protected void preCompileRegExes(Database db) {
+		preCompileBrowserRegMap(db);
+		preCompileOsRegMap(db);
+	}
+
+	@Override
+	protected void warmUp(Database db) {
+		Map<CompiledRegex, Long> compiledBrowserRegMap = ((FamilyDatabase) db).compiledBrowserRegMap;
+		warmUp(db, compiledBrowserRegMap.keySet().toArray(new CompiledRegex[compiledBrowserRegMap.size()]));
 	}
 
 	/**
 	 * Precompile browser regexes
 	 */
-	protected void preCompileBrowserRegMap() {
-		compiledBrowserRegMap = new LinkedHashMap<Pattern, Long>(browserRegMap.size());
-		for (Map.Entry<String, Long> entry : browserRegMap.entrySet()) {
+	@Override
+	protected void preCompileBrowserRegMap(Database db) {
+		Map<CompiledRegex, Long> compiledBrowserRegMap = new LinkedHashMap<CompiledRegex, Long>(db.browserRegMap.size());
+		List<String> regexes = new ArrayList<String>(db.browserRegMap.size());
+		for (Map.Entry<String, Long> entry : db.browserRegMap.entrySet()) {
 			if (browsers != null
-					&& !browsers.containsKey(browserMap.get(entry.getValue()).getFamily())) {
+					&& !browsers.containsKey(db.browserMap.get(entry.getValue()).getFamily())) {
 				continue;
 			}
-			Pattern pattern = new Pattern(entry.getKey(), Pattern.IGNORE_CASE | Pattern.DOTALL);
+			CompiledRegex pattern = compileScanPattern(db, entry.getKey());
 			compiledBrowserRegMap.put(pattern, entry.getValue());
+			regexes.add(entry.getKey());
 		}
+		((FamilyDatabase) db).compiledBrowserRegMap = compiledBrowserRegMap;
+		// index only the patterns we kept, so the candidate indexes line up
+		db.browserPrefilter = new LiteralPrefilter(regexes);
 	}
 
 }
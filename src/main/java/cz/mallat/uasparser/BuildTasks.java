@@ -0,0 +1,75 @@
+package cz.mallat.uasparser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Independent steps of a database build, run on an executor. Each step writes its own part of
+ * the result, so the result does not depend on the order they run in.
+ *
+ * {@link #await()} runs the steps no thread has started yet on the calling thread, and only waits
+ * for the ones already running. So steps may submit and await steps of their own, even on a
+ * bounded or busy executor. Without an executor every step runs right away on the calling thread.
+ *
+ * @author chetan
+ *
+ */
+final class BuildTasks {
+
+    private final Executor executor;
+    private final List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
+
+    /**
+     * @param executor
+     *            may be null
+     */
+    BuildTasks(Executor executor) {
+        this.executor = executor;
+    }
+
+    void submit(Runnable step) {
+        if (executor == null) {
+            step.run();
+            return;
+        }
+        FutureTask<Void> task = new FutureTask<Void>(step, null);
+        tasks.add(task);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // run by await()
+        }
+    }
+
+    /**
+     * Wait for all steps, rethrowing the first failure
+     */
+    void await() {
+        for (FutureTask<Void> task : tasks) {
+            // no-op if a thread of the executor got to it first
+            task.run();
+        }
+        try {
+            for (FutureTask<Void> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while building the database", e);
+        }
+    }
+
+}
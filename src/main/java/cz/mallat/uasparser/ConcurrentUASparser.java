@@ -0,0 +1,252 @@
+package cz.mallat.uasparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import cz.mallat.uasparser.regex.RegexEngine;
+import cz.mallat.uasparser.regex.RegexMatcher;
+
+/**
+ * A thread-safe facade over the single threaded parser. It owns a fixed number of lanes, each a
+ * view of the database with its own {@link SingleThreadedUASparser.MatcherSet matcher set}, kept
+ * in a striped array of atomic slots. A parse checks a whole lane out with one compare-and-set,
+ * runs the single threaded parse on it and checks it back in.
+ *
+ * When all lanes are busy, the parse runs on a temporary lane instead of waiting, see
+ * {@link #getTemporaryLaneCount()}. Compared to {@link PooledUASparser} the matcher sets are
+ * created up front and a parse takes one set for all tables, so it suits a steady number of
+ * threads which parse all the time.
+ *
+ * @author chetan
+ *
+ */
+public class ConcurrentUASparser extends SingleThreadedUASparser {
+
+    /**
+     * A database with the lanes to parse it on. A lane is a shallow copy with its own matchers.
+     */
+    protected static class LaneDatabase extends MatcherDatabase {
+        AtomicReferenceArray<LaneDatabase> lanes;
+        AtomicLong temporaryLaneCount;
+        // the database a lane is a view of, null until its first use
+        Database source;
+    }
+
+    protected int laneCount;
+
+    /**
+     * Create a parser without a database, see {@link UASparser#UASparser()}
+     */
+    public ConcurrentUASparser() {
+    }
+
+    public ConcurrentUASparser(InputStream inputStreamToDefinitionFile) throws IOException {
+        super(inputStreamToDefinitionFile);
+    }
+
+    public ConcurrentUASparser(InputStream inputStreamToDefinitionFile, RegexEngine regexEngine) throws IOException {
+        super(inputStreamToDefinitionFile, regexEngine);
+    }
+
+    public ConcurrentUASparser(String localDefinitionFilename) throws IOException {
+        super(localDefinitionFilename);
+    }
+
+    public ConcurrentUASparser(String localDefinitionFilename, RegexEngine regexEngine) throws IOException {
+        super(localDefinitionFilename, regexEngine);
+    }
+
+    /**
+     * @param inputStreamToDefinitionFile
+     * @param laneCount
+     *            matcher sets to own, see {@link #setLaneCount(int)}
+     * @throws IOException
+     */
+    public ConcurrentUASparser(InputStream inputStreamToDefinitionFile, int laneCount) throws IOException {
+        checkLaneCount(laneCount);
+        this.laneCount = laneCount;
+        loadDataFromFile(inputStreamToDefinitionFile);
+    }
+
+    /**
+     * Set how many matcher sets the parser owns. The default is the number of processors.
+     * Recompiles the patterns of a loaded database.
+     *
+     * @param laneCount
+     *            at least 1
+     */
+    public void setLaneCount(int laneCount) {
+        checkLaneCount(laneCount);
+        this.laneCount = laneCount;
+        recompile();
+    }
+
+    /**
+     * @return number of matcher sets the parser owns
+     */
+    public int getLaneCount() {
+        return laneCount > 0 ? laneCount : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return number of parses of the current database which ran on a temporary lane because
+     *         all lanes were busy
+     */
+    public long getTemporaryLaneCount() {
+        LaneDatabase db = (LaneDatabase) database;
+        return db != null ? db.temporaryLaneCount.get() : 0;
+    }
+
+    private static void checkLaneCount(int laneCount) {
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("lane count must be at least 1: " + laneCount);
+        }
+    }
+
+    @Override
+    protected Database newDatabase() {
+        return new LaneDatabase();
+    }
+
+    /**
+     * None, the lanes have the matchers
+     */
+    @Override
+    protected RegexMatcher[] preCompileBrowserMatchers(Database db) {
+        return null;
+    }
+
+    /**
+     * None, the lanes have the matchers
+     */
+    @Override
+    protected RegexMatcher[] preCompileOsMatchers(Database db) {
+        return null;
+    }
+
+    /**
+     * None, the lanes have the matchers
+     */
+    @Override
+    protected RegexMatcher[] preCompileDeviceMatchers(Database db) {
+        return null;
+    }
+
+    @Override
+    protected void preCompileRegExes(Database db) {
+        super.preCompileRegExes(db);
+        LaneDatabase laneDb = (LaneDatabase) db;
+        laneDb.temporaryLaneCount = new AtomicLong();
+        laneDb.lanes = new AtomicReferenceArray<LaneDatabase>(getLaneCount());
+        for (int i = 0; i < laneDb.lanes.length(); i++) {
+            // only the matchers for now, the caches are attached to the database when published
+            LaneDatabase lane = new LaneDatabase();
+            setMatchers(lane, new MatcherSet(db));
+            laneDb.lanes.set(i, lane);
+        }
+    }
+
+    /**
+     * @param db
+     * @param matchers
+     *            lane to take the matchers from, or null to create them
+     * @return a view of the database with its own matchers
+     */
+    private static LaneDatabase newLane(LaneDatabase db, LaneDatabase matchers) {
+        LaneDatabase lane = (LaneDatabase) db.copy();
+        lane.source = db;
+        if (matchers != null) {
+            lane.browserMatchers = matchers.browserMatchers;
+            lane.osMatchers = matchers.osMatchers;
+            lane.deviceMatchers = matchers.deviceMatchers;
+            lane.candidates = matchers.candidates;
+        } else {
+            setMatchers(lane, new MatcherSet(db));
+        }
+        return lane;
+    }
+
+    private static void setMatchers(LaneDatabase lane, MatcherSet matchers) {
+        lane.browserMatchers = matchers.browserMatchers;
+        lane.osMatchers = matchers.osMatchers;
+        lane.deviceMatchers = matchers.deviceMatchers;
+        lane.candidates = matchers.candidates;
+    }
+
+    /**
+     * Take a free lane, or create a temporary one if all are busy
+     */
+    private static LaneDatabase checkOut(LaneDatabase db) {
+        AtomicReferenceArray<LaneDatabase> lanes = db.lanes;
+        int count = lanes.length();
+        int start = MatcherPool.stripe(count);
+        for (int i = 0; i < count; i++) {
+            int index = (start + i) % count;
+            LaneDatabase lane = lanes.get(index);
+            if (lane != null && lanes.compareAndSet(index, lane, null)) {
+                // first use, or the database was republished with other caches: the matchers
+                // still fit
+                return lane.source == db ? lane : newLane(db, lane);
+            }
+        }
+        db.temporaryLaneCount.incrementAndGet();
+        return newLane(db, null);
+    }
+
+    /**
+     * Put a lane back into a free slot, dropping it if there is none
+     */
+    private static void checkIn(LaneDatabase db, LaneDatabase lane) {
+        AtomicReferenceArray<LaneDatabase> lanes = db.lanes;
+        int count = lanes.length();
+        int start = MatcherPool.stripe(count);
+        for (int i = 0; i < count; i++) {
+            int index = (start + i) % count;
+            if (lanes.get(index) == null && lanes.compareAndSet(index, null, lane)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    protected UserAgentInfo parseUncached(Database db, String useragent) {
+        LaneDatabase laneDb = (LaneDatabase) db;
+        LaneDatabase lane = checkOut(laneDb);
+        try {
+            return super.parseUncached(lane, useragent);
+        } finally {
+            checkIn(laneDb, lane);
+        }
+    }
+
+    @Override
+    protected void parseInto(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
+        LaneDatabase laneDb = (LaneDatabase) db;
+        LaneDatabase lane = checkOut(laneDb);
+        try {
+            super.parseInto(lane, useragent, uaInfo);
+        } finally {
+            checkIn(laneDb, lane);
+        }
+    }
+
+    @Override
+    public UserAgentInfo parseBrowserOnly(String useragent) {
+        if (useragent == null) {
+            return unknownAgentInfo;
+        }
+
+        LaneDatabase db = (LaneDatabase) database;
+        LaneDatabase lane = checkOut(db);
+        try {
+            UserAgentInfo uaInfo = new UserAgentInfo();
+            processBrowserRegex(lane, normalizer != null ? normalizer.normalize(useragent) : useragent, uaInfo);
+            return uaInfo;
+        } finally {
+            checkIn(db, lane);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package cz.mallat.uasparser;
+
+import java.util.Map;
+
+import cz.mallat.uasparser.regex.CompiledRegex;
+import cz.mallat.uasparser.regex.LiteralPrefilter;
+import cz.mallat.uasparser.regex.RegexEngine;
+
+/**
+ * One loaded database: the tables read from the definition file and everything compiled from
+ * them. A parser builds a new snapshot completely before publishing it with a single volatile
+ * write, and every parse reads it once, so a parse never mixes two databases and never waits for
+ * a reload.
+ *
+ * Not modified once published. Parser variants with more compiled state extend it.
+ *
+ * Part of the API for parser subclasses: the protected hooks of {@link UASparser} get the
+ * database to work on, and the public fields are what the protected maps of the parser used to
+ * be. The regex tables are kept both as read from the file, e.g. {@link #browserRegMap}, and
+ * compiled, as parallel arrays of pattern ({@link #browserPatterns}) and target position
+ * ({@link #browserTargets}) in the dense tables ({@link #browsers}). The remaining fields are
+ * internal.
+ *
+ * @see UASparser#newDatabase()
+ * @author chetan
+ *
+ */
+public class Database implements Cloneable {
+
+    // tables of the definition file
+    public Map<String, RobotEntry> robotsMap;
+    public Map<Long, OsEntry> osMap;
+    public Map<Long, BrowserEntry> browserMap;
+    public Map<Long, String> browserTypeMap;
+    public Map<String, Long> browserRegMap;
+    public Map<Long, Long> browserOsMap;
+    public Map<String, Long> osRegMap;
+    public Map<Long, DeviceEntry> deviceMap;
+    public Map<String, Long> deviceRegMap;
+    // the metadata columns of the entries
+    StringTable strings;
+
+    // the settings the patterns were compiled with
+    public RegexEngine regexEngine;
+    public boolean twoPhaseMatching;
+    public boolean lazyCompilation;
+    public boolean robotPrefixMatching;
+
+    // the tables remapped to dense arrays, indexed by position instead of by id
+    public BrowserEntry[] browsers;
+    public String[] browserTypes;
+    public OsEntry[] browserOses;
+    public OsEntry[] oses;
+    public DeviceEntry[] devices;
+
+    // exact lookup of the robots for input which is not a String, built on first use
+    volatile RobotIndex robotIndex;
+    // lookup of the robots by product token, for UASparser#isRobot(CharSequence), built on first
+    // use
+    volatile RobotClassifier robotClassifier;
+    // longest-prefix lookup of the robots, ignoring digits, built on first use
+    volatile RobotPrefixTrie robotPrefixes;
+
+    // regex tables as parallel arrays of pattern and target position
+    public int[] browserTargets;
+    public int[] osTargets;
+    public int[] deviceTargets;
+    public CompiledRegex[] browserPatterns;
+    public CompiledRegex[] osPatterns;
+    public CompiledRegex[] devicePatterns;
+    public CompiledRegex[] browserCapturePatterns;
+
+    // built on first use of the table when compiling lazily
+    volatile LiteralPrefilter browserPrefilter;
+    volatile LiteralPrefilter osPrefilter;
+    volatile LiteralPrefilter devicePrefilter;
+
+    // the caches which hold ids or table positions, with the epoch their entries must have
+    OffHeapUserAgentInfoCache offHeapCache;
+    UserAgentInfoCodec offHeapCodec;
+    SkeletonCache skeletonCache;
+    int skeletonEpoch;
+    SkeletonTable browserSkeletonTable;
+    SkeletonTable osSkeletonTable;
+    SkeletonTable deviceSkeletonTable;
+
+    /**
+     * Take over the tables of another database, to compile them again with other settings
+     *
+     * @param other
+     */
+    void copyTables(Database other) {
+        robotsMap = other.robotsMap;
+        osMap = other.osMap;
+        browserMap = other.browserMap;
+        browserTypeMap = other.browserTypeMap;
+        browserRegMap = other.browserRegMap;
+        browserOsMap = other.browserOsMap;
+        osRegMap = other.osRegMap;
+        deviceMap = other.deviceMap;
+        deviceRegMap = other.deviceRegMap;
+        strings = other.strings;
+    }
+
+    /**
+     * @return a shallow copy, sharing the tables and compiled state, to attach other caches to
+     */
+    Database copy() {
+        try {
+            return (Database) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package cz.mallat.uasparser;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cz.mallat.uasparser.fileparser.PHPFileHandler;
+
+/**
+ * Fills in the tables of a database from the records of a definition file, as they are read.
+ * Like before, a later section replaces an earlier one of the same name and unknown sections are
+ * ignored.
+ *
+ * @author chetan
+ *
+ */
+final class DatabaseBuilder implements PHPFileHandler {
+
+    private static final int OTHER = 0;
+    private static final int ROBOTS = 1;
+    private static final int OS = 2;
+    private static final int BROWSER = 3;
+    private static final int BROWSER_TYPE = 4;
+    private static final int BROWSER_REG = 5;
+    private static final int BROWSER_OS = 6;
+    private static final int OS_REG = 7;
+    private static final int DEVICE = 8;
+    private static final int DEVICE_REG = 9;
+
+    private final Database db;
+    private final UASparser parser;
+    private int table = OTHER;
+
+    /**
+     * @param db
+     * @param parser
+     *            converts the regexes
+     */
+    DatabaseBuilder(Database db, UASparser parser) {
+        this.db = db;
+        this.parser = parser;
+        db.strings = new StringTable(parser.metadataFields);
+    }
+
+    @Override
+    public void section(String name) {
+        if ("robots".equals(name)) {
+            table = ROBOTS;
+            db.robotsMap = new HashMap<String, RobotEntry>();
+        } else if ("os".equals(name)) {
+            table = OS;
+            db.osMap = new HashMap<Long, OsEntry>();
+        } else if ("browser".equals(name)) {
+            table = BROWSER;
+            db.browserMap = new HashMap<Long, BrowserEntry>();
+        } else if ("browser_type".equals(name)) {
+            table = BROWSER_TYPE;
+            db.browserTypeMap = new HashMap<Long, String>();
+        } else if ("browser_reg".equals(name)) {
+            table = BROWSER_REG;
+            db.browserRegMap = new LinkedHashMap<String, Long>();
+        } else if ("browser_os".equals(name)) {
+            table = BROWSER_OS;
+            db.browserOsMap = new HashMap<Long, Long>();
+        } else if ("os_reg".equals(name)) {
+            table = OS_REG;
+            db.osRegMap = new LinkedHashMap<String, Long>();
+        } else if ("device".equals(name)) {
+            table = DEVICE;
+            db.deviceMap = new HashMap<Long, DeviceEntry>();
+        } else if ("device_reg".equals(name)) {
+            table = DEVICE_REG;
+            db.deviceRegMap = new LinkedHashMap<String, Long>();
+        } else {
+            table = OTHER;
+        }
+    }
+
+    @Override
+    public void entry(String key, List<String> data) {
+        switch (table) {
+        case ROBOTS:
+            RobotEntry re = new RobotEntry(data, db.strings);
+            db.robotsMap.put(re.getUserAgentString(), re);
+            break;
+        case OS:
+            db.osMap.put(Long.parseLong(key), new OsEntry(data, db.strings));
+            break;
+        case BROWSER:
+            db.browserMap.put(Long.parseLong(key), new BrowserEntry(data, db.strings));
+            break;
+        case BROWSER_TYPE:
+            db.browserTypeMap.put(Long.parseLong(key), data.get(0));
+            break;
+        case BROWSER_REG:
+            db.browserRegMap.put(parser.convertPerlToJavaRegex(data.get(0)), Long.parseLong(data.get(1)));
+            break;
+        case BROWSER_OS:
+            db.browserOsMap.put(Long.parseLong(key), Long.parseLong(data.get(0)));
+            break;
+        case OS_REG:
+            db.osRegMap.put(parser.convertPerlToJavaRegex(data.get(0)), Long.parseLong(data.get(1)));
+            break;
+        case DEVICE:
+            db.deviceMap.put(Long.parseLong(key), new DeviceEntry(data, db.strings));
+            break;
+        case DEVICE_REG:
+            db.deviceRegMap.put(parser.convertPerlToJavaRegex(data.get(0)), Long.parseLong(data.get(1)));
+            break;
+        default:
+            break;
+        }
+    }
+
+}
@@ -0,0 +1,387 @@
+package cz.mallat.uasparser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cz.mallat.uasparser.fileparser.Entry;
+import cz.mallat.uasparser.fileparser.PHPFileParser;
+import cz.mallat.uasparser.fileparser.Section;
+
+/**
+ * Binary form of the definition file, which is loaded without parsing any text. The build
+ * generates it from the vendored definition file, see {@link #main(String[])}; parsers detect it
+ * by its header, so it can be passed wherever a definition file is expected.
+ *
+ * Layout, big endian: int magic, int format version, then the string table: int string count, the
+ * end offset of each string (in chars) as int, and all strings as one block of UTF-8 bytes,
+ * preceded by its length, so it is decoded in one go. Then the tables in the order of
+ * {@link #TABLES}, each as an int entry count (-1 if the definition file lacks it) and the
+ * entries, which refer to strings by their index:
+ * <ul>
+ * <li>robots: int n, n strings</li>
+ * <li>os, browser, device: long id, int n, n strings</li>
+ * <li>browser_type: long id, string</li>
+ * <li>browser_reg, os_reg, device_reg: regex as in the definition file, long id</li>
+ * <li>browser_os: long browser id, long os id</li>
+ * </ul>
+ *
+ * @author chetan
+ *
+ */
+public final class DatabaseFile {
+
+    static final int MAGIC = 0x55415342; // "UASB"
+    static final int VERSION = 1;
+
+    private static final String[] TABLES = { "robots", "os", "browser", "browser_type", "browser_reg",
+            "browser_os", "os_reg", "device", "device_reg" };
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private DatabaseFile() {
+    }
+
+    /**
+     * Convert a definition file to the binary form
+     *
+     * @param args
+     *            the definition file and the binary file to write
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: DatabaseFile <definition file> <binary file>");
+            System.exit(1);
+        }
+        PHPFileParser fp = new PHPFileParser(new File(args[0]));
+        write(fp.getSections(), new File(args[1]));
+    }
+
+    /**
+     * Write the sections of a definition file in the binary form
+     *
+     * @param sections
+     * @param file
+     * @throws IOException
+     */
+    public static void write(List<Section> sections, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            write(sections, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the sections of a definition file in the binary form
+     *
+     * @param sections
+     * @param out
+     * @throws IOException
+     */
+    public static void write(List<Section> sections, OutputStream out) throws IOException {
+        // like the text loader, a later section replaces an earlier one of the same name
+        Map<String, Section> sectionMap = new HashMap<String, Section>();
+        for (Section sec : sections) {
+            sectionMap.put(sec.getName(), sec);
+        }
+
+        Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        ByteArrayOutputStream tableBytes = new ByteArrayOutputStream();
+        DataOutputStream tables = new DataOutputStream(tableBytes);
+        for (String name : TABLES) {
+            Section sec = sectionMap.get(name);
+            if (sec == null) {
+                tables.writeInt(-1);
+                continue;
+            }
+            tables.writeInt(sec.getEntries().size());
+            for (Entry en : sec.getEntries()) {
+                writeEntry(name, en, tables, strings);
+            }
+        }
+        tables.flush();
+
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(strings.size());
+        StringBuilder block = new StringBuilder();
+        for (String s : strings.keySet()) {
+            block.append(s);
+            dos.writeInt(block.length());
+        }
+        byte[] bytes = block.toString().getBytes(UTF8);
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+        tableBytes.writeTo(dos);
+        dos.flush();
+    }
+
+    private static void writeEntry(String table, Entry en, DataOutputStream out, Map<String, Integer> strings)
+            throws IOException {
+        Iterator<String> it = en.getData().iterator();
+        if ("robots".equals(table)) {
+            writeStrings(en.getData(), out, strings);
+        } else if ("os".equals(table) || "browser".equals(table) || "device".equals(table)) {
+            out.writeLong(Long.parseLong(en.getKey()));
+            writeStrings(en.getData(), out, strings);
+        } else if ("browser_type".equals(table)) {
+            out.writeLong(Long.parseLong(en.getKey()));
+            out.writeInt(indexOf(it.next(), strings));
+        } else if ("browser_os".equals(table)) {
+            out.writeLong(Long.parseLong(en.getKey()));
+            out.writeLong(Long.parseLong(it.next()));
+        } else {
+            out.writeInt(indexOf(it.next(), strings));
+            out.writeLong(Long.parseLong(it.next()));
+        }
+    }
+
+    private static void writeStrings(List<String> values, DataOutputStream out, Map<String, Integer> strings)
+            throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeInt(indexOf(value, strings));
+        }
+    }
+
+    private static int indexOf(String s, Map<String, Integer> strings) {
+        Integer index = strings.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.put(s, index);
+        }
+        return index;
+    }
+
+    /**
+     * @param file
+     * @return true if the file starts with the header of the binary form
+     * @throws IOException
+     */
+    static boolean isBinary(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return raf.length() >= 4 && raf.readInt() == MAGIC;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @param is
+     *            a stream which supports mark/reset, it is reset to where it was
+     * @return true if the stream starts with the header of the binary form
+     * @throws IOException
+     */
+    static boolean isBinary(InputStream is) throws IOException {
+        is.mark(4);
+        try {
+            int magic = 0;
+            for (int i = 0; i < 4; i++) {
+                int b = is.read();
+                if (b < 0) {
+                    return false;
+                }
+                magic = magic << 8 | b;
+            }
+            return magic == MAGIC;
+        } finally {
+            is.reset();
+        }
+    }
+
+    /**
+     * Map a file in the binary form into memory
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    static ByteBuffer map(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel channel = fis.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Read a stream in the binary form to its end
+     *
+     * @param is
+     * @return
+     * @throws IOException
+     */
+    static ByteBuffer read(InputStream is) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 * 1024);
+        byte[] buff = new byte[8192];
+        int len;
+        while ((len = is.read(buff)) != -1) {
+            bytes.write(buff, 0, len);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    /**
+     * Fill in the tables of a database from the binary form
+     *
+     * @param buffer
+     * @param db
+     * @param parser
+     *            converts the regexes
+     * @throws IOException
+     *             if the data is not in the binary form or truncated
+     */
+    static void read(ByteBuffer buffer, Database db, UASparser parser) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("not a binary database");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported binary database version " + version);
+            }
+
+            String[] strings = readStrings(buffer);
+            // the entries keep their metadata packed, the rest of the strings are dropped
+            StringTable entryStrings = new StringTable(parser.metadataFields);
+            db.strings = entryStrings;
+
+            int count = buffer.getInt();
+            if (count >= 0) {
+                Map<String, RobotEntry> robotsMap = new HashMap<String, RobotEntry>(capacity(count));
+                for (int i = 0; i < count; i++) {
+                    RobotEntry re = new RobotEntry(readStrings(buffer, strings), entryStrings);
+                    robotsMap.put(re.getUserAgentString(), re);
+                }
+                db.robotsMap = robotsMap;
+            }
+            count = buffer.getInt();
+            if (count >= 0) {
+                Map<Long, OsEntry> osMap = new HashMap<Long, OsEntry>(capacity(count));
+                for (int i = 0; i < count; i++) {
+                    long id = buffer.getLong();
+                    osMap.put(id, new OsEntry(readStrings(buffer, strings), entryStrings));
+                }
+                db.osMap = osMap;
+            }
+            count = buffer.getInt();
+            if (count >= 0) {
+                Map<Long, BrowserEntry> browserMap = new HashMap<Long, BrowserEntry>(capacity(count));
+                for (int i = 0; i < count; i++) {
+                    long id = buffer.getLong();
+                    browserMap.put(id, new BrowserEntry(readStrings(buffer, strings), entryStrings));
+                }
+                db.browserMap = browserMap;
+            }
+            count = buffer.getInt();
+            if (count >= 0) {
+                Map<Long, String> browserTypeMap = new HashMap<Long, String>(capacity(count));
+                for (int i = 0; i < count; i++) {
+                    long id = buffer.getLong();
+                    browserTypeMap.put(id, strings[buffer.getInt()]);
+                }
+                db.browserTypeMap = browserTypeMap;
+            }
+            count = buffer.getInt();
+            if (count >= 0) {
+                db.browserRegMap = readRegexes(buffer, count, strings, parser);
+            }
+            count = buffer.getInt();
+            if (count >= 0) {
+                Map<Long, Long> browserOsMap = new HashMap<Long, Long>(capacity(count));
+                for (int i = 0; i < count; i++) {
+                    long id = buffer.getLong();
+                    browserOsMap.put(id, buffer.getLong());
+                }
+                db.browserOsMap = browserOsMap;
+            }
+            count = buffer.getInt();
+            if (count >= 0) {
+                db.osRegMap = readRegexes(buffer, count, strings, parser);
+            }
+            count = buffer.getInt();
+            if (count >= 0) {
+                Map<Long, DeviceEntry> deviceMap = new HashMap<Long, DeviceEntry>(capacity(count));
+                for (int i = 0; i < count; i++) {
+                    long id = buffer.getLong();
+                    deviceMap.put(id, new DeviceEntry(readStrings(buffer, strings), entryStrings));
+                }
+                db.deviceMap = deviceMap;
+            }
+            count = buffer.getInt();
+            if (count >= 0) {
+                db.deviceRegMap = readRegexes(buffer, count, strings, parser);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated binary database");
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("corrupt binary database");
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer buffer) {
+        int[] ends = new int[buffer.getInt()];
+        buffer.asIntBuffer().get(ends);
+        buffer.position(buffer.position() + ends.length * 4);
+        int length = buffer.getInt();
+        ByteBuffer bytes = buffer.slice();
+        if (length > bytes.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        bytes.limit(length);
+        buffer.position(buffer.position() + length);
+
+        String block = UTF8.decode(bytes).toString();
+        String[] strings = new String[ends.length];
+        int start = 0;
+        for (int i = 0; i < ends.length; i++) {
+            strings[i] = block.substring(start, ends[i]);
+            start = ends[i];
+        }
+        return strings;
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer, String[] strings) {
+        String[] values = new String[buffer.getInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = strings[buffer.getInt()];
+        }
+        return Arrays.asList(values);
+    }
+
+    private static Map<String, Long> readRegexes(ByteBuffer buffer, int count, String[] strings, UASparser parser) {
+        Map<String, Long> regMap = new LinkedHashMap<String, Long>(capacity(count));
+        for (int i = 0; i < count; i++) {
+            String regex = parser.convertPerlToJavaRegex(strings[buffer.getInt()]);
+            regMap.put(regex, buffer.getLong());
+        }
+        return regMap;
+    }
+
+    private static int capacity(int count) {
+        return count * 4 / 3 + 1;
+    }
+
+}
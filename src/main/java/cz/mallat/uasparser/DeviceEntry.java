@@ -4,54 +4,45 @@ import java.util.Iterator;
 import java.util.List;
 
 /**
- * Java bean that holds the data from the [device] section in the data file.
+ * Java bean that holds the data from the [device] section in the data file. The metadata columns
+ * are kept in the {@link StringTable} of the database.
  *
  * @author Felix Siegrist, Inventage AG
  *
  */
 class DeviceEntry {
 
-	private String type;
-	private String ico;
-	private String infoUrl;
+	private final StringTable strings;
+	private final String type;
+	private final int ico;
+	private final int infoUrl;
 
-	public DeviceEntry(List<String> data) {
+	public DeviceEntry(List<String> data, StringTable strings) {
 		Iterator<String> it = data.iterator();
+		this.strings = strings;
 		this.type = it.next();
-		this.ico = it.next();
-		this.infoUrl = it.next();
+		this.ico = strings.add(MetadataField.ICON, it.next());
+		this.infoUrl = strings.add(MetadataField.INFO_URL, it.next());
 	}
 
 	public String getType() {
 		return type;
 	}
 
-	public void setType(String type) {
-		this.type = type;
-	}
-
 	public String getIco() {
-		return ico;
-	}
-
-	public void setIco(String ico) {
-		this.ico = ico;
+		return strings.get(ico);
 	}
 
 	public String getInfoUrl() {
-		return infoUrl;
-	}
-
-	public void setInfoUrl(String infoUrl) {
-		this.infoUrl = infoUrl;
+		return strings.get(infoUrl);
 	}
 
     @Override
     public String toString() {
         return  "Device: \n" +
-                "  Type: " + type + "\n" +
-                "  ICO: " + ico + "\n" +
-                "  Info URL: " + infoUrl;
+                "  Type: " + getType() + "\n" +
+                "  ICO: " + getIco() + "\n" +
+                "  Info URL: " + getInfoUrl();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+package cz.mallat.uasparser;
+
+import cz.mallat.uasparser.regex.CompiledRegex;
+import cz.mallat.uasparser.regex.RegexEngine;
+import cz.mallat.uasparser.regex.RegexMatcher;
+
+/**
+ * A regex which is compiled on its first evaluation. Thread-safe: the compiled regex is
+ * published through a volatile field; threads racing on the first use may each compile it, but
+ * all of them end up with an equivalent, immutable regex.
+ *
+ * Matchers created before the regex is compiled compile it once they are given a target.
+ *
+ * @see UASparser#setLazyCompilation(boolean)
+ * @author chetan
+ *
+ */
+final class LazyRegex implements CompiledRegex {
+
+    private final RegexEngine regexEngine;
+    private final String regex;
+    private volatile CompiledRegex compiled;
+
+    LazyRegex(RegexEngine regexEngine, String regex) {
+        this.regexEngine = regexEngine;
+        this.regex = regex;
+    }
+
+    /**
+     * @return the compiled regex, compiling it now if needed
+     * @throws IllegalArgumentException
+     *             if the regex is invalid, see {@link RegexEngine#compile(String)}
+     */
+    CompiledRegex compiled() {
+        CompiledRegex c = compiled;
+        if (c == null) {
+            c = regexEngine.compile(regex);
+            compiled = c;
+        }
+        return c;
+    }
+
+    boolean isCompiled() {
+        return compiled != null;
+    }
+
+    @Override
+    public RegexMatcher matcher() {
+        CompiledRegex c = compiled;
+        return c != null ? c.matcher() : new LazyMatcher(this);
+    }
+
+    @Override
+    public RegexMatcher matcher(CharSequence input) {
+        return compiled().matcher(input);
+    }
+
+    @Override
+    public String pattern() {
+        return regex;
+    }
+
+    /**
+     * Compile a pattern now, if it is a lazy one
+     *
+     * @param pattern
+     */
+    static void compile(CompiledRegex pattern) {
+        if (pattern instanceof LazyRegex) {
+            ((LazyRegex) pattern).compiled();
+        }
+    }
+
+    /**
+     * A matcher which creates the real one on first use
+     */
+    private static final class LazyMatcher implements RegexMatcher {
+
+        private final LazyRegex regex;
+        private RegexMatcher matcher;
+
+        LazyMatcher(LazyRegex regex) {
+            this.regex = regex;
+        }
+
+        private RegexMatcher matcher() {
+            if (matcher == null) {
+                matcher = regex.compiled().matcher();
+            }
+            return matcher;
+        }
+
+        @Override
+        public void setTarget(CharSequence input) {
+            matcher().setTarget(input);
+        }
+
+        @Override
+        public boolean find() {
+            return matcher().find();
+        }
+
+        @Override
+        public int groupCount() {
+            return matcher().groupCount();
+        }
+
+        @Override
+        public String group(int group) {
+            return matcher().group(group);
+        }
+
+        @Override
+        public int start(int group) {
+            return matcher().start(group);
+        }
+
+        @Override
+        public int end(int group) {
+            return matcher().end(group);
+        }
+
+    }
+
+}
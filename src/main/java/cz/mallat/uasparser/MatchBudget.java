@@ -0,0 +1,56 @@
+package cz.mallat.uasparser;
+
+/**
+ * Limits the matching work spent on a single call to {@link UASparser#parse(String)}.
+ *
+ * A step is one regex evaluation. Both limits are checked before every step; a running regex
+ * search can not be interrupted, so with a backtracking engine the parser cuts long user agents to
+ * {@link UASparser#MAX_BUDGETED_LENGTH} first. Only the
+ * {@link cz.mallat.uasparser.regex.LinearRegexEngine} bounds a single search at any length.
+ *
+ * Not thread-safe, a new budget is created for every parse.
+ *
+ * @author chetan
+ *
+ */
+final class MatchBudget {
+
+    private final int maxSteps;
+    private final long maxNanos;
+    private final long startTime;
+
+    private int steps;
+    private boolean exhausted;
+
+    /**
+     * @param maxSteps maximum number of regex evaluations, 0 for no limit
+     * @param maxNanos maximum time in nanoseconds, 0 for no limit
+     */
+    MatchBudget(int maxSteps, long maxNanos) {
+        this.maxSteps = maxSteps;
+        this.maxNanos = maxNanos;
+        this.startTime = maxNanos > 0 ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Take one step
+     *
+     * @return false if the budget is used up and the step must not be taken
+     */
+    boolean spend() {
+        if (exhausted) {
+            return false;
+        }
+        if ((maxSteps > 0 && ++steps > maxSteps)
+                || (maxNanos > 0 && System.nanoTime() - startTime > maxNanos)) {
+            exhausted = true;
+            return false;
+        }
+        return true;
+    }
+
+    boolean isExhausted() {
+        return exhausted;
+    }
+
+}
@@ -0,0 +1,106 @@
+package cz.mallat.uasparser;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import cz.mallat.uasparser.regex.CompiledRegex;
+import cz.mallat.uasparser.regex.RegexMatcher;
+
+/**
+ * A bounded, lock-free pool of matchers for the patterns of one regex table. Each slot holds one
+ * set of matchers or nothing; a thread takes a set out with a single compare-and-set, starting at
+ * the slot its thread id hashes to, and puts it back the same way. A count of the sets in the
+ * slots tells both sides whether looking through the slots can succeed at all, so a free set is
+ * always found unless another thread takes it first.
+ *
+ * The pool never blocks: when no set is free a new one is created, and a set finding no free slot
+ * on return is left to the garbage collector. Slots are filled on first return, so an idle pool
+ * holds nothing; the first {@link #size()} sets created fill it, every set after them is a miss.
+ *
+ * @author chetan
+ *
+ */
+final class MatcherPool {
+
+    private final CompiledRegex[] patterns;
+    private final AtomicReferenceArray<RegexMatcher[]> slots;
+    // sets in the slots
+    private final AtomicInteger free = new AtomicInteger();
+    private final AtomicLong createdCount = new AtomicLong();
+
+    /**
+     * @param patterns
+     *            the compiled patterns of the table
+     * @param size
+     *            number of slots, at least 1
+     */
+    MatcherPool(CompiledRegex[] patterns, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("pool size must be at least 1: " + size);
+        }
+        this.patterns = patterns;
+        this.slots = new AtomicReferenceArray<RegexMatcher[]>(size);
+    }
+
+    int size() {
+        return slots.length();
+    }
+
+    /**
+     * @return number of sets created beyond the {@link #size()} which fill the pool, because all
+     *         sets were in use
+     */
+    long getMissCount() {
+        return Math.max(0, createdCount.get() - slots.length());
+    }
+
+    /**
+     * Take a set of matchers out of the pool, or create one if none is free. The caller owns it
+     * until it is passed to {@link #release(RegexMatcher[])}.
+     */
+    RegexMatcher[] borrow() {
+        if (free.get() > 0) {
+            int size = slots.length();
+            int start = stripe(size);
+            for (int i = 0; i < size; i++) {
+                int index = (start + i) % size;
+                RegexMatcher[] matchers = slots.get(index);
+                if (matchers != null && slots.compareAndSet(index, matchers, null)) {
+                    free.decrementAndGet();
+                    return matchers;
+                }
+            }
+        }
+        createdCount.incrementAndGet();
+        return SingleThreadedUASparser.createMatchers(patterns);
+    }
+
+    /**
+     * Put a set of matchers back, dropping it if the pool is full
+     */
+    void release(RegexMatcher[] matchers) {
+        int size = slots.length();
+        if (free.get() >= size) {
+            return;
+        }
+        int start = stripe(size);
+        for (int i = 0; i < size; i++) {
+            int index = (start + i) % size;
+            if (slots.get(index) == null && slots.compareAndSet(index, null, matchers)) {
+                free.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the first slot of a striped array for the current thread, so threads mostly keep to
+     *         their own slots
+     */
+    static int stripe(int size) {
+        long h = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) ((h >>> 32) & 0x7fffffff) % size;
+    }
+
+}
@@ -0,0 +1,39 @@
+package cz.mallat.uasparser;
+
+/**
+ * The descriptive columns of the robot, browser, OS and device entries, which the parser only
+ * hands out and never needs itself. A parser can load a subset of them, see
+ * {@link UASparser#setMetadataFields(java.util.Set)}.
+ *
+ * @author chetan
+ *
+ */
+public enum MetadataField {
+
+    /**
+     * The product page, e.g. {@link UserAgentInfo#getUaUrl()}
+     */
+    URL,
+
+    /**
+     * The name of the vendor, e.g. {@link UserAgentInfo#getUaCompany()}
+     */
+    COMPANY,
+
+    /**
+     * The homepage of the vendor, e.g. {@link UserAgentInfo#getUaCompanyUrl()}
+     */
+    COMPANY_URL,
+
+    /**
+     * The icon file name, e.g. {@link UserAgentInfo#getUaIcon()}
+     */
+    ICON,
+
+    /**
+     * The path of the detail page on user-agent-string.info, e.g.
+     * {@link UserAgentInfo#getUaInfoUrl()}
+     */
+    INFO_URL
+
+}
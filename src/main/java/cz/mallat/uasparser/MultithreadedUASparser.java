@@ -2,15 +2,17 @@ package cz.mallat.uasparser;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
 
-import jregex.Matcher;
+import cz.mallat.uasparser.regex.RegexEngine;
+import cz.mallat.uasparser.regex.RegexMatcher;
 
 /**
- * This parser creates a Matcher set per-Thread using a ThreadLocal<Map>. It is faster than
- * the standard {@link UASparser} at the expense of greater memory usage.
+ * This parser creates a Matcher set per-Thread using a ThreadLocal. It is faster than
+ * the standard {@link UASparser} at the expense of greater memory usage. The compiled patterns
+ * are shared by all threads; each thread only gets its own matchers, see
+ * {@link #getMatcherSetBytes()}.
  *
  * Copyright: Copyright (c) 09.10.2012 <br>
  * Company: Braintags GmbH <br>
@@ -19,66 +21,139 @@ import jregex.Matcher;
  */
 public class MultithreadedUASparser extends SingleThreadedUASparser {
 
-    private ThreadLocal<Map<Matcher, Long>> compiledBrowserMatcherMapT;
-    private ThreadLocal<Map<Matcher, Long>> compiledOsMatcherMapT;
-    private ThreadLocal<Map<Matcher, Long>> compiledDeviceMatcherMapT;
+    /**
+     * A database with a set of matchers per thread, created on first use
+     */
+    protected static class ThreadLocalDatabase extends Database {
+        ThreadLocal<MatcherSet> matchersT;
+    }
+
+    protected final AtomicLong matcherSetCount = new AtomicLong();
+    protected final AtomicLong matcherSetNanos = new AtomicLong();
+    protected final AtomicLong matcherSetBytes = new AtomicLong();
+
+    /**
+     * Create a parser without a database, see {@link UASparser#UASparser()}
+     */
+    public MultithreadedUASparser() {
+    }
 
     public MultithreadedUASparser(InputStream inputStreamToDefinitionFile) throws IOException {
         super(inputStreamToDefinitionFile);
     }
 
+    public MultithreadedUASparser(InputStream inputStreamToDefinitionFile, RegexEngine regexEngine) throws IOException {
+        super(inputStreamToDefinitionFile, regexEngine);
+    }
+
     public MultithreadedUASparser(String localDefinitionFilename) throws IOException {
         super(localDefinitionFilename);
     }
 
+    public MultithreadedUASparser(String localDefinitionFilename, RegexEngine regexEngine) throws IOException {
+        super(localDefinitionFilename, regexEngine);
+    }
+
     @Override
-    protected void preCompileBrowserRegMap() {
-        compiledBrowserMatcherMapT = new ThreadLocal<Map<Matcher, Long>>() {
-            @Override
-            protected Map<Matcher, Long> initialValue() {
-                return preCompileBrowserMatcherMap();
-            }
-        };
+    protected Database newDatabase() {
+        return new ThreadLocalDatabase();
     }
 
+    /**
+     * Compile the shared browser patterns, the matchers are created per thread
+     */
     @Override
-    protected void preCompileOsRegMap() {
-        compiledOsMatcherMapT = new ThreadLocal<Map<Matcher, Long>>() {
-            @Override
-            protected Map<Matcher, Long> initialValue() {
-                return preCompileOsMatcherMap();
-            }
-        };
+    protected void preCompileBrowserRegMap(Database db) {
+        db.browserPatterns = compileScanPatterns(db, db.browserRegMap.keySet());
     }
 
+    /**
+     * Compile the shared OS patterns, the matchers are created per thread
+     */
     @Override
-    protected void preCompileDeviceRegMap() {
-        compiledDeviceMatcherMapT = new ThreadLocal<Map<Matcher,Long>>() {
+    protected void preCompileOsRegMap(Database db) {
+        db.osPatterns = compileScanPatterns(db, db.osRegMap.keySet());
+    }
+
+    /**
+     * Compile the shared device patterns, the matchers are created per thread
+     */
+    @Override
+    protected void preCompileDeviceRegMap(Database db) {
+        if (db.deviceRegMap != null) {
+            db.devicePatterns = compileScanPatterns(db, db.deviceRegMap.keySet());
+        }
+    }
+
+    @Override
+    protected void preCompileRegExes(final Database db) {
+        super.preCompileRegExes(db);
+        ((ThreadLocalDatabase) db).matchersT = new ThreadLocal<MatcherSet>() {
             @Override
-            protected Map<Matcher, Long> initialValue() {
-                return preCompileDeviceMatcherMap();
+            protected MatcherSet initialValue() {
+                return createMatcherSet(db);
             }
         };
     }
 
+    /**
+     * Create the matchers of a thread and count them in the statistics
+     *
+     * @param db
+     * @return
+     */
+    protected MatcherSet createMatcherSet(Database db) {
+        long bytes = AllocationCounter.allocatedBytes();
+        long start = System.nanoTime();
+        MatcherSet matchers = new MatcherSet(db);
+        matcherSetNanos.addAndGet(System.nanoTime() - start);
+        if (bytes >= 0) {
+            matcherSetBytes.addAndGet(AllocationCounter.allocatedBytes() - bytes);
+        }
+        matcherSetCount.incrementAndGet();
+        return matchers;
+    }
+
+    /**
+     * @return number of per-thread matcher sets created so far, over all databases
+     */
+    public long getMatcherSetCount() {
+        return matcherSetCount.get();
+    }
+
+    /**
+     * @return total time spent creating the per-thread matcher sets, in nanoseconds
+     */
+    public long getMatcherSetNanos() {
+        return matcherSetNanos.get();
+    }
+
+    /**
+     * @return total heap allocated for the per-thread matcher sets, in bytes, or -1 if the JVM
+     *         can't tell
+     */
+    public long getMatcherSetBytes() {
+        return AllocationCounter.isSupported() ? matcherSetBytes.get() : -1;
+    }
+
     @Override
-    protected Set<Entry<Matcher, Long>> getOsMatcherSet() {
-        return compiledOsMatcherMapT.get().entrySet();
+    protected RegexMatcher[] getOsMatchers(Database db) {
+        return ((ThreadLocalDatabase) db).matchersT.get().osMatchers;
     }
 
     @Override
-    protected Set<Entry<Matcher, Long>> getBrowserMatcherSet() {
-        return compiledBrowserMatcherMapT.get().entrySet();
+    protected RegexMatcher[] getBrowserMatchers(Database db) {
+        return ((ThreadLocalDatabase) db).matchersT.get().browserMatchers;
     }
 
     @Override
-    protected Set<Entry<Matcher, Long>> getDeviceMatcherSet() {
-        Map<Matcher, Long> map = compiledDeviceMatcherMapT.get();
-        if (map == null) {
-            return null;
-        }
-        return map.entrySet();
+    protected RegexMatcher[] getDeviceMatchers(Database db) {
+        return ((ThreadLocalDatabase) db).matchersT.get().deviceMatchers;
     }
 
-}
+    @Override
+    protected BitSet getCandidates(Database db) {
+        return ((ThreadLocalDatabase) db).matchersT.get().candidates;
+    }
 
+}
@@ -0,0 +1,333 @@
+package cz.mallat.uasparser;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cache of parse results which is kept outside of the Java heap, so even tens of millions of
+ * entries add no garbage collection cost.
+ *
+ * Each entry is a compact record holding the user agent (to rule out hash collisions), the ids of
+ * the browser, OS and device entries and the browser version. Records are appended to a ring
+ * buffer in direct memory; once it is full the oldest records are overwritten. They are found
+ * through an open addressing table, also in direct memory, keyed by a 64-bit hash of the user
+ * agent. On a hit the result is rebuilt from the database maps.
+ *
+ * Only user agents and versions consisting of ISO-8859-1 chars are cached, and robots are not
+ * (their lookup is cheap anyway). The cache is split into segments which are locked separately.
+ * Direct memory is limited by -XX:MaxDirectMemorySize.
+ *
+ * The ids are only meaningful to the database they came from, and a reload clears the whole
+ * cache, so it belongs to one parser at a time and can not be shared.
+ *
+ * @see UASparser#setOffHeapCache(OffHeapUserAgentInfoCache)
+ * @author chetan
+ *
+ */
+public class OffHeapUserAgentInfoCache {
+
+    private static final int SEGMENTS = 16;
+    private static final int MAX_SEGMENT_BYTES = 1 << 30;
+    /** Expected minimal record size, determines the size of the hash table */
+    private static final int MIN_RECORD_BYTES = 64;
+    private static final int MAX_PROBES = 8;
+
+    private final long capacity;
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    /**
+     * Bumped on every {@link #clear()}, results parsed against an older database are dropped
+     */
+    private volatile int epoch;
+
+    /**
+     * The parser which uses this cache, or null
+     */
+    private UASparser owner;
+
+    /**
+     * @param capacity
+     *            number of bytes to allocate for records; the hash table takes another quarter
+     */
+    public OffHeapUserAgentInfoCache(long capacity) {
+        int count = SEGMENTS;
+        while (capacity / count > MAX_SEGMENT_BYTES) {
+            count *= 2;
+        }
+        if (capacity / count < 4096) {
+            throw new IllegalArgumentException("capacity too small: " + capacity);
+        }
+        this.capacity = capacity;
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(count);
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment((int) (capacity / count));
+        }
+    }
+
+    /**
+     * @param useragent
+     * @param codec
+     *            translates the cached ids into entries of the current database; only records
+     *            added with the epoch of the codec are used
+     * @return the cached result, or null
+     */
+    UserAgentInfo get(String useragent, UserAgentInfoCodec codec) {
+        long hash = hash(useragent);
+        return segmentFor(hash).get(useragent, hash, codec);
+    }
+
+    /**
+     * Add a result parsed with the database of the codec. It is dropped if the cache was cleared
+     * since the codec was built, or if it can not be encoded.
+     */
+    void put(String useragent, UserAgentInfo uaInfo, UserAgentInfoCodec codec) {
+        if (!isLatin1(useragent) || !codec.canEncode(uaInfo)) {
+            return;
+        }
+        String version = uaInfo.getBrowserVersionInfo();
+        if (version != null && (!isLatin1(version) || version.length() > Short.MAX_VALUE)) {
+            return;
+        }
+        long hash = hash(useragent);
+        segmentFor(hash).put(useragent, hash, codec.getEpoch(), codec.idOf(uaInfo.getBrowserEntry()),
+                codec.idOf(uaInfo.getOsEntry()), codec.idOf(uaInfo.getDeviceEntry()), version);
+    }
+
+    int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Take the cache for a parser. The records of a previous one are cleared.
+     *
+     * @throws IllegalArgumentException
+     *             if another parser uses it
+     */
+    synchronized void attach(UASparser parser) {
+        if (owner != null && owner != parser) {
+            throw new IllegalArgumentException("cache is already used by another parser");
+        }
+        if (owner != parser) {
+            owner = parser;
+            clear();
+        }
+    }
+
+    /**
+     * Give the cache up, if the parser has it
+     */
+    synchronized void detach(UASparser parser) {
+        if (owner == parser) {
+            owner = null;
+        }
+    }
+
+    /**
+     * Remove all entries. The memory is kept.
+     */
+    public void clear() {
+        synchronized (this) {
+            epoch++;
+        }
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getHitCount() {
+        long count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.hits;
+            }
+        }
+        return count;
+    }
+
+    public long getMissCount() {
+        long count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.misses;
+            }
+        }
+        return count;
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> segmentShift)];
+    }
+
+    /**
+     * 64-bit FNV-1a over the chars, with a final mix
+     */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static boolean isLatin1(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0xff) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A ring buffer of records and a hash table pointing into it. Records are
+     * [int keyLength, key bytes, int epoch, int browserId, int osId, int deviceId, short versionLength
+     * (-1 for none), version bytes] and never wrap around the end of the buffer. A table slot
+     * holds the hash and the logical position + 1 of a record, 0 when empty. A record is live
+     * while it lies within the last {@link #logSize} bytes written.
+     */
+    private final class Segment {
+        final ByteBuffer log;
+        final int logSize;
+        final ByteBuffer table;
+        final int slotMask;
+        long writePosition;
+
+        long hits;
+        long misses;
+
+        Segment(int logSize) {
+            this.logSize = logSize;
+            this.log = ByteBuffer.allocateDirect(logSize);
+            int slots = Integer.highestOneBit(logSize / MIN_RECORD_BYTES);
+            this.table = ByteBuffer.allocateDirect(slots * 16);
+            this.slotMask = slots - 1;
+        }
+
+        synchronized UserAgentInfo get(String key, long hash, UserAgentInfoCodec codec) {
+            int slot = (int) hash & slotMask;
+            for (int probe = 0; probe < MAX_PROBES; probe++) {
+                int offset = ((slot + probe) & slotMask) << 4;
+                long position = table.getLong(offset + 8) - 1;
+                if (position < 0) {
+                    break;
+                }
+                if (table.getLong(offset) == hash && isLive(position)) {
+                    int record = (int) (position % logSize);
+                    int p = record + 4 + key.length();
+                    if (keyEquals(record, key) && log.getInt(p) == codec.getEpoch()) {
+                        hits++;
+                        return decode(p + 4, codec);
+                    }
+                }
+            }
+            misses++;
+            return null;
+        }
+
+        synchronized void put(String key, long hash, int putEpoch, int browserId, int osId,
+                int deviceId, String version) {
+            if (putEpoch != epoch) {
+                return;
+            }
+            int versionLength = version != null ? version.length() : 0;
+            int length = 4 + key.length() + 16 + 2 + versionLength;
+            if (length > logSize) {
+                return;
+            }
+
+            // the slot of this key, else a free or stale one, else the first
+            int slot = (int) hash & slotMask;
+            int target = slot << 4;
+            for (int probe = 0; probe < MAX_PROBES; probe++) {
+                int offset = ((slot + probe) & slotMask) << 4;
+                long position = table.getLong(offset + 8) - 1;
+                if (position < 0 || !isLive(position)) {
+                    target = offset;
+                    break;
+                }
+                if (table.getLong(offset) == hash && keyEquals((int) (position % logSize), key)) {
+                    target = offset;
+                    break;
+                }
+            }
+
+            int record = (int) (writePosition % logSize);
+            if (record + length > logSize) {
+                // start over at the beginning of the buffer
+                writePosition += logSize - record;
+                record = 0;
+            }
+            long position = writePosition;
+            writePosition += length;
+
+            int p = record;
+            log.putInt(p, key.length());
+            p += 4;
+            for (int i = 0; i < key.length(); i++) {
+                log.put(p++, (byte) key.charAt(i));
+            }
+            log.putInt(p, putEpoch);
+            log.putInt(p + 4, browserId);
+            log.putInt(p + 8, osId);
+            log.putInt(p + 12, deviceId);
+            p += 16;
+            log.putShort(p, (short) (version != null ? versionLength : -1));
+            p += 2;
+            for (int i = 0; i < versionLength; i++) {
+                log.put(p++, (byte) version.charAt(i));
+            }
+
+            table.putLong(target, hash);
+            table.putLong(target + 8, position + 1);
+        }
+
+        synchronized void clear() {
+            for (int offset = 0; offset < table.capacity(); offset += 16) {
+                table.putLong(offset + 8, 0);
+            }
+            writePosition = 0;
+        }
+
+        private boolean isLive(long position) {
+            return position >= writePosition - logSize;
+        }
+
+        private boolean keyEquals(int record, String key) {
+            if (log.getInt(record) != key.length()) {
+                return false;
+            }
+            int p = record + 4;
+            for (int i = 0; i < key.length(); i++) {
+                if ((log.get(p + i) & 0xff) != key.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private UserAgentInfo decode(int p, UserAgentInfoCodec codec) {
+            int browserId = log.getInt(p);
+            int osId = log.getInt(p + 4);
+            int deviceId = log.getInt(p + 8);
+            int versionLength = log.getShort(p + 12);
+            String version = null;
+            if (versionLength >= 0) {
+                char[] chars = new char[versionLength];
+                for (int i = 0; i < versionLength; i++) {
+                    chars[i] = (char) (log.get(p + 14 + i) & 0xff);
+                }
+                version = new String(chars);
+            }
+            return codec.decode(browserId, osId, deviceId, version);
+        }
+    }
+
+}
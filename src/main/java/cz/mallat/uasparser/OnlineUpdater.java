@@ -33,6 +33,7 @@ public class OnlineUpdater extends Thread {
 
     public static final String CACHE_FILENAME = "user_agent_strings.txt";
     public static final String PROPERTIES_FILENAME = "user_agent_strings-version.txt";
+    public static final String BINARY_FILENAME = "user_agent_strings.bin";
 
     protected static final String DATA_RETRIVE_URL = "http://user-agent-string.info/rpc/get_data.php?key=free&format=ini";
     protected static final String VERSION_CHECK_URL = "http://user-agent-string.info/rpc/get_data.php?key=free&format=ini&ver=y";
@@ -108,8 +109,9 @@ public class OnlineUpdater extends Thread {
         }
 
         try {
-            // fall back to vendored copy so we don't block on startup
-            parser.loadDataFromFile(getVendoredInputStream());
+            // fall back to vendored copy so we don't block on startup, the binary one if built
+            InputStream is = getVendoredBinaryInputStream();
+            parser.loadDataFromFile(is != null ? is : getVendoredInputStream());
         } catch (IOException e) {
         }
     }
@@ -122,6 +124,15 @@ public class OnlineUpdater extends Thread {
         return OnlineUpdater.class.getClassLoader().getResourceAsStream(CACHE_FILENAME);
     }
 
+    /**
+     * Retrieve an {@link InputStream} to the vendored copy of the UA strings file in the binary
+     * form of {@link DatabaseFile}, which loads faster.
+     * @return {@link InputStream}, or null if the build did not generate it
+     */
+    public static InputStream getVendoredBinaryInputStream() {
+        return OnlineUpdater.class.getClassLoader().getResourceAsStream(BINARY_FILENAME);
+    }
+
     /**
      * Fetch latest UA file if a newer one is available
      *
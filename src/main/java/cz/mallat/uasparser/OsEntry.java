@@ -4,87 +4,66 @@ import java.util.Iterator;
 import java.util.List;
 
 /**
- * JavaBean that holds the data from the [os] section in the data file
+ * JavaBean that holds the data from the [os] section in the data file. The metadata columns
+ * are kept in the {@link StringTable} of the database.
  *
  * @author oli
  *
  */
 class OsEntry {
 
-	private String family;
-	private String name;
-	private String url;
-	private String company;
-	private String companyUrl;
-	private String ico;
+	private final StringTable strings;
+	private final String family;
+	private final String name;
+	private final int url;
+	private final int company;
+	private final int companyUrl;
+	private final int ico;
 
-	public OsEntry(List<String> data) {
+	public OsEntry(List<String> data, StringTable strings) {
 		Iterator<String> it = data.iterator();
+		this.strings = strings;
 		this.family = it.next();
 		this.name = it.next();
-		this.url = it.next();
-		this.company = it.next();
-		this.companyUrl = it.next();
-		this.ico = it.next();
+		this.url = strings.add(MetadataField.URL, it.next());
+		this.company = strings.add(MetadataField.COMPANY, it.next());
+		this.companyUrl = strings.add(MetadataField.COMPANY_URL, it.next());
+		this.ico = strings.add(MetadataField.ICON, it.next());
 	}
 
 	public String getFamily() {
 		return family;
 	}
 
-	public void setFamily(String family) {
-		this.family = family;
-	}
-
 	public String getName() {
 		return name;
 	}
 
-	public void setName(String name) {
-		this.name = name;
-	}
-
 	public String getUrl() {
-		return url;
-	}
-
-	public void setUrl(String url) {
-		this.url = url;
+		return strings.get(url);
 	}
 
 	public String getCompany() {
-		return company;
-	}
-
-	public void setCompany(String company) {
-		this.company = company;
+		return strings.get(company);
 	}
 
 	public String getCompanyUrl() {
-		return companyUrl;
-	}
-
-	public void setCompanyUrl(String companyUrl) {
-		this.companyUrl = companyUrl;
+		return strings.get(companyUrl);
 	}
 
 	public String getIco() {
-		return ico;
-	}
-
-	public void setIco(String ico) {
-		this.ico = ico;
+		return strings.get(ico);
 	}
 
     @Override
     public String toString() {
         return  "Operating System: \n" +
-                "  Family: " + family + "\n" +
-                "  Name: " + name + "\n" +
-                "  URL: " + url + "\n" +
-                "  Company: " + company + "\n" +
-                "  Company URL: " + companyUrl + "\n" +
-                "  ICO: " + ico;
+                "  Family: " + getFamily() + "\n" +
+                "  Name: " + getName() + "\n" +
+                "  URL: " + getUrl() + "\n" +
+                "  Company: " + getCompany() + "\n" +
+                "  Company URL: " + getCompanyUrl() + "\n" +
+                "  ICO: " + getIco();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,190 @@
+package cz.mallat.uasparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import cz.mallat.uasparser.regex.CompiledRegex;
+import cz.mallat.uasparser.regex.RegexEngine;
+import cz.mallat.uasparser.regex.RegexMatcher;
+
+/**
+ * A thread-safe parser which borrows matchers from a bounded, lock-free pool for each regex table
+ * it scans, and returns them right after. Unlike {@link MultithreadedUASparser} the matchers are
+ * not tied to a thread, so memory use depends on the number of parses running at the same time
+ * rather than on the number of threads which ever parsed: suited to large or short-lived thread
+ * pools, or to many lightweight threads.
+ *
+ * The pool holds up to {@link #getPoolSize()} sets per table. When more parses run at once, the
+ * extra ones use temporary matchers, see {@link #getPoolMissCount()}.
+ *
+ * @author chetan
+ *
+ */
+public class PooledUASparser extends UASparser {
+
+    /**
+     * A database with a pool of matchers per regex table
+     */
+    protected static class PooledDatabase extends Database {
+        MatcherPool browserPool;
+        MatcherPool osPool;
+        MatcherPool devicePool;
+    }
+
+    protected int poolSize;
+
+    /**
+     * Create a parser without a database, see {@link UASparser#UASparser()}
+     */
+    public PooledUASparser() {
+    }
+
+    public PooledUASparser(InputStream inputStreamToDefinitionFile) throws IOException {
+        super(inputStreamToDefinitionFile);
+    }
+
+    public PooledUASparser(InputStream inputStreamToDefinitionFile, RegexEngine regexEngine) throws IOException {
+        super(inputStreamToDefinitionFile, regexEngine);
+    }
+
+    public PooledUASparser(String localDefinitionFilename) throws IOException {
+        super(localDefinitionFilename);
+    }
+
+    public PooledUASparser(String localDefinitionFilename, RegexEngine regexEngine) throws IOException {
+        super(localDefinitionFilename, regexEngine);
+    }
+
+    /**
+     * @param inputStreamToDefinitionFile
+     * @param poolSize
+     *            matcher sets kept per regex table, see {@link #setPoolSize(int)}
+     * @throws IOException
+     */
+    public PooledUASparser(InputStream inputStreamToDefinitionFile, int poolSize) throws IOException {
+        checkPoolSize(poolSize);
+        this.poolSize = poolSize;
+        loadDataFromFile(inputStreamToDefinitionFile);
+    }
+
+    /**
+     * Set how many matcher sets are kept per regex table, at most. The default is twice the
+     * number of processors. Rebuilds the pools, and so recompiles the patterns of a loaded
+     * database.
+     *
+     * @param poolSize
+     *            at least 1
+     */
+    public void setPoolSize(int poolSize) {
+        checkPoolSize(poolSize);
+        this.poolSize = poolSize;
+        recompile();
+    }
+
+    /**
+     * @return matcher sets kept per regex table, at most
+     */
+    public int getPoolSize() {
+        return poolSize > 0 ? poolSize : 2 * Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return number of matcher sets created beyond the size of a pool because all of its sets
+     *         were in use, over all tables of the current database
+     */
+    public long getPoolMissCount() {
+        PooledDatabase db = (PooledDatabase) database;
+        if (db == null) {
+            return 0;
+        }
+        long count = db.browserPool.getMissCount() + db.osPool.getMissCount();
+        if (db.devicePool != null) {
+            count += db.devicePool.getMissCount();
+        }
+        return count;
+    }
+
+    private static void checkPoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("pool size must be at least 1: " + poolSize);
+        }
+    }
+
+    @Override
+    protected Database newDatabase() {
+        return new PooledDatabase();
+    }
+
+    /**
+     * Compile the shared browser patterns, the matchers are pooled
+     */
+    @Override
+    protected void preCompileBrowserRegMap(Database db) {
+        super.preCompileBrowserRegMap(db);
+        ((PooledDatabase) db).browserPool = createPool(db.browserPatterns);
+    }
+
+    /**
+     * Compile the shared OS patterns, the matchers are pooled
+     */
+    @Override
+    protected void preCompileOsRegMap(Database db) {
+        super.preCompileOsRegMap(db);
+        ((PooledDatabase) db).osPool = createPool(db.osPatterns);
+    }
+
+    /**
+     * Compile the shared device patterns, the matchers are pooled
+     */
+    @Override
+    protected void preCompileDeviceRegMap(Database db) {
+        super.preCompileDeviceRegMap(db);
+        if (db.devicePatterns != null) {
+            ((PooledDatabase) db).devicePool = createPool(db.devicePatterns);
+        }
+    }
+
+    /**
+     * @param patterns
+     * @return an empty pool of matchers for the patterns
+     */
+    private MatcherPool createPool(CompiledRegex[] patterns) {
+        return new MatcherPool(patterns, getPoolSize());
+    }
+
+    @Override
+    protected void processOsRegex(Database db, CharSequence useragent, UserAgentInfo retObj) {
+        MatcherPool pool = ((PooledDatabase) db).osPool;
+        RegexMatcher[] matchers = pool.borrow();
+        try {
+            processOsRegex(db, matchers, null, useragent, retObj);
+        } finally {
+            pool.release(matchers);
+        }
+    }
+
+    @Override
+    protected void processBrowserRegex(Database db, CharSequence useragent, UserAgentInfo retObj) {
+        MatcherPool pool = ((PooledDatabase) db).browserPool;
+        RegexMatcher[] matchers = pool.borrow();
+        try {
+            processBrowserRegex(db, matchers, null, useragent, retObj);
+        } finally {
+            pool.release(matchers);
+        }
+    }
+
+    @Override
+    protected void processDeviceRegex(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
+        MatcherPool pool = ((PooledDatabase) db).devicePool;
+        if (pool == null) {
+            return;
+        }
+        RegexMatcher[] matchers = pool.borrow();
+        try {
+            processDeviceRegex(db, matchers, null, useragent, uaInfo);
+        } finally {
+            pool.release(matchers);
+        }
+    }
+
+}
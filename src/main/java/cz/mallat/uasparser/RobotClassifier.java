@@ -0,0 +1,302 @@
+package cz.mallat.uasparser;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds robots by their product tokens, for user agents which are not exactly in the robot table,
+ * e.g. a new version of a known crawler. A token is a run of chars between separators such as
+ * space, ';' or '(', up to a '/', with only its letters and digits kept, lower case:
+ * "Googlebot-Mobile/2.1" is "googlebotmobile".
+ *
+ * Only the tokens which name the robot are indexed: those which are the robot family, or contain
+ * it, and which are no generic word like "bot" or "language" and appear in none of the browser,
+ * OS and device regexes and names, so tokens like "mozilla" or "safari" never count. A token
+ * followed by a '/' only counts with a version starting with a digit, so "Pinterest/0.1" is the
+ * crawler but the "[Pinterest/Android]" of the in-app browser is not. A lookup hashes each token
+ * of the user agent in place and allocates nothing. Immutable and thread-safe.
+ *
+ * @author chetan
+ *
+ */
+final class RobotClassifier {
+
+    /** Shorter tokens are too likely to appear by chance */
+    private static final int MIN_TOKEN_LENGTH = 3;
+
+    /** Words which name no robot in particular, normalized like tokens */
+    private static final Set<String> STOP_WORDS = new HashSet<String>(Arrays.asList("agent", "api", "app",
+            "archive", "ask", "bad", "bot", "browser", "check", "checker", "client", "cms", "com", "compatible",
+            "connect", "crawl", "crawler", "data", "domain", "engine", "fast", "feed", "fetch", "fetcher",
+            "http", "image", "index", "info", "java", "jobs", "language", "link", "links", "load", "media",
+            "mobile", "monitor", "net", "news", "org", "preview", "proxy", "python", "reader", "robot",
+            "search", "service", "site", "spider", "test", "tool", "version", "web", "www"));
+
+    private static final boolean[] SEPARATORS = new boolean[128];
+    private static final char[] TOKEN_CHARS = new char[128];
+    static {
+        for (char c = 0; c <= ' '; c++) {
+            SEPARATORS[c] = true;
+        }
+        for (char c : ";(),+[]\"".toCharArray()) {
+            SEPARATORS[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            TOKEN_CHARS[c] = c;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            TOKEN_CHARS[c] = c;
+            TOKEN_CHARS[c - 'a' + 'A'] = c;
+        }
+    }
+
+    private final String[] keys;
+    private final RobotEntry[] entries;
+    private final int mask;
+
+    /**
+     * @param robots
+     *            the robot table
+     * @param regexes
+     *            the browser, OS and device regexes, whose words are never indexed
+     * @param names
+     *            the browser, OS and device names, whose words are never indexed either
+     */
+    RobotClassifier(Map<String, RobotEntry> robots, Collection<Collection<String>> regexes,
+            Collection<String> names) {
+        Set<String> excluded = new HashSet<String>();
+        for (Collection<String> table : regexes) {
+            for (String regex : table) {
+                addWords(regex, excluded);
+            }
+        }
+        for (String name : names) {
+            addWords(name, excluded);
+        }
+
+        Map<String, RobotEntry> tokens = new HashMap<String, RobotEntry>();
+        StringBuilder token = new StringBuilder();
+        for (RobotEntry robot : robots.values()) {
+            String family = normalize(robot.getFamily());
+            String ua = robot.getUserAgentString();
+            for (int start = 0, end; start < ua.length(); start = end + 1) {
+                end = tokenEnd(ua, start);
+                token.setLength(0);
+                int i = start;
+                for (; i < end && ua.charAt(i) != '/'; i++) {
+                    char c = normalize(ua.charAt(i));
+                    if (c != 0) {
+                        token.append(c);
+                    }
+                }
+                String key = token.toString();
+                if (hasVersion(ua, i, end) && isRobotToken(key, family) && !excluded.contains(key)) {
+                    RobotEntry other = tokens.get(key);
+                    if (other == null || prefer(key, robot, other)) {
+                        tokens.put(key, robot);
+                    }
+                }
+            }
+        }
+
+        int capacity = 2;
+        while (capacity < tokens.size() * 2) {
+            capacity <<= 1;
+        }
+        keys = new String[capacity];
+        entries = new RobotEntry[capacity];
+        mask = capacity - 1;
+        for (Map.Entry<String, RobotEntry> entry : tokens.entrySet()) {
+            int slot = spread(entry.getKey().hashCode()) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = entry.getKey();
+            entries[slot] = entry.getValue();
+        }
+    }
+
+    /**
+     * @param useragent
+     * @return the robot named by the first indexed token of the user agent, or null
+     */
+    RobotEntry classify(CharSequence useragent) {
+        int length = useragent.length();
+        int start = 0;
+        int h = 0;
+        int n = 0;
+        boolean inName = true;
+        boolean version = true;
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? useragent.charAt(i) : ' ';
+            if (isSeparator(c)) {
+                if (n >= MIN_TOKEN_LENGTH && version) {
+                    for (int slot = spread(h) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+                        String key = keys[slot];
+                        if (key.hashCode() == h && key.length() == n && tokenEquals(key, useragent, start, i)) {
+                            return entries[slot];
+                        }
+                    }
+                }
+                start = i + 1;
+                h = 0;
+                n = 0;
+                inName = true;
+                version = true;
+            } else if (inName) {
+                if (c == '/') {
+                    inName = false;
+                    version = hasVersion(useragent, i, length);
+                } else {
+                    c = normalize(c);
+                    if (c != 0) {
+                        h = 31 * h + c;
+                        n++;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the token in the given range, up to a '/', is the key
+     */
+    private static boolean tokenEquals(String key, CharSequence useragent, int start, int end) {
+        int k = 0;
+        for (int i = start; i < end; i++) {
+            char c = useragent.charAt(i);
+            if (c == '/') {
+                break;
+            }
+            c = normalize(c);
+            if (c != 0 && key.charAt(k++) != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param slash
+     *            the end of the token name, a '/' or the end of the token
+     * @return true if there is no '/' or the version after it starts with a digit
+     */
+    private static boolean hasVersion(CharSequence text, int slash, int end) {
+        if (slash >= end) {
+            return true;
+        }
+        char c = slash + 1 < text.length() ? text.charAt(slash + 1) : 0;
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * @return true if the token names the robot family
+     */
+    private static boolean isRobotToken(String token, String family) {
+        if (token.length() < MIN_TOKEN_LENGTH || !hasLetter(token) || STOP_WORDS.contains(token)) {
+            return false;
+        }
+        return token.equals(family)
+                || (family.length() > MIN_TOKEN_LENGTH && !STOP_WORDS.contains(family) && token.contains(family));
+    }
+
+    /**
+     * Of two robots with the same token, prefer one of the family named like the token, then the
+     * shortest user agent, so the choice doesn't depend on the order of the table
+     */
+    private static boolean prefer(String token, RobotEntry robot, RobotEntry other) {
+        boolean named = token.equals(normalize(robot.getFamily()));
+        if (named != token.equals(normalize(other.getFamily()))) {
+            return named;
+        }
+        String ua = robot.getUserAgentString();
+        String otherUa = other.getUserAgentString();
+        if (ua.length() != otherUa.length()) {
+            return ua.length() < otherUa.length();
+        }
+        return ua.compareTo(otherUa) < 0;
+    }
+
+    /**
+     * @return the end of the token starting at the given index, the next separator or the end
+     */
+    private static int tokenEnd(CharSequence text, int start) {
+        int end = start;
+        while (end < text.length() && !isSeparator(text.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * @return true if the char ends a token
+     */
+    static boolean isSeparator(char c) {
+        return c < 128 && SEPARATORS[c];
+    }
+
+    /**
+     * @return the char lower case if it's an ASCII letter or digit, else 0
+     */
+    private static char normalize(char c) {
+        return c < 128 ? TOKEN_CHARS[c] : 0;
+    }
+
+    private static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = normalize(text.charAt(i));
+            if (c != 0) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean hasLetter(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (token.charAt(i) >= 'a') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add the words of a regex, normalized like tokens: runs of letters and digits, lower case,
+     * joined by the '-', '_' and '.' between them, so "Googlebot-richsnippets" is one word
+     */
+    private static void addWords(String regex, Set<String> words) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= regex.length(); i++) {
+            char c = i < regex.length() ? normalize(regex.charAt(i)) : 0;
+            if (c != 0) {
+                word.append(c);
+                continue;
+            }
+            if (word.length() > 0 && i < regex.length()) {
+                // a joiner, maybe escaped, followed by a letter or digit
+                int next = regex.charAt(i) == '\\' ? i + 1 : i;
+                if (next + 1 < regex.length() && "-_.".indexOf(regex.charAt(next)) >= 0
+                        && normalize(regex.charAt(next + 1)) != 0) {
+                    i = next;
+                    continue;
+                }
+            }
+            if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -4,119 +4,86 @@ import java.util.Iterator;
 import java.util.List;
 
 /**
- * JavaBean that holds the data from the [robots] section in the data file
+ * JavaBean that holds the data from the [robots] section in the data file. The metadata columns
+ * are kept in the {@link StringTable} of the database.
  *
  * @author oli
  *
  */
 class RobotEntry {
 
-	private String userAgentString;
-	private String family;
-	private String name;
-	private String url;
-	private String company;
-	private String companyUrl;
-	private String ico;
-	private String osId;
-	private String infoUrl;
-
-	public RobotEntry(List<String> data) {
+	private final StringTable strings;
+	private final String userAgentString;
+	private final String family;
+	private final String name;
+	private final int url;
+	private final int company;
+	private final int companyUrl;
+	private final int ico;
+	private final String osId;
+	private final int infoUrl;
+
+	public RobotEntry(List<String> data, StringTable strings) {
 		Iterator<String> it = data.iterator();
+		this.strings = strings;
 		this.userAgentString = it.next();
 		this.family = it.next();
 		this.name = it.next();
-		this.url = it.next();
-		this.company = it.next();
-		this.companyUrl = it.next();
-		this.ico = it.next();
+		this.url = strings.add(MetadataField.URL, it.next());
+		this.company = strings.add(MetadataField.COMPANY, it.next());
+		this.companyUrl = strings.add(MetadataField.COMPANY_URL, it.next());
+		this.ico = strings.add(MetadataField.ICON, it.next());
 		this.osId = it.next();
-		this.infoUrl = it.next();
+		this.infoUrl = strings.add(MetadataField.INFO_URL, it.next());
 	}
 
 	public String getUserAgentString() {
 		return userAgentString;
 	}
 
-	public void setUserAgentString(String userAgentString) {
-		this.userAgentString = userAgentString;
-	}
-
 	public String getFamily() {
 		return family;
 	}
 
-	public void setFamily(String family) {
-		this.family = family;
-	}
-
 	public String getName() {
 		return name;
 	}
 
-	public void setName(String name) {
-		this.name = name;
-	}
-
 	public String getUrl() {
-		return url;
-	}
-
-	public void setUrl(String url) {
-		this.url = url;
+		return strings.get(url);
 	}
 
 	public String getCompany() {
-		return company;
-	}
-
-	public void setCompany(String company) {
-		this.company = company;
+		return strings.get(company);
 	}
 
 	public String getCompanyUrl() {
-		return companyUrl;
-	}
-
-	public void setCompanyUrl(String companyUrl) {
-		this.companyUrl = companyUrl;
+		return strings.get(companyUrl);
 	}
 
 	public String getIco() {
-		return ico;
-	}
-
-	public void setIco(String ico) {
-		this.ico = ico;
+		return strings.get(ico);
 	}
 
 	public String getOsId() {
 		return osId;
 	}
 
-	public void setOsId(String osId) {
-		this.osId = osId;
-	}
-
 	public String getInfoUrl() {
-		return infoUrl;
-	}
-
-	public void setInfoUrl(String infoUrl) {
-		this.infoUrl = infoUrl;
+		return strings.get(infoUrl);
 	}
 
 	@Override
 	public String toString() {
 	    return  "Robot: \n" +
-	            "  Company: " + company + "\n" +
-	            "  Company URL: " + companyUrl + "\n" +
-	            "  Family: " + family + "\n" +
-	            "  ICO: " + ico + "\n" +
-	            "  Info URL: " + infoUrl  + "\n" +
-	            "  OS ID: " + osId + "\n" +
-	            "  URL: " + url + "\n" +
-	            "  User Agent: " + userAgentString;
+	            "  Company: " + getCompany() + "\n" +
+	            "  Company URL: " + getCompanyUrl() + "\n" +
+	            "  Family: " + getFamily() + "\n" +
+	            "  ICO: " + getIco() + "\n" +
+	            "  Info URL: " + getInfoUrl()  + "\n" +
+	            "  OS ID: " + getOsId() + "\n" +
+	            "  URL: " + getUrl() + "\n" +
+	            "  User Agent: " + getUserAgentString();
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+package cz.mallat.uasparser;
+
+import java.util.Map;
+
+/**
+ * Exact lookup of the robot user agents of a database, for input which is not a String. Hashes
+ * the chars like {@link String#hashCode()} and compares them in place, so a lookup allocates
+ * nothing. Immutable and thread-safe.
+ *
+ * @author chetan
+ *
+ */
+final class RobotIndex {
+
+    private final String[] keys;
+    private final RobotEntry[] entries;
+    private final int mask;
+
+    RobotIndex(Map<String, RobotEntry> robots) {
+        int capacity = 2;
+        while (capacity < robots.size() * 2) {
+            capacity <<= 1;
+        }
+        keys = new String[capacity];
+        entries = new RobotEntry[capacity];
+        mask = capacity - 1;
+        for (Map.Entry<String, RobotEntry> entry : robots.entrySet()) {
+            int slot = spread(entry.getKey().hashCode()) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = entry.getKey();
+            entries[slot] = entry.getValue();
+        }
+    }
+
+    /**
+     * @param useragent
+     * @return the robot with exactly this user agent, or null
+     */
+    RobotEntry get(CharSequence useragent) {
+        return get(useragent, 0, useragent.length());
+    }
+
+    /**
+     * @param useragent
+     * @param start
+     * @param end
+     * @return the robot with exactly the user agent in the given range, or null
+     */
+    RobotEntry get(CharSequence useragent, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + useragent.charAt(i);
+        }
+        for (int slot = spread(h) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            String key = keys[slot];
+            if (key.hashCode() == h && key.length() == end - start && regionEquals(key, useragent, start)) {
+                return entries[slot];
+            }
+        }
+        return null;
+    }
+
+    private static boolean regionEquals(String key, CharSequence useragent, int start) {
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != useragent.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,183 @@
+package cz.mallat.uasparser;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Longest-prefix lookup of robot user agents, for crawlers which changed their version number or
+ * added something at the end. Both the robot user agents and the looked up one are compared with
+ * each run of digits collapsed into a single '0', so "Googlebot/2.1 (+http://www.google.com/bot.html)"
+ * also finds "Googlebot/2.12 (+http://www.google.com/bot.html)". A robot only matches where a
+ * token ends, not in the middle of one, see {@link RobotClassifier#isSeparator(char)}.
+ *
+ * The trie is kept in flat arrays, the edges of a node next to each other and sorted by char,
+ * and a lookup walks it once along the user agent, allocating nothing. Immutable and thread-safe.
+ *
+ * @author chetan
+ *
+ */
+final class RobotPrefixTrie {
+
+    // node n has the edges edgeStart[n] until edgeStart[n + 1]
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    // the robot whose user agent ends at a node, if any
+    private final RobotEntry[] robots;
+
+    /**
+     * @param entries
+     *            the robots to index
+     */
+    RobotPrefixTrie(Collection<RobotEntry> entries) {
+        // robots with the same key, differing in their digits only, are found as the first one
+        Map<String, RobotEntry> byKey = new HashMap<String, RobotEntry>();
+        int chars = 0;
+        for (RobotEntry robot : entries) {
+            String key = normalize(robot.getUserAgentString());
+            if (key.length() == 0) {
+                continue;
+            }
+            RobotEntry other = byKey.get(key);
+            if (other == null) {
+                chars += key.length();
+                byKey.put(key, robot);
+            } else if (compare(robot.getUserAgentString(), other.getUserAgentString()) < 0) {
+                byKey.put(key, robot);
+            }
+        }
+        String[] keys = byKey.keySet().toArray(new String[byKey.size()]);
+        Arrays.sort(keys);
+
+        // each node covers a range of the sorted keys which share its prefix; nodes are numbered
+        // in breadth-first order, so the edges of a node are added together
+        int maxNodes = chars + 1;
+        int[] lo = new int[maxNodes];
+        int[] hi = new int[maxNodes];
+        int[] depth = new int[maxNodes];
+        int[] starts = new int[maxNodes + 1];
+        char[] labels = new char[maxNodes];
+        int[] targets = new int[maxNodes];
+        RobotEntry[] ends = new RobotEntry[maxNodes];
+        hi[0] = keys.length;
+        int nodes = 1;
+        int edges = 0;
+        for (int node = 0; node < nodes; node++) {
+            int i = lo[node];
+            int d = depth[node];
+            if (i < hi[node] && keys[i].length() == d) {
+                ends[node] = byKey.get(keys[i]);
+                i++;
+            }
+            starts[node] = edges;
+            while (i < hi[node]) {
+                char c = keys[i].charAt(d);
+                int j = i + 1;
+                while (j < hi[node] && keys[j].charAt(d) == c) {
+                    j++;
+                }
+                labels[edges] = c;
+                targets[edges] = nodes;
+                edges++;
+                lo[nodes] = i;
+                hi[nodes] = j;
+                depth[nodes] = d + 1;
+                nodes++;
+                i = j;
+            }
+        }
+        starts[nodes] = edges;
+
+        edgeStart = Arrays.copyOf(starts, nodes + 1);
+        edgeChars = Arrays.copyOf(labels, edges);
+        edgeTargets = Arrays.copyOf(targets, edges);
+        robots = Arrays.copyOf(ends, nodes);
+    }
+
+    /**
+     * @param useragent
+     * @param start
+     * @param end
+     * @return the robot with the longest user agent which the given range starts with, or null
+     */
+    RobotEntry longestPrefix(CharSequence useragent, int start, int end) {
+        RobotEntry found = null;
+        int node = 0;
+        int i = start;
+        while (true) {
+            RobotEntry robot = robots[node];
+            if (robot != null && (i == end || RobotClassifier.isSeparator(useragent.charAt(i))
+                    || RobotClassifier.isSeparator(useragent.charAt(i - 1)))) {
+                found = robot;
+            }
+            if (i == end) {
+                return found;
+            }
+            char c = useragent.charAt(i++);
+            if (isDigit(c)) {
+                c = '0';
+                while (i < end && isDigit(useragent.charAt(i))) {
+                    i++;
+                }
+            }
+            node = child(node, c);
+            if (node < 0) {
+                return found;
+            }
+        }
+    }
+
+    /**
+     * @return the node the edge of the given node with the char leads to, or -1
+     */
+    private int child(int node, char c) {
+        int low = edgeStart[node];
+        int high = edgeStart[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char label = edgeChars[mid];
+            if (label < c) {
+                low = mid + 1;
+            } else if (label > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the user agent with each run of digits replaced by a single '0'
+     */
+    static String normalize(String useragent) {
+        StringBuilder sb = new StringBuilder(useragent.length());
+        for (int i = 0; i < useragent.length(); i++) {
+            char c = useragent.charAt(i);
+            if (!isDigit(c)) {
+                sb.append(c);
+            } else if (i == 0 || !isDigit(useragent.charAt(i - 1))) {
+                sb.append('0');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Shorter user agents first, then in String order, so the choice doesn't depend on the order
+     * of the table
+     */
+    private static int compare(String ua, String other) {
+        if (ua.length() != other.length()) {
+            return ua.length() < other.length() ? -1 : 1;
+        }
+        return ua.compareTo(other);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+}
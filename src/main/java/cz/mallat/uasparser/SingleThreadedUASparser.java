@@ -2,13 +2,11 @@ package cz.mallat.uasparser;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.BitSet;
 
-import jregex.Matcher;
-import jregex.Pattern;
+import cz.mallat.uasparser.regex.CompiledRegex;
+import cz.mallat.uasparser.regex.RegexEngine;
+import cz.mallat.uasparser.regex.RegexMatcher;
 
 /**
  * This parser implementation is not thread-safe as it re-uses Matcher objects instead of creating
@@ -21,164 +19,181 @@ import jregex.Pattern;
  */
 public class SingleThreadedUASparser extends UASparser {
 
-    protected Map<Matcher, Long> compiledBrowserMatcherMap;
-    protected Map<Matcher, Long> compiledOsMatcherMap;
-    protected Map<Matcher, Long> compiledDeviceMatcherMap;
+    /**
+     * A database with a matcher for each pattern
+     */
+    protected static class MatcherDatabase extends Database {
+        RegexMatcher[] browserMatchers;
+        RegexMatcher[] osMatchers;
+        RegexMatcher[] deviceMatchers;
+        BitSet candidates = new BitSet();
+    }
+
+    /**
+     * A matcher for each pattern of the regex tables of a database, and a set to collect the
+     * prefilter candidates in. The compiled patterns are shared, so a set is cheap to create, but
+     * it must only be used by one thread at a time.
+     */
+    protected static class MatcherSet {
+        final RegexMatcher[] browserMatchers;
+        final RegexMatcher[] osMatchers;
+        final RegexMatcher[] deviceMatchers;
+        final BitSet candidates = new BitSet();
+
+        protected MatcherSet(Database db) {
+            browserMatchers = createMatchers(db.browserPatterns);
+            osMatchers = createMatchers(db.osPatterns);
+            deviceMatchers = createMatchers(db.devicePatterns);
+        }
+    }
+
+    /**
+     * Create a parser without a database, see {@link UASparser#UASparser()}
+     */
+    public SingleThreadedUASparser() {
+    }
 
     public SingleThreadedUASparser(InputStream inputStreamToDefinitionFile) throws IOException {
         super(inputStreamToDefinitionFile);
     }
 
+    public SingleThreadedUASparser(InputStream inputStreamToDefinitionFile, RegexEngine regexEngine) throws IOException {
+        super(inputStreamToDefinitionFile, regexEngine);
+    }
+
     public SingleThreadedUASparser(String localDefinitionFilename) throws IOException {
         super(localDefinitionFilename);
     }
 
+    public SingleThreadedUASparser(String localDefinitionFilename, RegexEngine regexEngine) throws IOException {
+        super(localDefinitionFilename, regexEngine);
+    }
+
+    @Override
+    protected Database newDatabase() {
+        return new MatcherDatabase();
+    }
+
     /**
      * Precompile browser regexes
      */
     @Override
-    protected void preCompileBrowserRegMap() {
-        this.compiledBrowserMatcherMap = preCompileBrowserMatcherMap();
+    protected void preCompileBrowserRegMap(Database db) {
+        super.preCompileBrowserRegMap(db);
+        ((MatcherDatabase) db).browserMatchers = preCompileBrowserMatchers(db);
     }
 
-    protected LinkedHashMap<Matcher, Long> preCompileBrowserMatcherMap() {
-        LinkedHashMap<Matcher, Long> compiledBrowserMatcherMap =
-                new LinkedHashMap<Matcher, Long>(browserRegMap.size());
-
-        for (Map.Entry<String, Long> entry : browserRegMap.entrySet()) {
-            Pattern pattern = new Pattern(entry.getKey(), Pattern.IGNORE_CASE | Pattern.DOTALL);
-            compiledBrowserMatcherMap.put(pattern.matcher(), entry.getValue());
-        }
-        return compiledBrowserMatcherMap;
+    /**
+     * @return a matcher for each of the compiled browser patterns
+     */
+    protected RegexMatcher[] preCompileBrowserMatchers(Database db) {
+        return createMatchers(db.browserPatterns);
     }
 
     /**
      * Precompile OS regexes
      */
     @Override
-    protected void preCompileOsRegMap() {
-        this.compiledOsMatcherMap = preCompileOsMatcherMap();
+    protected void preCompileOsRegMap(Database db) {
+        super.preCompileOsRegMap(db);
+        ((MatcherDatabase) db).osMatchers = preCompileOsMatchers(db);
     }
 
-    protected LinkedHashMap<Matcher, Long> preCompileOsMatcherMap() {
-        LinkedHashMap<Matcher, Long> compiledOsMatcherMap =
-                new LinkedHashMap<Matcher, Long>(osRegMap.size());
-
-        for (Map.Entry<String, Long> entry : osRegMap.entrySet()) {
-            Pattern pattern = new Pattern(entry.getKey(), Pattern.IGNORE_CASE | Pattern.DOTALL);
-            compiledOsMatcherMap.put(pattern.matcher(), entry.getValue());
-        }
-        return compiledOsMatcherMap;
+    /**
+     * @return a matcher for each of the compiled OS patterns
+     */
+    protected RegexMatcher[] preCompileOsMatchers(Database db) {
+        return createMatchers(db.osPatterns);
     }
 
     /**
      * Precompile device regexes
      */
     @Override
-    protected void preCompileDeviceRegMap() {
-        this.compiledDeviceMatcherMap = preCompileDeviceMatcherMap();
+    protected void preCompileDeviceRegMap(Database db) {
+        super.preCompileDeviceRegMap(db);
+        ((MatcherDatabase) db).deviceMatchers = preCompileDeviceMatchers(db);
     }
 
-    protected LinkedHashMap<Matcher, Long> preCompileDeviceMatcherMap() {
-        if (deviceRegMap == null) {
-            return null; // skip for older ini files
-        }
-        LinkedHashMap<Matcher, Long> compiledDeviceMatcherMap =
-                new LinkedHashMap<Matcher, Long>(deviceRegMap.size());
+    /**
+     * @return a matcher for each of the compiled device patterns, null for older ini files
+     */
+    protected RegexMatcher[] preCompileDeviceMatchers(Database db) {
+        return createMatchers(db.devicePatterns);
+    }
 
-        for (Map.Entry<String, Long> entry : deviceRegMap.entrySet()) {
-            Pattern pattern = new Pattern(entry.getKey(), Pattern.IGNORE_CASE | Pattern.DOTALL);
-            compiledDeviceMatcherMap.put(pattern.matcher(), entry.getValue());
+    /**
+     * Create a matcher for each pattern, in table order
+     *
+     * @param patterns
+     *            may be null
+     * @return
+     */
+    protected static RegexMatcher[] createMatchers(CompiledRegex[] patterns) {
+        if (patterns == null) {
+            return null;
         }
-        return compiledDeviceMatcherMap;
+        RegexMatcher[] matchers = new RegexMatcher[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            matchers[i] = patterns[i].matcher();
+        }
+        return matchers;
     }
 
     /**
      * Searches in the os regex table. if found a match copies the os data
      *
+     * @param db
      * @param useragent
      * @param retObj
      */
     @Override
-    protected void processOsRegex(String useragent, UserAgentInfo retObj) {
-        Set<Entry<Matcher, Long>> osMatcherSet = getOsMatcherSet();
-        for (Map.Entry<Matcher, Long> entry : osMatcherSet) {
-            Matcher matcher = entry.getKey();
-            matcher.setTarget(useragent);
-            if (matcher.find()) {
-                retObj.setOsEntry(osMap.get(entry.getValue()));
-                break;
-            }
-        }
+    protected void processOsRegex(Database db, CharSequence useragent, UserAgentInfo retObj) {
+        processOsRegex(db, getOsMatchers(db), getCandidates(db), useragent, retObj);
     }
 
     /**
      * Searchs in the browser regex table. if found a match copies the browser data and if possible os data
      *
+     * @param db
      * @param useragent
      * @param retObj
      */
     @Override
-    protected void processBrowserRegex(String useragent, UserAgentInfo retObj) {
-        Set<Entry<Matcher, Long>> browserMatcherSet = getBrowserMatcherSet();
-        for (Map.Entry<Matcher, Long> entry : browserMatcherSet) {
-            Matcher matcher = entry.getKey();
-            matcher.setTarget(useragent);
-            if (matcher.find()) {
-                Long idBrowser = entry.getValue();
-                BrowserEntry be = browserMap.get(idBrowser);
-                if (be != null) {
-                    retObj.setType(browserTypeMap.get(be.getType()));;
-                    if (matcher.groupCount() > 1) {
-                        retObj.setBrowserVersionInfo(matcher.group(1));
-                    }
-                    retObj.setBrowserEntry(be);
-                }
-                // check if this browser has exactly one OS mapped
-                Long idOs = browserOsMap.get(idBrowser);
-                if (idOs != null) {
-                    retObj.setOsEntry(osMap.get(idOs));
-                }
-                return;
-            }
-        }
+    protected void processBrowserRegex(Database db, CharSequence useragent, UserAgentInfo retObj) {
+        processBrowserRegex(db, getBrowserMatchers(db), getCandidates(db), useragent, retObj);
     }
 
     /**
      * Searches in the devices regex table. if found a match copies the device data
      *
+     * @param db
      * @param useragent
      * @param uaInfo
      */
     @Override
-    protected void processDeviceRegex(String useragent, UserAgentInfo uaInfo) {
-        Set<Entry<Matcher, Long>> deviceMatcherSet = getDeviceMatcherSet();
-        if (deviceMatcherSet == null || deviceMap == null) {
-            return;
-        }
-        for (Map.Entry<Matcher, Long> entry : deviceMatcherSet) {
-            Matcher matcher = entry.getKey();
-            matcher.setTarget(useragent);
-            if (matcher.find()) {
-                uaInfo.setDeviceEntry(deviceMap.get(entry.getValue()));
-                return;
-            }
-        }
+    protected void processDeviceRegex(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
+        processDeviceRegex(db, getDeviceMatchers(db), getCandidates(db), useragent, uaInfo);
     }
 
-    protected Set<Entry<Matcher, Long>> getOsMatcherSet() {
-        return compiledOsMatcherMap.entrySet();
+    protected RegexMatcher[] getOsMatchers(Database db) {
+        return ((MatcherDatabase) db).osMatchers;
     }
 
-    protected Set<Entry<Matcher, Long>> getBrowserMatcherSet() {
-        return compiledBrowserMatcherMap.entrySet();
+    protected RegexMatcher[] getBrowserMatchers(Database db) {
+        return ((MatcherDatabase) db).browserMatchers;
     }
 
-    protected Set<Entry<Matcher, Long>> getDeviceMatcherSet() {
-        if (compiledDeviceMatcherMap == null) {
-            return null;
-        }
-        return compiledDeviceMatcherMap.entrySet();
+    protected RegexMatcher[] getDeviceMatchers(Database db) {
+        return ((MatcherDatabase) db).deviceMatchers;
+    }
+
+    /**
+     * @return the set to collect the prefilter candidates of a table scan in, null to allocate
+     *         one per scan
+     */
+    protected BitSet getCandidates(Database db) {
+        return ((MatcherDatabase) db).candidates;
     }
 
 }
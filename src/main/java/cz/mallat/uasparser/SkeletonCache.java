@@ -0,0 +1,58 @@
+package cz.mallat.uasparser;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the winning patterns of each regex table, keyed by the "skeleton" of the user
+ * agent: the user agent with every digit replaced by '0'. User agents which only differ in
+ * their version numbers share an entry, so a new browser build is parsed by re-running the
+ * cached patterns instead of scanning the tables.
+ *
+ * Results are exact. Digit-specific patterns (like "Firefox/3\.6") are checked on every hit, and
+ * if one of them could win in a way the cached entry does not cover, the tables are scanned in
+ * full. Digits are replaced rather than collapsed, because a pattern can tell "3" from "30".
+ *
+ * Uses the same W-TinyLFU admission as the {@link UserAgentInfoCache}.
+ *
+ * @see UASparser#setSkeletonCache(SkeletonCache)
+ * @author chetan
+ *
+ */
+public class SkeletonCache extends BoundedCache<int[]> {
+
+    final AtomicLong rescanCount = new AtomicLong();
+
+    /**
+     * @param maximumSize
+     *            maximum number of cached skeletons
+     */
+    public SkeletonCache(int maximumSize) {
+        super(maximumSize);
+    }
+
+    /**
+     * @param useragent
+     * @return the user agent with all digits replaced by '0'
+     */
+    public static String skeletonOf(String useragent) {
+        char[] chars = null;
+        for (int i = 0; i < useragent.length(); i++) {
+            char c = useragent.charAt(i);
+            if (c >= '1' && c <= '9') {
+                if (chars == null) {
+                    chars = useragent.toCharArray();
+                }
+                chars[i] = '0';
+            }
+        }
+        return chars == null ? useragent : new String(chars);
+    }
+
+    /**
+     * @return number of hits which needed a full scan after all
+     */
+    public long getRescanCount() {
+        return rescanCount.get();
+    }
+
+}
@@ -0,0 +1,118 @@
+package cz.mallat.uasparser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import cz.mallat.uasparser.regex.CompiledRegex;
+import cz.mallat.uasparser.regex.DigitAnalysis;
+import cz.mallat.uasparser.regex.MultiPatternAutomaton;
+import cz.mallat.uasparser.regex.RegexEngine;
+import cz.mallat.uasparser.regex.RegexMatcher;
+
+/**
+ * One regex table as seen by the {@link SkeletonCache}: finds the first matching pattern of a
+ * user agent, given the first matching pattern of another user agent with the same skeleton.
+ *
+ * Digit-agnostic patterns match both user agents alike, so only the digit-specific ones have to
+ * be tried; they are combined into a single {@link MultiPatternAutomaton}. Patterns are compiled
+ * on first use. Built for one database. Thread-safe.
+ *
+ * @author chetan
+ *
+ */
+final class SkeletonTable {
+
+    /**
+     * The table has to be scanned in full
+     */
+    static final int RESCAN = -2;
+
+    /**
+     * The table was not scanned for the cached user agent, e.g. the OS table when the browser
+     * implied the OS
+     */
+    static final int NOT_SCANNED = -3;
+
+    private final String[] regexes;
+    private final boolean[] agnostic;
+    private final int[] sensitiveIndexes;
+    private final MultiPatternAutomaton sensitiveAutomaton;
+    private final RegexEngine regexEngine;
+    private final CompiledRegex[] patterns;
+
+    SkeletonTable(Collection<String> regexes, RegexEngine regexEngine) {
+        int size = regexes.size();
+        this.regexes = regexes.toArray(new String[size]);
+        this.agnostic = new boolean[size];
+        this.regexEngine = regexEngine;
+        this.patterns = new CompiledRegex[size];
+
+        List<String> sensitive = new ArrayList<String>();
+        List<Integer> sensitiveIndexes = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            agnostic[i] = DigitAnalysis.isDigitAgnostic(this.regexes[i]);
+            if (!agnostic[i]) {
+                sensitive.add(this.regexes[i]);
+                sensitiveIndexes.add(i);
+            }
+        }
+        this.sensitiveIndexes = new int[sensitiveIndexes.size()];
+        for (int i = 0; i < this.sensitiveIndexes.length; i++) {
+            this.sensitiveIndexes[i] = sensitiveIndexes.get(i);
+        }
+        this.sensitiveAutomaton = new MultiPatternAutomaton(sensitive);
+    }
+
+    /**
+     * @param winner
+     *            index of the first pattern which matched a user agent with the same skeleton,
+     *            or -1 if none did
+     * @param useragent
+     * @return index of the first pattern matching the user agent, -1 if none does, or
+     *         {@link #RESCAN} if that can not be told without scanning the table
+     */
+    int resolve(int winner, String useragent) {
+        int sensitive = firstSensitiveMatch(useragent);
+        if (winner < 0 || agnostic[winner]) {
+            // all digit-agnostic patterns before the winner fail here too
+            return sensitive >= 0 && (winner < 0 || sensitive < winner) ? sensitive : winner;
+        }
+        // a digit-agnostic pattern after the winner might match now
+        return sensitive >= 0 && sensitive <= winner ? sensitive : RESCAN;
+    }
+
+    private int firstSensitiveMatch(String useragent) {
+        int index = sensitiveAutomaton.firstMatch(useragent);
+        int limit = index < 0 ? sensitiveIndexes.length : index;
+        // patterns the automaton can't handle are tried in table order
+        for (int unsupported : sensitiveAutomaton.getUnsupported()) {
+            if (unsupported >= limit) {
+                break;
+            }
+            if (match(sensitiveIndexes[unsupported], useragent) != null) {
+                return sensitiveIndexes[unsupported];
+            }
+        }
+        return index < 0 ? -1 : sensitiveIndexes[index];
+    }
+
+    /**
+     * Run a single pattern of the table, with its capture groups
+     *
+     * @param index
+     * @param useragent
+     * @return the matcher, or null if the pattern does not match
+     */
+    RegexMatcher match(int index, String useragent) {
+        CompiledRegex pattern = patterns[index];
+        if (pattern == null) {
+            // racy but harmless, compiled patterns are immutable
+            pattern = regexEngine.compile(regexes[index]);
+            patterns[index] = pattern;
+        }
+        RegexMatcher matcher = pattern.matcher(useragent);
+        return matcher.find() ? matcher : null;
+    }
+
+}
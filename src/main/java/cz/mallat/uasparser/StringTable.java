@@ -0,0 +1,151 @@
+package cz.mallat.uasparser;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@link MetadataField metadata columns} of the robot, browser, OS and device entries of one
+ * database, each distinct value stored once as UTF-8 in a single byte array and referred to by an
+ * int id. Many values repeat, e.g. the company URL of dozens of browsers, and most are never asked
+ * for, so the entries keep ids and a value is decoded each time a getter asks for it; nothing is
+ * kept. The columns which the parser was not asked to keep are not stored at all. The user agent,
+ * family, name and type columns, which the parser reads itself, stay plain Strings in the entries.
+ *
+ * Filled while a database is loaded, then {@link #pack() packed} and not modified any more.
+ * Thread-safe once published.
+ *
+ * @author chetan
+ *
+ */
+final class StringTable {
+
+    /** The id of null */
+    static final int NULL = -1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private byte[] bytes = new byte[16 * 1024];
+    private int size;
+    // value i is the bytes from offsets[i] until offsets[i + 1]
+    private int[] offsets = new int[1024];
+    private int count;
+    // the id of each value, only while the table is filled
+    private Map<String, Integer> ids = new HashMap<String, Integer>();
+    // the metadata columns to keep, null for all
+    private final Set<MetadataField> metadataFields;
+
+    /**
+     * @param metadataFields
+     *            the metadata columns to keep, null for all
+     */
+    StringTable(Set<MetadataField> metadataFields) {
+        this.metadataFields = metadataFields;
+    }
+
+    /**
+     * @param value
+     * @return the id of the value, which is added unless the table has it already
+     */
+    int add(String value) {
+        if (value == null) {
+            return NULL;
+        }
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        if (count + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        if (!appendAscii(value)) {
+            byte[] utf8 = value.getBytes(UTF8);
+            ensureCapacity(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+        offsets[++count] = size;
+        ids.put(value, count - 1);
+        return count - 1;
+    }
+
+    /**
+     * Most values are plain ASCII, which is copied as is rather than through an encoder.
+     *
+     * @param value
+     * @return whether the value was ASCII and is appended
+     */
+    private boolean appendAscii(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                return false;
+            }
+            bytes[size + i] = (byte) c;
+        }
+        size += length;
+        return true;
+    }
+
+    private void ensureCapacity(int length) {
+        if (size + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+        }
+    }
+
+    /**
+     * @param field
+     * @param value
+     * @return the id of the value of a metadata column, {@link #NULL} if the column is dropped
+     */
+    int add(MetadataField field, String value) {
+        if (metadataFields != null && !metadataFields.contains(field)) {
+            return NULL;
+        }
+        return add(value);
+    }
+
+    /**
+     * @param id
+     * @return the value with the id, a new String on each call
+     */
+    String get(int id) {
+        if (id == NULL) {
+            return null;
+        }
+        int start = offsets[id];
+        return new String(bytes, start, offsets[id + 1] - start, UTF8);
+    }
+
+    /**
+     * Trim the arrays to their content and drop the lookup of the ids, once the database is
+     * loaded
+     */
+    void pack() {
+        if (ids == null) {
+            return;
+        }
+        ids = null;
+        bytes = Arrays.copyOf(bytes, size);
+        offsets = Arrays.copyOf(offsets, count + 1);
+    }
+
+    /**
+     * @return number of distinct values
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return size of the values in UTF-8
+     */
+    int byteSize() {
+        return size;
+    }
+
+}
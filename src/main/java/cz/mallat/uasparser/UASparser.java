@@ -1,19 +1,34 @@
 package cz.mallat.uasparser;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
-import jregex.Matcher;
-import jregex.Pattern;
 import cz.mallat.uasparser.fileparser.Entry;
 import cz.mallat.uasparser.fileparser.PHPFileParser;
 import cz.mallat.uasparser.fileparser.Section;
+import cz.mallat.uasparser.regex.CompiledRegex;
+import cz.mallat.uasparser.regex.JRegexEngine;
+import cz.mallat.uasparser.regex.LinearRegexEngine;
+import cz.mallat.uasparser.regex.LiteralPrefilter;
+import cz.mallat.uasparser.regex.RegexEngine;
+import cz.mallat.uasparser.regex.RegexMatcher;
 
 /**
  * User agent parser.
@@ -31,252 +46,1526 @@ public class UASparser {
     static final Long DEVICE_ID_DESKTOP = 2L;
     static final Long DEVICE_ID_SMARTPHONE = 3L;
 
-    protected Map<String, RobotEntry> robotsMap;
-    protected Map<Long, OsEntry> osMap;
-    protected Map<Long, BrowserEntry> browserMap;
-    protected Map<Long, String> browserTypeMap;
-    protected Map<String, Long> browserRegMap;
-    protected Map<Long, Long> browserOsMap;
-    protected Map<String, Long> osRegMap;
-    protected Map<Long, DeviceEntry> deviceMap;
-    protected Map<String, Long> deviceRegMap;
+    // regexes compiled per task of a parallel build
+    private static final int COMPILE_CHUNK = 64;
 
-    protected Map<Pattern, Long> compiledBrowserRegMap;
-    protected Map<Pattern, Long> compiledOsRegMap;
-    protected Map<Pattern, Long> compiledDeviceRegMap;
+    /**
+     * Longest user agent searched by a backtracking engine under a {@link #setMatchBudget(int, long)
+     * matching budget}. Such a search may take a high power of the input length and can not be
+     * stopped once it runs, so a longer one is cut down to this prefix first.
+     */
+    protected static final int MAX_BUDGETED_LENGTH = 256;
+
+    /**
+     * The current database, replaced as a whole on every load or recompile
+     */
+    protected volatile Database database;
+
+    /**
+     * Held while a new database is built, so concurrent loads and setters don't overwrite each
+     * other. Parses never take it.
+     */
+    private final Object databaseLock = new Object();
 
-    protected UserAgentInfo unknownAgentInfo;
+    protected RegexEngine regexEngine = new JRegexEngine();
+    protected boolean twoPhaseMatching;
+    protected boolean robotPrefixMatching;
+    protected boolean lazyCompilation;
+    protected boolean backgroundWarmUp;
+    protected int maxMatchSteps;
+    protected long maxMatchNanos;
+    protected final AtomicLong truncatedParseCount = new AtomicLong();
+    protected UserAgentNormalizer normalizer;
+    protected UserAgentInfoCache cache;
+    protected OffHeapUserAgentInfoCache offHeapCache;
+    protected SkeletonCache skeletonCache;
+    protected Executor buildExecutor;
+    protected Set<MetadataField> metadataFields;
+
+    protected UserAgentInfo unknownAgentInfo = new UserAgentInfo();
 
     /**
      * Create a new {@link UASparser} without initializing maps. Expects an updater to be
-     * configured and run immediately.
+     * configured and run immediately, or a call to {@link #load(InputStream)}.
      */
     public UASparser() {
     }
 
     /**
-     * Use the given filename to load the definition file from the local filesystem
+     * Use the given filename to load the definition file from the local filesystem
+     *
+     * @param localDefinitionFilename
+     * @throws IOException
+     */
+    public UASparser(String localDefinitionFilename) throws IOException {
+        loadDataFromFile(new File(localDefinitionFilename));
+    }
+
+    /**
+     * Use the given filename to load the definition file from the local filesystem, compiling
+     * the regexes with the given engine
+     *
+     * @param localDefinitionFilename
+     * @param regexEngine
+     * @throws IOException
+     */
+    public UASparser(String localDefinitionFilename, RegexEngine regexEngine) throws IOException {
+        this.regexEngine = regexEngine;
+        loadDataFromFile(new File(localDefinitionFilename));
+    }
+
+    /**
+     * Use the given inputstream to load the definition file from the local filesystem
+     *
+     * @param inputStreamToDefinitionFile
+     * @throws IOException
+     */
+    public UASparser(InputStream inputStreamToDefinitionFile) throws IOException {
+        loadDataFromFile(inputStreamToDefinitionFile);
+    }
+
+    /**
+     * Use the given inputstream to load the definition file, compiling the regexes with the
+     * given engine
+     *
+     * @param inputStreamToDefinitionFile
+     * @param regexEngine
+     * @throws IOException
+     */
+    public UASparser(InputStream inputStreamToDefinitionFile, RegexEngine regexEngine) throws IOException {
+        this.regexEngine = regexEngine;
+        loadDataFromFile(inputStreamToDefinitionFile);
+    }
+
+    /**
+     * Enable or disable two-phase matching. When enabled, the regex tables are scanned with
+     * group-free copies of the patterns, and only the winning browser pattern is re-run with
+     * its capture groups to extract the version. Disabled by default.
+     *
+     * @param twoPhaseMatching
+     */
+    public void setTwoPhaseMatching(boolean twoPhaseMatching) {
+        synchronized (databaseLock) {
+            this.twoPhaseMatching = twoPhaseMatching;
+            recompile();
+        }
+    }
+
+    public boolean isTwoPhaseMatching() {
+        return twoPhaseMatching;
+    }
+
+    /**
+     * Enable or disable prefix matching of robots. When enabled, a user agent which is not in the
+     * robot table is still a robot if it starts with the user agent of one, ignoring the values
+     * of numbers, e.g. a crawler which changed its version, and found without scanning the regex
+     * tables. Disabled by default, as the results then differ from the exact lookup of the
+     * definition file. {@link #isRobot(CharSequence)} always matches prefixes. Clears the result
+     * caches.
+     *
+     * @param robotPrefixMatching
+     */
+    public void setRobotPrefixMatching(boolean robotPrefixMatching) {
+        synchronized (databaseLock) {
+            this.robotPrefixMatching = robotPrefixMatching;
+            Database current = database;
+            if (current != null) {
+                // results change, so the caches start over
+                Database db = current.copy();
+                db.robotPrefixMatching = robotPrefixMatching;
+                if (robotPrefixMatching) {
+                    getRobotPrefixes(db);
+                }
+                publish(db, true);
+            }
+        }
+    }
+
+    public boolean isRobotPrefixMatching() {
+        return robotPrefixMatching;
+    }
+
+    /**
+     * Set the engine used to compile the regexes of the database, e.g. {@link JRegexEngine}
+     * (the default), {@link cz.mallat.uasparser.regex.JdkRegexEngine} or
+     * {@link cz.mallat.uasparser.regex.LinearRegexEngine}
+     *
+     * @param regexEngine
+     */
+    public void setRegexEngine(RegexEngine regexEngine) {
+        synchronized (databaseLock) {
+            this.regexEngine = regexEngine;
+            recompile();
+        }
+    }
+
+    public RegexEngine getRegexEngine() {
+        return regexEngine;
+    }
+
+    /**
+     * Set an executor to build databases on. The regexes are compiled in chunks and the
+     * independent parts of the database, like the prefilters of each table, are built
+     * concurrently; the calling thread takes part and waits for the result, which is the same as
+     * without an executor. Applies to every build after this call, including reloads and setting
+     * changes. None by default.
+     *
+     * @param buildExecutor
+     *            e.g. a fixed thread pool (or a ForkJoinPool), or null to build on the calling
+     *            thread only
+     */
+    public void setBuildExecutor(Executor buildExecutor) {
+        this.buildExecutor = buildExecutor;
+    }
+
+    public Executor getBuildExecutor() {
+        return buildExecutor;
+    }
+
+    /**
+     * Enable or disable lazy compilation. When enabled, each regex of the database is compiled on
+     * its first evaluation instead of when the database is loaded, so a parser which only sees a
+     * few user agents, or only calls {@link #parseBrowserOnly(String)}, compiles just the
+     * patterns it needs. An invalid regex is then reported by the parse which first evaluates it.
+     * The literal prefilter of each table is built on its first scan too. Disabled by default.
+     *
+     * @param lazyCompilation
+     * @see #setBackgroundWarmUp(boolean)
+     */
+    public void setLazyCompilation(boolean lazyCompilation) {
+        synchronized (databaseLock) {
+            this.lazyCompilation = lazyCompilation;
+            recompile();
+        }
+    }
+
+    public boolean isLazyCompilation() {
+        return lazyCompilation;
+    }
+
+    /**
+     * Enable or disable the background warm-up of lazily compiled databases. When enabled, a
+     * daemon thread compiles the remaining patterns of each such database in table order, right
+     * after it is published, while parses go on. It stops early once a newer database replaces
+     * it. Disabled by default.
+     *
+     * @param backgroundWarmUp
+     * @see #setLazyCompilation(boolean)
+     */
+    public void setBackgroundWarmUp(boolean backgroundWarmUp) {
+        synchronized (databaseLock) {
+            this.backgroundWarmUp = backgroundWarmUp;
+            Database current = database;
+            if (backgroundWarmUp && current != null && current.lazyCompilation) {
+                startWarmUp(current);
+            }
+        }
+    }
+
+    public boolean isBackgroundWarmUp() {
+        return backgroundWarmUp;
+    }
+
+    /**
+     * Limit the matching work done by a single call to {@link #parse(String)}. A step is one regex
+     * evaluation; both limits are checked before each one. When a limit is hit, the parse stops
+     * and returns what was found so far, marked as {@link UserAgentInfo#isTruncated() truncated}.
+     * A regex search which already runs is not interrupted, so unless the regex engine is a
+     * {@link LinearRegexEngine}, user agents longer than {@link #MAX_BUDGETED_LENGTH} are cut down
+     * to that prefix and marked truncated as well.
+     *
+     * @param maxSteps
+     *            maximum number of regex evaluations per parse, 0 for no limit
+     * @param maxNanos
+     *            maximum matching time per parse in nanoseconds, 0 for no limit
+     */
+    public void setMatchBudget(int maxSteps, long maxNanos) {
+        this.maxMatchSteps = maxSteps;
+        this.maxMatchNanos = maxNanos;
+    }
+
+    public int getMaxMatchSteps() {
+        return maxMatchSteps;
+    }
+
+    public long getMaxMatchNanos() {
+        return maxMatchNanos;
+    }
+
+    /**
+     * @return number of parses which ran out of their matching budget, or were cut to fit it
+     */
+    public long getTruncatedParseCount() {
+        return truncatedParseCount.get();
+    }
+
+    /**
+     * Set a normalizer which cleans up each user agent once, before any matching is done. All
+     * stages, including the exact robot lookup, see the normalized string. None by default.
+     *
+     * @param normalizer
+     *            the normalizer, or null to only trim user agents
+     */
+    public void setNormalizer(UserAgentNormalizer normalizer) {
+        this.normalizer = normalizer;
+    }
+
+    public UserAgentNormalizer getNormalizer() {
+        return normalizer;
+    }
+
+    /**
+     * Set a cache for parse results. It is looked up with the user agent as given, before it is
+     * normalized, and cleared whenever a new database is loaded. Results of parses which ran out
+     * of their matching budget are not cached. None by default.
+     *
+     * @param cache
+     *            the cache, which may be shared between parsers using the same database, or null
+     */
+    public void setCache(UserAgentInfoCache cache) {
+        this.cache = cache;
+    }
+
+    public UserAgentInfoCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Set an off-heap cache for parse results. It holds only ids and is looked up after the
+     * {@link #setCache(UserAgentInfoCache) cache}, if both are set, so a small on-heap cache can
+     * hold the hot user agents in front of a large off-heap one. Cleared whenever a new database
+     * is loaded. None by default.
+     *
+     * The cache holds ids of this parser's database, so it can only be set on one parser at a
+     * time; it is free again once replaced with another one or null.
+     *
+     * @param offHeapCache
+     *            the cache, or null
+     * @throws IllegalArgumentException
+     *             if the cache is set on another parser
+     */
+    public void setOffHeapCache(OffHeapUserAgentInfoCache offHeapCache) {
+        synchronized (databaseLock) {
+            if (offHeapCache != null) {
+                offHeapCache.attach(this);
+            }
+            if (this.offHeapCache != null && this.offHeapCache != offHeapCache) {
+                this.offHeapCache.detach(this);
+            }
+            this.offHeapCache = offHeapCache;
+            republish();
+        }
+    }
+
+    public OffHeapUserAgentInfoCache getOffHeapCache() {
+        return offHeapCache;
+    }
+
+    /**
+     * Set a cache of the winning patterns per user agent skeleton, see {@link SkeletonCache}.
+     * Unlike the result caches it is used after the robot lookup, and a hit still re-runs the
+     * cached patterns (and the digit-specific ones) on the user agent, outside of the
+     * {@link #setMatchBudget(int, long) matching budget}. Cleared whenever a new database is
+     * loaded. None by default.
+     *
+     * @param skeletonCache
+     *            the cache, or null
+     */
+    public void setSkeletonCache(SkeletonCache skeletonCache) {
+        synchronized (databaseLock) {
+            this.skeletonCache = skeletonCache;
+            republish();
+        }
+    }
+
+    public SkeletonCache getSkeletonCache() {
+        return skeletonCache;
+    }
+
+    /**
+     * Build the tables used on skeleton cache hits
+     *
+     * @param db
+     */
+    protected void preCompileSkeletonTables(final Database db) {
+        BuildTasks tasks = new BuildTasks(buildExecutor);
+        tasks.submit(new Runnable() {
+            @Override
+            public void run() {
+                db.browserSkeletonTable = new SkeletonTable(db.browserRegMap.keySet(), db.regexEngine);
+            }
+        });
+        tasks.submit(new Runnable() {
+            @Override
+            public void run() {
+                db.osSkeletonTable = new SkeletonTable(db.osRegMap.keySet(), db.regexEngine);
+            }
+        });
+        db.deviceSkeletonTable = null;
+        if (db.deviceRegMap != null) {
+            tasks.submit(new Runnable() {
+                @Override
+                public void run() {
+                    db.deviceSkeletonTable = new SkeletonTable(db.deviceRegMap.keySet(), db.regexEngine);
+                }
+            });
+        }
+        tasks.await();
+    }
+
+    /**
+     * Create an empty database, to be filled in and compiled. Parser variants with more compiled
+     * state return a subclass.
+     *
+     * @return
+     */
+    protected Database newDatabase() {
+        return new Database();
+    }
+
+    /**
+     * Compile a database with the current settings and make it the current one. Parses which
+     * already run finish with the previous one.
+     *
+     * @param db
+     *            the database, with its tables filled in
+     * @param newTables
+     *            true if the tables were just loaded, which clears the caches
+     */
+    protected void compileAndPublish(Database db, boolean newTables) {
+        synchronized (databaseLock) {
+            db.regexEngine = regexEngine;
+            db.twoPhaseMatching = twoPhaseMatching;
+            db.lazyCompilation = lazyCompilation;
+            db.robotPrefixMatching = robotPrefixMatching;
+            if (db.strings != null) {
+                db.strings.pack();
+            }
+            preCompileRegExes(db);
+            publish(db, newTables);
+            if (db.lazyCompilation && backgroundWarmUp) {
+                startWarmUp(db);
+            }
+        }
+    }
+
+    private void startWarmUp(final Database db) {
+        Thread thread = new Thread("UASparser warm-up") {
+            @Override
+            public void run() {
+                warmUp(db);
+            }
+        };
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Compile the patterns of a lazily compiled database which were not used yet, in table
+     * order. Runs on the warm-up thread; parser variants with other compiled state override it.
+     *
+     * @param db
+     */
+    protected void warmUp(Database db) {
+        getBrowserPrefilter(db);
+        getOsPrefilter(db);
+        if (db.deviceRegMap != null) {
+            getDevicePrefilter(db);
+        }
+        warmUp(db, db.browserPatterns);
+        warmUp(db, db.browserCapturePatterns);
+        warmUp(db, db.osPatterns);
+        warmUp(db, db.devicePatterns);
+    }
+
+    /**
+     * Compile the given patterns, unless the database was replaced
+     *
+     * @param db
+     * @param patterns
+     *            may be null
+     */
+    protected void warmUp(Database db, CompiledRegex[] patterns) {
+        if (patterns == null) {
+            return;
+        }
+        for (CompiledRegex pattern : patterns) {
+            if (database != db) {
+                return;
+            }
+            try {
+                LazyRegex.compile(pattern);
+            } catch (IllegalArgumentException e) {
+                // reported by the parse which needs the pattern
+            }
+        }
+    }
+
+
+    /**
+     * Compile the tables of the current database again, after a setting changed
+     */
+    protected void recompile() {
+        synchronized (databaseLock) {
+            Database current = database;
+            if (current != null) {
+                Database db = newDatabase();
+                db.copyTables(current);
+                compileAndPublish(db, false);
+            }
+        }
+    }
+
+    /**
+     * Publish a copy of the current database with the current caches attached
+     */
+    private void republish() {
+        Database current = database;
+        if (current != null) {
+            publish(current.copy(), false);
+        }
+    }
+
+    /**
+     * Attach the caches to a compiled database and make it the current one. The caches holding
+     * ids or table positions are cleared before, and the database only uses their entries of the
+     * new epoch; the result cache is cleared after, so it never keeps a result of the previous
+     * database.
+     */
+    private void publish(Database db, boolean newTables) {
+        OffHeapUserAgentInfoCache offHeapCache = this.offHeapCache;
+        db.offHeapCache = offHeapCache;
+        db.offHeapCodec = null;
+        if (offHeapCache != null) {
+            if (newTables) {
+                offHeapCache.clear();
+            }
+            db.offHeapCodec = new UserAgentInfoCodec(db.browserMap, db.browserTypeMap, db.osMap, db.deviceMap,
+                    offHeapCache.getEpoch());
+        }
+
+        SkeletonCache skeletonCache = this.skeletonCache;
+        db.skeletonCache = skeletonCache;
+        if (skeletonCache == null) {
+            db.browserSkeletonTable = null;
+            db.osSkeletonTable = null;
+            db.deviceSkeletonTable = null;
+        } else {
+            if (newTables) {
+                skeletonCache.clear();
+            }
+            db.skeletonEpoch = skeletonCache.getEpoch();
+            if (db.browserSkeletonTable == null) {
+                preCompileSkeletonTables(db);
+            }
+        }
+
+        database = db;
+        if (newTables && cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Prepare a user agent for matching
+     *
+     * @param useragent
+     * @return
+     */
+    protected String normalize(String useragent) {
+        useragent = useragent.trim();
+        if (normalizer != null) {
+            useragent = normalizer.normalize(useragent);
+        }
+        return useragent;
+    }
+
+    /**
+     * When a class inherits from this class, it probably has to override this method
+     */
+    @Deprecated
+    protected void checkDataMaps() throws IOException {
+        // empty for this base class
+    }
+
+    /**
+     * Parse the given user agent string and returns a UserAgentInfo object with the related data
+     *
+     * @param useragent
+     * @throws IOException
+     *             may happen when the retrieval of the data file fails
+     * @return
+     */
+    public UserAgentInfo parse(String useragent) throws IOException {
+        if (useragent == null) {
+            return unknownAgentInfo;
+        }
+
+        // check that the data maps are up-to-date (deprecated)
+        checkDataMaps();
+
+        UserAgentInfoCache cache = this.cache;
+        if (cache == null) {
+            return parseOffHeapCached(database, useragent);
+        }
+        UserAgentInfo uaInfo = cache.get(useragent);
+        if (uaInfo == null) {
+            // read before the database, so a result from a replaced database is not cached
+            int epoch = cache.getEpoch();
+            uaInfo = parseOffHeapCached(database, useragent);
+            if (!uaInfo.isTruncated()) {
+                cache.put(useragent, uaInfo, epoch);
+            }
+        }
+        return uaInfo;
+    }
+
+    /**
+     * Parse a user agent into a result owned by the caller, for high-volume parsing. The result
+     * is cleared and filled in again. The browser version is kept as a range of the user agent,
+     * see {@link UserAgentInfo#getBrowserVersionStart()}, and only copied into a String when asked
+     * for. The result caches are not used.
+     *
+     * With a {@link SingleThreadedUASparser} a warmed-up parse allocates nothing, unless a
+     * normalizer, a match budget or two-phase matching is set, or the user agent has leading or
+     * trailing whitespace.
+     *
+     * @param useragent
+     *            must not change while the result is in use
+     * @param reuse
+     *            the result to fill in
+     * @return reuse
+     * @throws IOException
+     *             may happen when the retrieval of the data file fails
+     */
+    public UserAgentInfo parse(CharSequence useragent, UserAgentInfo reuse) throws IOException {
+        return parse(useragent, null, reuse);
+    }
+
+    /**
+     * Parse a user agent, only finding the given fields. Parse stages none of them needs are
+     * skipped, e.g. the OS table when only the browser is wanted, or the browser table when only
+     * the device is wanted and a device pattern matches. Fields which were not asked for may or
+     * may not be filled in. The result caches are not used.
+     *
+     * @param useragent
+     * @param fields
+     *            the fields to find
+     * @return
+     * @throws IOException
+     *             may happen when the retrieval of the data file fails
+     */
+    public UserAgentInfo parse(String useragent, Set<UaField> fields) throws IOException {
+        if (useragent == null) {
+            return unknownAgentInfo;
+        }
+        return parse(useragent, fields, new UserAgentInfo());
+    }
+
+    /**
+     * Parse a user agent into a result owned by the caller, only finding the given fields, see
+     * {@link #parse(CharSequence, UserAgentInfo)} and {@link #parse(String, Set)}
+     *
+     * @param useragent
+     *            must not change while the result is in use
+     * @param fields
+     *            the fields to find, null for all
+     * @param reuse
+     *            the result to fill in
+     * @return reuse
+     * @throws IOException
+     *             may happen when the retrieval of the data file fails
+     */
+    public UserAgentInfo parse(CharSequence useragent, Set<UaField> fields, UserAgentInfo reuse) throws IOException {
+        reuse.reset();
+        reuse.fields = fields;
+        if (useragent == null) {
+            return reuse;
+        }
+
+        // check that the data maps are up-to-date (deprecated)
+        checkDataMaps();
+
+        // trim like String#trim, remembering where the text starts in the user agent
+        int start = 0;
+        int end = useragent.length();
+        while (start < end && useragent.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && useragent.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        CharSequence text = start == 0 && end == useragent.length() ? useragent : useragent.subSequence(start, end);
+        if (normalizer != null) {
+            String normalized = normalizer.normalize(text.toString());
+            if (!normalized.contentEquals(text)) {
+                // the version is not a range of the user agent any more
+                parseInto(database, normalized, reuse);
+                return reuse;
+            }
+        }
+        reuse.setInput(useragent, start);
+        parseInto(database, text, reuse);
+        return reuse;
+    }
+
+    /**
+     * Parse a user agent in UTF-8 bytes, e.g. a slice of a log line, into a result owned by the
+     * caller, see {@link #parse(CharSequence, UserAgentInfo)}. ASCII user agents are matched on
+     * the bytes directly; others are decoded into a buffer of the result. The version offsets
+     * count chars, which are bytes for ASCII user agents, and the version is only decoded when
+     * {@link UserAgentInfo#getBrowserVersionInfo()} is called.
+     *
+     * @param bytes
+     *            must not change while the result is in use
+     * @param offset
+     * @param length
+     * @param reuse
+     *            the result to fill in
+     * @return reuse
+     * @throws IOException
+     *             may happen when the retrieval of the data file fails
+     */
+    public UserAgentInfo parseUtf8(byte[] bytes, int offset, int length, UserAgentInfo reuse) throws IOException {
+        return parse(reuse.getUtf8Text().wrap(bytes, offset, length), reuse);
+    }
+
+    /**
+     * Parse the UTF-8 bytes between position and limit of a buffer into a result owned by the
+     * caller, see {@link #parseUtf8(byte[], int, int, UserAgentInfo)}. The position of the buffer is
+     * not moved.
+     *
+     * @param buffer
+     *            must not change while the result is in use
+     * @param reuse
+     *            the result to fill in
+     * @return reuse
+     * @throws IOException
+     *             may happen when the retrieval of the data file fails
+     */
+    public UserAgentInfo parseUtf8(ByteBuffer buffer, UserAgentInfo reuse) throws IOException {
+        return parse(reuse.getUtf8Text().wrap(buffer), reuse);
+    }
+
+    /**
+     * Looks the user agent up in the off-heap cache of the database, if any, and parses it on a
+     * miss
+     *
+     * @param db
+     * @param useragent
+     * @return
+     */
+    private UserAgentInfo parseOffHeapCached(Database db, String useragent) {
+        OffHeapUserAgentInfoCache offHeapCache = db.offHeapCache;
+        if (offHeapCache == null) {
+            return parseUncached(db, useragent);
+        }
+        UserAgentInfo uaInfo = offHeapCache.get(useragent, db.offHeapCodec);
+        if (uaInfo == null) {
+            uaInfo = parseUncached(db, useragent);
+            offHeapCache.put(useragent, uaInfo, db.offHeapCodec);
+        }
+        return uaInfo;
+    }
+
+    /**
+     * Runs all parse stages for the given user agent against one database, without using the
+     * result caches
+     *
+     * @param db
+     * @param useragent
+     * @return
+     */
+    protected UserAgentInfo parseUncached(Database db, String useragent) {
+        UserAgentInfo uaInfo = new UserAgentInfo();
+        useragent = normalize(useragent);
+
+        // first check if it's a robot
+        if (processRobot(db, useragent, uaInfo)) {
+            return uaInfo;
+        }
+
+        SkeletonCache skeletonCache = db.skeletonCache;
+        String skeleton = null;
+        if (skeletonCache != null) {
+            skeleton = SkeletonCache.skeletonOf(useragent);
+            int[] winners = skeletonCache.get(skeleton, db.skeletonEpoch);
+            if (winners != null) {
+                if (processSkeleton(db, useragent, winners, uaInfo)) {
+                    return uaInfo;
+                }
+                skeletonCache.rescanCount.incrementAndGet();
+                uaInfo = new UserAgentInfo();
+            }
+        }
+
+        processRegexes(db, useragent, uaInfo);
+
+        if (skeleton != null && !uaInfo.isTruncated()) {
+            // an OS without a pattern was implied by the browser, the OS table was not scanned
+            int osIndex = uaInfo.osIndex < 0 && uaInfo.hasOsInfo() ? SkeletonTable.NOT_SCANNED : uaInfo.osIndex;
+            skeletonCache.put(skeleton, new int[] { uaInfo.browserIndex, osIndex, uaInfo.deviceIndex },
+                    db.skeletonEpoch);
+        }
+        return uaInfo;
+    }
+
+    /**
+     * Runs all parse stages for a normalized user agent against one database, filling in the
+     * given result, without using any cache
+     *
+     * @param db
+     * @param useragent
+     * @param uaInfo
+     */
+    protected void parseInto(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
+        if (!processRobot(db, useragent, uaInfo)) {
+            processRegexes(db, useragent, uaInfo);
+        }
+    }
+
+    /**
+     * Searches the regex tables for a user agent which is not a robot, within the match budget
+     *
+     * @param db
+     * @param useragent
+     * @param uaInfo
+     */
+    protected void processRegexes(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
+        boolean cut = false;
+        if (maxMatchSteps > 0 || maxMatchNanos > 0) {
+            uaInfo.budget = new MatchBudget(maxMatchSteps, maxMatchNanos);
+            if (useragent.length() > MAX_BUDGETED_LENGTH && !(db.regexEngine instanceof LinearRegexEngine)) {
+                useragent = useragent.subSequence(0, MAX_BUDGETED_LENGTH);
+                cut = true;
+            }
+        }
+
+        // it's not a robot, so search for a browser on the browser regex patterns, which may
+        // also set the OS
+        boolean os = uaInfo.wants(UaField.OS);
+        boolean browser = os || uaInfo.wants(UaField.TYPE) || uaInfo.wants(UaField.BROWSER)
+                || uaInfo.wants(UaField.BROWSER_VERSION);
+        if (browser) {
+            processBrowserRegex(db, useragent, uaInfo);
+        }
+        if (os && !uaInfo.hasOsInfo()) {
+            // search the OS regex patterns for the used OS
+            processOsRegex(db, useragent, uaInfo);
+        }
+
+        if (uaInfo.wants(UaField.DEVICE)) {
+            // search the device regex patterns to set the according device
+            processDeviceRegex(db, useragent, uaInfo);
+            if (!uaInfo.hasDeviceInfo()) {
+                // the guess needs the type
+                if (!browser) {
+                    processBrowserRegex(db, useragent, uaInfo);
+                }
+                guessDeviceType(db, uaInfo);
+            }
+        }
+
+        if (uaInfo.budget != null) {
+            if (cut || uaInfo.budget.isExhausted()) {
+                uaInfo.setTruncated(true);
+                truncatedParseCount.incrementAndGet();
+            }
+            uaInfo.budget = null;
+        }
+    }
+
+    /**
+     * Fills in a user agent from the winning patterns of another one with the same skeleton
+     *
+     * @param db
+     * @param useragent
+     * @param winners
+     *            table positions of the browser, os and device patterns which won, -1 for none,
+     *            {@link SkeletonTable#NOT_SCANNED} for an OS implied by the browser
+     * @param uaInfo
+     * @return false if a table has to be scanned in full after all
+     */
+    protected boolean processSkeleton(Database db, String useragent, int[] winners, UserAgentInfo uaInfo) {
+        int browser = db.browserSkeletonTable.resolve(winners[0], useragent);
+        if (browser == SkeletonTable.RESCAN) {
+            return false;
+        }
+        if (browser >= 0) {
+            RegexMatcher matcher = db.browserSkeletonTable.match(browser, useragent);
+            if (matcher == null) {
+                return false;
+            }
+            applyBrowserMatch(db, db.browserTargets[browser], matcher, uaInfo);
+        }
+
+        if (!uaInfo.hasOsInfo() && winners[1] == SkeletonTable.NOT_SCANNED) {
+            // this browser implies no OS, unlike the cached one
+            processOsRegex(db, useragent, uaInfo);
+        } else if (!uaInfo.hasOsInfo()) {
+            int os = db.osSkeletonTable.resolve(winners[1], useragent);
+            if (os == SkeletonTable.RESCAN) {
+                return false;
+            }
+            if (os >= 0) {
+                uaInfo.setOsEntry(db.oses[db.osTargets[os]]);
+            }
+        }
+
+        if (db.deviceSkeletonTable != null && db.devices != null) {
+            int device = db.deviceSkeletonTable.resolve(winners[2], useragent);
+            if (device == SkeletonTable.RESCAN) {
+                return false;
+            }
+            if (device >= 0) {
+                uaInfo.setDeviceEntry(db.devices[db.deviceTargets[device]]);
+            }
+        }
+        if (!uaInfo.hasDeviceInfo()) {
+            guessDeviceType(db, uaInfo);
+        }
+        return true;
+    }
+
+    /**
+     * Determine device type based on UA type field
+     * @param db
+     * @param uaInfo
+     */
+    protected void guessDeviceType(Database db, UserAgentInfo uaInfo) {
+        Map<Long, DeviceEntry> deviceMap = db.deviceMap;
+        if (db.devicePatterns == null || deviceMap == null) {
+            return;
+        }
+
+        String type = uaInfo.getType();
+        if (type == null || type.isEmpty()) {
+            return;
+        }
+
+        if (type.equals("Other") || type.equals("Library") || type.equals("Useragent Anonymizer")) {
+            uaInfo.setDeviceEntry(deviceMap.get(DEVICE_ID_OTHER));
+        } else if (type.equals("Mobile Browser") || type.equals("Wap Browser")) {
+            uaInfo.setDeviceEntry(deviceMap.get(DEVICE_ID_SMARTPHONE));
+        } else {
+            uaInfo.setDeviceEntry(deviceMap.get(DEVICE_ID_DESKTOP));
+        }
+    }
+
+    /**
+     * Parse the given user agent string and returns a UserAgentInfo object
+     * with only the related Browser data set.
+     *
+     * @param useragent
+     * @return {@link UserAgentInfo}
+     */
+    public UserAgentInfo parseBrowserOnly(String useragent) {
+        if (useragent == null) {
+            return unknownAgentInfo;
+        }
+
+        UserAgentInfo uaInfo = new UserAgentInfo();
+        processBrowserRegex(database, normalizer != null ? normalizer.normalize(useragent) : useragent, uaInfo);
+        return uaInfo;
+    }
+
+    /**
+     * Decide whether a user agent is a robot, without the browser, OS and device tables, for bot
+     * filtering. Besides the exact robot lookup of {@link #parse(String)} this also finds robots
+     * which aren't in the table as such but carry the product token of a known one, e.g. a newer
+     * version of a crawler. Without a normalizer it allocates nothing.
+     *
+     * @param useragent
+     * @return true if it is a robot
+     * @throws IOException
+     *             may happen when the retrieval of the data file fails
+     */
+    public boolean isRobot(CharSequence useragent) throws IOException {
+        if (useragent == null) {
+            return false;
+        }
+        checkDataMaps();
+        return findRobot(database, useragent) != null;
+    }
+
+    /**
+     * Find the robot a user agent belongs to, see {@link #isRobot(CharSequence)}
+     *
+     * @param useragent
+     * @return the robot data, with the type, OS and device {@link #parse(String)} would set, or
+     *         an unknown result if it is not a robot
+     * @throws IOException
+     *             may happen when the retrieval of the data file fails
+     */
+    public UserAgentInfo classifyRobot(String useragent) throws IOException {
+        if (useragent == null) {
+            return unknownAgentInfo;
+        }
+        checkDataMaps();
+        Database db = database;
+        RobotEntry robotEntry = findRobot(db, useragent);
+        if (robotEntry == null) {
+            return unknownAgentInfo;
+        }
+        UserAgentInfo uaInfo = new UserAgentInfo();
+        applyRobot(db, robotEntry, uaInfo);
+        return uaInfo;
+    }
+
+    /**
+     * Looks a user agent up in the robot table, then by prefix, then by its product tokens. With
+     * a normalizer all three see the normalized user agent.
+     *
+     * @param db
+     * @param useragent
+     * @return the robot, or null
+     */
+    protected RobotEntry findRobot(Database db, CharSequence useragent) {
+        if (normalizer != null) {
+            useragent = normalizer.normalize(useragent.toString());
+        }
+        // trim like String#trim
+        int start = 0;
+        int end = useragent.length();
+        while (start < end && useragent.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && useragent.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        RobotEntry robotEntry;
+        robotEntry = getRobotIndex(db).get(useragent, start, end);
+        if (robotEntry == null) {
+            robotEntry = getRobotPrefixes(db).longestPrefix(useragent, start, end);
+        }
+        if (robotEntry == null) {
+            robotEntry = getRobotClassifier(db).classify(useragent);
+        }
+        return robotEntry;
+    }
+
+    /**
+     * @return the exact robot lookup for input which is not a String, built on first use like
+     *         {@link #getRobotClassifier(Database)}
+     */
+    private RobotIndex getRobotIndex(Database db) {
+        RobotIndex index = db.robotIndex;
+        if (index == null) {
+            index = new RobotIndex(db.robotsMap);
+            db.robotIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * @return the robot classifier of the database, built on first use. Threads racing on it may
+     *         each build one, the last one is kept.
+     */
+    private RobotClassifier getRobotClassifier(Database db) {
+        RobotClassifier classifier = db.robotClassifier;
+        if (classifier == null) {
+            preCompileRobotClassifier(db);
+            classifier = db.robotClassifier;
+        }
+        return classifier;
+    }
+
+    /**
+     * @return the robot prefix trie of the database, built on first use like
+     *         {@link #getRobotClassifier(Database)}
+     */
+    private RobotPrefixTrie getRobotPrefixes(Database db) {
+        RobotPrefixTrie prefixes = db.robotPrefixes;
+        if (prefixes == null) {
+            preCompileRobotPrefixes(db);
+            prefixes = db.robotPrefixes;
+        }
+        return prefixes;
+    }
+
+    /**
+     * Precompile all regular regexes. With a {@link #setBuildExecutor(Executor) build executor}
+     * the steps after the dense tables run concurrently, so each must only set its own part of
+     * the database.
+     *
+     * @param db
+     */
+    protected void preCompileRegExes(final Database db) {
+        preCompileTables(db);
+        BuildTasks tasks = new BuildTasks(buildExecutor);
+        tasks.submit(new Runnable() {
+            @Override
+            public void run() {
+                preCompilePrefilters(db);
+            }
+        });
+        tasks.submit(new Runnable() {
+            @Override
+            public void run() {
+                preCompileBrowserCapturePatterns(db);
+            }
+        });
+        tasks.submit(new Runnable() {
+            @Override
+            public void run() {
+                preCompileBrowserRegMap(db);
+            }
+        });
+        tasks.submit(new Runnable() {
+            @Override
+            public void run() {
+                preCompileOsRegMap(db);
+            }
+        });
+        tasks.submit(new Runnable() {
+            @Override
+            public void run() {
+                preCompileDeviceRegMap(db);
+            }
+        });
+        tasks.await();
+    }
+
+    /**
+     * Remap the database to dense tables and resolve the target of every regex table entry to a
+     * position in them. Only entries referenced by a regex table are included. Browser types and
+     * the OS mapped to a browser are resolved up front.
+     *
+     * @param db
+     */
+    protected void preCompileTables(Database db) {
+        Map<Long, Integer> browserPositions = new HashMap<Long, Integer>();
+        List<Long> browserIds = new ArrayList<Long>(db.browserMap.size());
+        int[] browserTargets = new int[db.browserRegMap.size()];
+        int i = 0;
+        for (Long id : db.browserRegMap.values()) {
+            browserTargets[i++] = position(browserPositions, browserIds, id);
+        }
+        BrowserEntry[] browsers = new BrowserEntry[browserIds.size()];
+        String[] browserTypes = new String[browserIds.size()];
+        OsEntry[] browserOses = new OsEntry[browserIds.size()];
+        for (int j = 0; j < browsers.length; j++) {
+            Long id = browserIds.get(j);
+            BrowserEntry be = db.browserMap.get(id);
+            browsers[j] = be;
+            browserTypes[j] = be != null ? db.browserTypeMap.get(be.getType()) : null;
+            Long idOs = db.browserOsMap.get(id);
+            browserOses[j] = idOs != null ? db.osMap.get(idOs) : null;
+        }
+        db.browserTargets = browserTargets;
+        db.browsers = browsers;
+        db.browserTypes = browserTypes;
+        db.browserOses = browserOses;
+
+        Map<Long, Integer> osPositions = new HashMap<Long, Integer>();
+        List<Long> osIds = new ArrayList<Long>(db.osMap.size());
+        int[] osTargets = new int[db.osRegMap.size()];
+        i = 0;
+        for (Long id : db.osRegMap.values()) {
+            osTargets[i++] = position(osPositions, osIds, id);
+        }
+        OsEntry[] oses = new OsEntry[osIds.size()];
+        for (int j = 0; j < oses.length; j++) {
+            oses[j] = db.osMap.get(osIds.get(j));
+        }
+        db.osTargets = osTargets;
+        db.oses = oses;
+
+        if (db.deviceRegMap != null && db.deviceMap != null) {
+            Map<Long, Integer> devicePositions = new HashMap<Long, Integer>();
+            List<Long> deviceIds = new ArrayList<Long>(db.deviceMap.size());
+            int[] deviceTargets = new int[db.deviceRegMap.size()];
+            i = 0;
+            for (Long id : db.deviceRegMap.values()) {
+                deviceTargets[i++] = position(devicePositions, deviceIds, id);
+            }
+            DeviceEntry[] devices = new DeviceEntry[deviceIds.size()];
+            for (int j = 0; j < devices.length; j++) {
+                devices[j] = db.deviceMap.get(deviceIds.get(j));
+            }
+            db.deviceTargets = deviceTargets;
+            db.devices = devices;
+        }
+    }
+
+    /**
+     * Index the robots by their product tokens, for {@link #isRobot(CharSequence)}. Words of the
+     * browser, OS and device tables are left out, as they appear in user agents of people. Called
+     * by the first {@link #isRobot(CharSequence)} or {@link #classifyRobot(String)}, not by the
+     * build, as most parsers never need it.
      *
-     * @param localDefinitionFilename
-     * @throws IOException
+     * @param db
      */
-    public UASparser(String localDefinitionFilename) throws IOException {
-        loadDataFromFile(new File(localDefinitionFilename));
-        unknownAgentInfo = new UserAgentInfo();
+    protected void preCompileRobotClassifier(Database db) {
+        List<Collection<String>> regexes = new ArrayList<Collection<String>>();
+        regexes.add(db.browserRegMap.keySet());
+        regexes.add(db.osRegMap.keySet());
+        if (db.deviceRegMap != null) {
+            regexes.add(db.deviceRegMap.keySet());
+        }
+        List<String> names = new ArrayList<String>(db.browserTypeMap.values());
+        for (BrowserEntry browser : db.browserMap.values()) {
+            names.add(browser.getFamily());
+        }
+        for (OsEntry os : db.osMap.values()) {
+            names.add(os.getFamily());
+            names.add(os.getName());
+        }
+        if (db.deviceMap != null) {
+            for (DeviceEntry device : db.deviceMap.values()) {
+                names.add(device.getType());
+            }
+        }
+        db.robotClassifier = new RobotClassifier(db.robotsMap, regexes, names);
     }
 
     /**
-     * Use the given inputstream to load the definition file from the local filesystem
+     * Index the robots by prefix, see {@link #setRobotPrefixMatching(boolean)}. Called when the
+     * setting is enabled or the index is first needed, not by the build.
      *
-     * @param inputStreamToDefinitionFile
-     * @throws IOException
+     * @param db
      */
-    public UASparser(InputStream inputStreamToDefinitionFile) throws IOException {
-        loadDataFromFile(inputStreamToDefinitionFile);
-        unknownAgentInfo = new UserAgentInfo();
+    protected void preCompileRobotPrefixes(Database db) {
+        db.robotPrefixes = new RobotPrefixTrie(db.robotsMap.values());
     }
 
     /**
-     * When a class inherits from this class, it probably has to override this method
+     * @return the dense position of a database id, which is added if it is new
      */
-    @Deprecated
-    protected void checkDataMaps() throws IOException {
-        // empty for this base class
+    private static int position(Map<Long, Integer> positions, List<Long> ids, Long id) {
+        Integer position = positions.get(id);
+        if (position == null) {
+            position = ids.size();
+            positions.put(id, position);
+            ids.add(id);
+        }
+        return position;
     }
 
     /**
-     * Parse the given user agent string and returns a UserAgentInfo object with the related data
+     * Build the literal prefilters for all regex tables. Table order is kept, so the prefilter
+     * indexes line up with the pattern arrays. When compiling lazily nothing is built here, each
+     * table builds its prefilter on its first scan.
      *
-     * @param useragent
-     * @throws IOException
-     *             may happen when the retrieval of the data file fails
-     * @return
+     * @param db
      */
-    public UserAgentInfo parse(String useragent) throws IOException {
-        if (useragent == null) {
-            return unknownAgentInfo;
+    protected void preCompilePrefilters(final Database db) {
+        if (db.lazyCompilation) {
+            return;
         }
-
-        UserAgentInfo uaInfo = new UserAgentInfo();
-        useragent = useragent.trim();
-
-        // check that the data maps are up-to-date (deprecated)
-        checkDataMaps();
-
-        // first check if it's a robot
-        if (processRobot(useragent, uaInfo)) {
-            return uaInfo;
+        BuildTasks tasks = new BuildTasks(buildExecutor);
+        tasks.submit(new Runnable() {
+            @Override
+            public void run() {
+                getBrowserPrefilter(db);
+            }
+        });
+        tasks.submit(new Runnable() {
+            @Override
+            public void run() {
+                getOsPrefilter(db);
+            }
+        });
+        if (db.deviceRegMap != null) {
+            tasks.submit(new Runnable() {
+                @Override
+                public void run() {
+                    getDevicePrefilter(db);
+                }
+            });
         }
+        tasks.await();
+    }
 
-        // it's not a robot, so search for a browser on the browser regex patterns
-        processBrowserRegex(useragent, uaInfo);
-        if (!uaInfo.hasOsInfo()) {
-            // search the OS regex patterns for the used OS
-            processOsRegex(useragent, uaInfo);
+    /**
+     * @return the prefilter of the browser table, built on first use like
+     *         {@link #getRobotClassifier(Database)}
+     */
+    private static LiteralPrefilter getBrowserPrefilter(Database db) {
+        LiteralPrefilter prefilter = db.browserPrefilter;
+        if (prefilter == null) {
+            prefilter = new LiteralPrefilter(db.browserRegMap.keySet());
+            db.browserPrefilter = prefilter;
         }
+        return prefilter;
+    }
 
-        // search the device regex patterns to set the according device
-        processDeviceRegex(useragent, uaInfo);
-        if (!uaInfo.hasDeviceInfo()) {
-            guessDeviceType(uaInfo);
+    /**
+     * @return the prefilter of the OS table, built on first use
+     */
+    private static LiteralPrefilter getOsPrefilter(Database db) {
+        LiteralPrefilter prefilter = db.osPrefilter;
+        if (prefilter == null) {
+            prefilter = new LiteralPrefilter(db.osRegMap.keySet());
+            db.osPrefilter = prefilter;
         }
-
-        return uaInfo;
+        return prefilter;
     }
 
     /**
-     * Determine device type based on UA type field
-     * @param uaInfo
+     * @return the prefilter of the device table, built on first use
      */
-    protected void guessDeviceType(UserAgentInfo uaInfo) {
-        if (compiledDeviceRegMap == null || deviceMap == null) {
-            return;
+    private static LiteralPrefilter getDevicePrefilter(Database db) {
+        LiteralPrefilter prefilter = db.devicePrefilter;
+        if (prefilter == null) {
+            prefilter = new LiteralPrefilter(db.deviceRegMap.keySet());
+            db.devicePrefilter = prefilter;
         }
+        return prefilter;
+    }
 
-        String type = uaInfo.getType();
-        if (type == null || type.isEmpty()) {
+    /**
+     * Precompile the browser regexes with their capture groups, indexed by table position. Only
+     * needed for two-phase matching, otherwise the scanning patterns capture the version.
+     *
+     * @param db
+     */
+    protected void preCompileBrowserCapturePatterns(Database db) {
+        if (!db.twoPhaseMatching) {
             return;
         }
-
-        if (type.equals("Other") || type.equals("Library") || type.equals("Useragent Anonymizer")) {
-            uaInfo.setDeviceEntry(deviceMap.get(DEVICE_ID_OTHER));
-        } else if (type.equals("Mobile Browser") || type.equals("Wap Browser")) {
-            uaInfo.setDeviceEntry(deviceMap.get(DEVICE_ID_SMARTPHONE));
-        } else {
-            uaInfo.setDeviceEntry(deviceMap.get(DEVICE_ID_DESKTOP));
-        }
+        db.browserCapturePatterns = compilePatterns(db, db.browserRegMap.keySet(), false);
     }
 
     /**
-     * Parse the given user agent string and returns a UserAgentInfo object
-     * with only the related Browser data set.
+     * Compile a regex for scanning a table of the database. In two-phase mode the capture groups
+     * are dropped.
      *
-     * @param useragent
-     * @return {@link UserAgentInfo}
+     * @param db
+     * @param regex
+     * @return
      */
-    public UserAgentInfo parseBrowserOnly(String useragent) {
-        if (useragent == null) {
-            return unknownAgentInfo;
+    protected CompiledRegex compileScanPattern(Database db, String regex) {
+        if (db.twoPhaseMatching) {
+            regex = removeCaptureGroups(regex);
         }
-
-        UserAgentInfo uaInfo = new UserAgentInfo();
-        processBrowserRegex(useragent, uaInfo);
-        return uaInfo;
+        return compile(db, regex);
     }
 
     /**
-     * Precompile all regular regexes
+     * Compile a regex of the database, or wrap it to be compiled on first use
      */
-    protected void preCompileRegExes() {
-        preCompileBrowserRegMap();
-        preCompileOsRegMap();
-        preCompileDeviceRegMap();
+    private static CompiledRegex compile(Database db, String regex) {
+        return db.lazyCompilation ? new LazyRegex(db.regexEngine, regex) : db.regexEngine.compile(regex);
     }
 
     /**
      * Precompile browser regexes
+     *
+     * @param db
      */
-    protected void preCompileBrowserRegMap() {
-        LinkedHashMap<Pattern, Long> compiledBrowserRegMap = new LinkedHashMap<Pattern, Long>(browserRegMap.size());
-        for (Map.Entry<String, Long> entry : browserRegMap.entrySet()) {
-            Pattern pattern = new Pattern(entry.getKey(), Pattern.IGNORE_CASE | Pattern.DOTALL);
-            compiledBrowserRegMap.put(pattern, entry.getValue());
-        }
-        this.compiledBrowserRegMap = compiledBrowserRegMap;
+    protected void preCompileBrowserRegMap(Database db) {
+        db.browserPatterns = compileScanPatterns(db, db.browserRegMap.keySet());
     }
 
     /**
      * Precompile OS regexes
+     *
+     * @param db
      */
-    protected void preCompileOsRegMap() {
-        LinkedHashMap<Pattern, Long> compiledOsRegMap = new LinkedHashMap<Pattern, Long>(osRegMap.size());
-        for (Map.Entry<String, Long> entry : osRegMap.entrySet()) {
-            Pattern pattern = new Pattern(entry.getKey(), Pattern.IGNORE_CASE | Pattern.DOTALL);
-            compiledOsRegMap.put(pattern, entry.getValue());
-        }
-        this.compiledOsRegMap = compiledOsRegMap;
+    protected void preCompileOsRegMap(Database db) {
+        db.osPatterns = compileScanPatterns(db, db.osRegMap.keySet());
     }
 
     /**
      * Precompile device regexes
+     *
+     * @param db
+     */
+    protected void preCompileDeviceRegMap(Database db) {
+        if (db.deviceRegMap != null) {
+            db.devicePatterns = compileScanPatterns(db, db.deviceRegMap.keySet());
+        }
+    }
+
+    /**
+     * Compile the regexes of a table for scanning, in table order
+     *
+     * @param db
+     * @param regexes
+     * @return
+     */
+    protected CompiledRegex[] compileScanPatterns(Database db, Collection<String> regexes) {
+        return compilePatterns(db, regexes, true);
+    }
+
+    /**
+     * Compile the regexes of a table in table order, in chunks on the build executor
      */
-    protected void preCompileDeviceRegMap() {
-        if (deviceRegMap != null) {
-	    	LinkedHashMap<Pattern, Long> compiledDeviceRegMap = new LinkedHashMap<Pattern, Long>(deviceRegMap.size());
-	        for (Map.Entry<String, Long> entry : deviceRegMap.entrySet()) {
-	            Pattern pattern = new Pattern(entry.getKey(), Pattern.IGNORE_CASE | Pattern.DOTALL);
-	            compiledDeviceRegMap.put(pattern, entry.getValue());
-	        }
-	        this.compiledDeviceRegMap = compiledDeviceRegMap;
+    private CompiledRegex[] compilePatterns(final Database db, Collection<String> regexes, final boolean scan) {
+        final String[] sources = regexes.toArray(new String[regexes.size()]);
+        final CompiledRegex[] patterns = new CompiledRegex[sources.length];
+        BuildTasks tasks = new BuildTasks(buildExecutor);
+        for (int start = 0; start < sources.length; start += COMPILE_CHUNK) {
+            final int from = start;
+            final int to = Math.min(start + COMPILE_CHUNK, sources.length);
+            tasks.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = from; i < to; i++) {
+                        patterns[i] = scan ? compileScanPattern(db, sources[i]) : compile(db, sources[i]);
+                    }
+                }
+            });
         }
+        tasks.await();
+        return patterns;
+    }
+
+    /**
+     * Takes one step of the matching budget of the parse in progress. Regex table scans call this
+     * before each regex evaluation and stop once it returns false.
+     *
+     * @param uaInfo
+     * @return false if the budget is used up
+     */
+    protected boolean withinBudget(UserAgentInfo uaInfo) {
+        return uaInfo.budget == null || uaInfo.budget.spend();
     }
 
     /**
      * Checks if the User Agent matches that of a known Robot (crawler or other automated agent)
      *
+     * @param db
      * @param useragent
      * @param uaInfo
      */
-    protected boolean processRobot(String useragent, UserAgentInfo uaInfo) {
+    protected boolean processRobot(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
         // Robots UAs must match *exactly*, hence we use a simple hash lookup and not a regex match
-        if (!robotsMap.containsKey(useragent)) {
+        RobotEntry robotEntry;
+        if (useragent instanceof String) {
+            robotEntry = db.robotsMap.get(useragent);
+        } else {
+            robotEntry = getRobotIndex(db).get(useragent);
+        }
+        if (robotEntry == null && db.robotPrefixMatching) {
+            robotEntry = getRobotPrefixes(db).longestPrefix(useragent, 0, useragent.length());
+        }
+        if (robotEntry == null) {
             return false;
         }
+        applyRobot(db, robotEntry, uaInfo);
+        return true;
+    }
 
+    /**
+     * Copies the data of a robot
+     *
+     * @param db
+     * @param robotEntry
+     * @param uaInfo
+     */
+    protected void applyRobot(Database db, RobotEntry robotEntry, UserAgentInfo uaInfo) {
         uaInfo.setType(ROBOT);
-        RobotEntry robotEntry = robotsMap.get(useragent);
         uaInfo.setRobotEntry(robotEntry);
         if (robotEntry.getOsId() != null) {
-            uaInfo.setOsEntry(osMap.get(robotEntry.getOsId()));
+            uaInfo.setOsEntry(db.osMap.get(robotEntry.getOsId()));
         }
 
-        if (compiledDeviceRegMap != null && deviceMap != null) {
+        if (db.devicePatterns != null && db.deviceMap != null) {
             // Set device to 'other'
-            uaInfo.setDeviceEntry(deviceMap.get(DEVICE_ID_OTHER));
+            uaInfo.setDeviceEntry(db.deviceMap.get(DEVICE_ID_OTHER));
         }
-        return true;
     }
 
     /**
      * Searchs in the browser regex table. if found a match copies the browser data and if possible os data
      *
+     * @param db
      * @param useragent
      * @param uaInfo
      */
-    protected void processBrowserRegex(String useragent, UserAgentInfo uaInfo) {
-        for (Map.Entry<Pattern, Long> entry : compiledBrowserRegMap.entrySet()) {
-            Matcher matcher = entry.getKey().matcher(useragent);
+    protected void processBrowserRegex(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
+        CompiledRegex[] browserPatterns = db.browserPatterns;
+        BitSet candidates = getBrowserPrefilter(db).candidates(useragent);
+        for (int index = candidates.nextSetBit(0); index >= 0; index = candidates.nextSetBit(index + 1)) {
+            if (!withinBudget(uaInfo)) {
+                return;
+            }
+            RegexMatcher matcher = browserPatterns[index].matcher(useragent);
             if (matcher.find()) {
-                Long idBrowser = entry.getValue();
-                BrowserEntry be = browserMap.get(idBrowser);
-                if (be != null) {
-                    uaInfo.setType(browserTypeMap.get(be.getType()));;
-                    if (matcher.groupCount() > 1) {
-                        uaInfo.setBrowserVersionInfo(matcher.group(1));
-                    }
-                    uaInfo.setBrowserEntry(be);
-                }
-                // check if this browser has exactly one OS mapped
-                Long idOs = browserOsMap.get(idBrowser);
-                if (idOs != null) {
-                    uaInfo.setOsEntry(osMap.get(idOs));
-                }
+                uaInfo.browserIndex = index;
+                applyBrowserMatch(db, db.browserTargets[index],
+                        captureBrowserMatch(db, index, matcher, useragent, uaInfo), uaInfo);
                 return;
             }
         }
     }
 
+    /**
+     * In two-phase mode, re-runs the winning browser pattern with its capture groups, unless the
+     * version is not wanted
+     *
+     * @param db
+     * @param index
+     *            table position of the pattern which matched
+     * @param matcher
+     *            the matcher which found the browser
+     * @param useragent
+     * @param uaInfo
+     * @return a matcher holding the capture groups
+     */
+    protected RegexMatcher captureBrowserMatch(Database db, int index, RegexMatcher matcher,
+            CharSequence useragent, UserAgentInfo uaInfo) {
+        if (db.browserCapturePatterns == null || !uaInfo.wants(UaField.BROWSER_VERSION)) {
+            return matcher;
+        }
+        RegexMatcher captureMatcher = db.browserCapturePatterns[index].matcher(useragent);
+        captureMatcher.find();
+        return captureMatcher;
+    }
+
+    /**
+     * Copies the browser data for a matched browser regex and, if possible, the os data
+     *
+     * @param db
+     * @param browser
+     *            position of the browser in the dense tables
+     * @param matcher
+     *            the matcher which found the browser, used for the version group, may be null if
+     *            the version is not wanted
+     * @param uaInfo
+     */
+    protected void applyBrowserMatch(Database db, int browser, RegexMatcher matcher, UserAgentInfo uaInfo) {
+        BrowserEntry be = db.browsers[browser];
+        if (be != null) {
+            uaInfo.setType(db.browserTypes[browser]);
+            if (uaInfo.wants(UaField.BROWSER_VERSION) && matcher.groupCount() > 0) {
+                if (uaInfo.getInput() != null) {
+                    // see parse(CharSequence, UserAgentInfo)
+                    uaInfo.setBrowserVersionRange(matcher.start(1), matcher.end(1));
+                } else {
+                    uaInfo.setBrowserVersionInfo(matcher.group(1));
+                }
+            }
+            uaInfo.setBrowserEntry(be);
+        }
+        // check if this browser has exactly one OS mapped
+        OsEntry os = db.browserOses[browser];
+        if (os != null) {
+            uaInfo.setOsEntry(os);
+        }
+    }
+
     /**
      * Searches in the os regex table. if found a match copies the os data
      *
+     * @param db
      * @param useragent
      * @param uaInfo
      */
-    protected void processOsRegex(String useragent, UserAgentInfo uaInfo) {
-        for (Map.Entry<Pattern, Long> entry : compiledOsRegMap.entrySet()) {
-            Matcher matcher = entry.getKey().matcher(useragent);
+    protected void processOsRegex(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
+        CompiledRegex[] osPatterns = db.osPatterns;
+        BitSet candidates = getOsPrefilter(db).candidates(useragent);
+        for (int index = candidates.nextSetBit(0); index >= 0; index = candidates.nextSetBit(index + 1)) {
+            if (!withinBudget(uaInfo)) {
+                return;
+            }
+            RegexMatcher matcher = osPatterns[index].matcher(useragent);
             if (matcher.find()) {
-                uaInfo.setOsEntry(osMap.get(entry.getValue()));
+                uaInfo.osIndex = index;
+                uaInfo.setOsEntry(db.oses[db.osTargets[index]]);
                 return;
             }
         }
@@ -285,114 +1574,266 @@ public class UASparser {
     /**
      * Searches in the devices regex table. if found a match copies the device data
      *
+     * @param db
+     * @param useragent
+     * @param uaInfo
+     */
+    protected void processDeviceRegex(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
+        CompiledRegex[] devicePatterns = db.devicePatterns;
+        if (devicePatterns != null && db.devices != null) {
+            BitSet candidates = getDevicePrefilter(db).candidates(useragent);
+            for (int index = candidates.nextSetBit(0); index >= 0; index = candidates.nextSetBit(index + 1)) {
+                if (!withinBudget(uaInfo)) {
+                    return;
+                }
+                RegexMatcher matcher = devicePatterns[index].matcher(useragent);
+                if (matcher.find()) {
+                    uaInfo.deviceIndex = index;
+                    uaInfo.setDeviceEntry(db.devices[db.deviceTargets[index]]);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Searches in the os regex table with the given matchers
+     *
+     * @param db
+     * @param osMatchers
+     * @param candidates
+     *            set to collect the prefilter candidates in, may be null
+     * @param useragent
+     * @param retObj
+     */
+    protected void processOsRegex(Database db, RegexMatcher[] osMatchers, BitSet candidates, CharSequence useragent,
+            UserAgentInfo retObj) {
+        candidates = getOsPrefilter(db).candidates(useragent, candidates);
+        for (int index = candidates.nextSetBit(0); index >= 0; index = candidates.nextSetBit(index + 1)) {
+            if (!withinBudget(retObj)) {
+                return;
+            }
+            RegexMatcher matcher = osMatchers[index];
+            matcher.setTarget(useragent);
+            if (matcher.find()) {
+                retObj.osIndex = index;
+                retObj.setOsEntry(db.oses[db.osTargets[index]]);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Searchs in the browser regex table with the given matchers
+     *
+     * @param db
+     * @param browserMatchers
+     * @param candidates
+     *            set to collect the prefilter candidates in, may be null
+     * @param useragent
+     * @param retObj
+     */
+    protected void processBrowserRegex(Database db, RegexMatcher[] browserMatchers, BitSet candidates,
+            CharSequence useragent, UserAgentInfo retObj) {
+        candidates = getBrowserPrefilter(db).candidates(useragent, candidates);
+        for (int index = candidates.nextSetBit(0); index >= 0; index = candidates.nextSetBit(index + 1)) {
+            if (!withinBudget(retObj)) {
+                return;
+            }
+            RegexMatcher matcher = browserMatchers[index];
+            matcher.setTarget(useragent);
+            if (matcher.find()) {
+                retObj.browserIndex = index;
+                applyBrowserMatch(db, db.browserTargets[index],
+                        captureBrowserMatch(db, index, matcher, useragent, retObj), retObj);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Searches in the devices regex table with the given matchers
+     *
+     * @param db
+     * @param deviceMatchers
+     *            null for older ini files
+     * @param candidates
+     *            set to collect the prefilter candidates in, may be null
      * @param useragent
      * @param uaInfo
      */
-    protected void processDeviceRegex(String useragent, UserAgentInfo uaInfo) {
-        if (compiledDeviceRegMap != null && deviceMap != null) {
-	    	for (Map.Entry<Pattern, Long> entry : compiledDeviceRegMap.entrySet()) {
-	            Matcher matcher = entry.getKey().matcher(useragent);
-	            if (matcher.find()) {
-	                uaInfo.setDeviceEntry(deviceMap.get(entry.getValue()));
-	                return;
-	            }
-	        }
+    protected void processDeviceRegex(Database db, RegexMatcher[] deviceMatchers, BitSet candidates,
+            CharSequence useragent, UserAgentInfo uaInfo) {
+        if (deviceMatchers == null || db.devices == null) {
+            return;
+        }
+        candidates = getDevicePrefilter(db).candidates(useragent, candidates);
+        for (int index = candidates.nextSetBit(0); index >= 0; index = candidates.nextSetBit(index + 1)) {
+            if (!withinBudget(uaInfo)) {
+                return;
+            }
+            RegexMatcher matcher = deviceMatchers[index];
+            matcher.setTarget(useragent);
+            if (matcher.find()) {
+                uaInfo.deviceIndex = index;
+                uaInfo.setDeviceEntry(db.devices[db.deviceTargets[index]]);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Keep only the given metadata columns of the entries when loading, to save memory and load
+     * time where e.g. only the families, names and types are read. The getters of
+     * {@link UserAgentInfo} for the other columns return {@link UserAgentInfo#UNKNOWN}. Takes
+     * effect with the next load, so set it on a parser created without a database, see
+     * {@link #load(File)}. All are kept by default.
+     *
+     * @param metadataFields
+     *            the columns to keep, null for all
+     */
+    public void setMetadataFields(Set<MetadataField> metadataFields) {
+        if (metadataFields == null) {
+            this.metadataFields = null;
+        } else {
+            Set<MetadataField> fields = EnumSet.noneOf(MetadataField.class);
+            fields.addAll(metadataFields);
+            this.metadataFields = fields;
         }
     }
 
     /**
-     * loads the data file and creates all internal data structures
+     * @return the metadata columns kept when loading, null for all
+     */
+    public Set<MetadataField> getMetadataFields() {
+        return metadataFields != null ? Collections.unmodifiableSet(metadataFields) : null;
+    }
+
+    /**
+     * Load a definition file, in the text or the binary form of {@link DatabaseFile}, replacing
+     * the current database. A parser created without one can be configured first, e.g. with
+     * {@link #setLazyCompilation(boolean)}, so its database is built only once.
+     *
+     * @param definitionFile
+     * @throws IOException
+     */
+    public void load(File definitionFile) throws IOException {
+        loadDataFromFile(definitionFile);
+    }
+
+    /**
+     * Load a definition file, in the text or the binary form of {@link DatabaseFile}, replacing
+     * the current database
+     *
+     * @param is
+     * @throws IOException
+     * @see #load(File)
+     */
+    public void load(InputStream is) throws IOException {
+        loadDataFromFile(is);
+    }
+
+    /**
+     * loads the data file and creates all internal data structures. A file in the binary form
+     * of {@link DatabaseFile} is mapped into memory.
      *
      * @param definitionFile
      * @throws IOException
      */
     protected void loadDataFromFile(File definitionFile) throws IOException {
-        PHPFileParser fp = new PHPFileParser(definitionFile);
-        createInternalDataStructure(fp.getSections());
+        if (DatabaseFile.isBinary(definitionFile)) {
+            loadBinaryData(DatabaseFile.map(definitionFile));
+            return;
+        }
+        Reader reader = new FileReader(definitionFile);
+        try {
+            loadTextData(reader);
+        } finally {
+            reader.close();
+        }
     }
 
     /**
-     * loads the data file and creates all internal data structs
+     * loads the data file and creates all internal data structs. The data may also be in the
+     * binary form of {@link DatabaseFile}.
      *
      * @param is
      * @throws IOException
      */
     protected void loadDataFromFile(InputStream is) throws IOException {
-        PHPFileParser fp = new PHPFileParser(is);
-        createInternalDataStructure(fp.getSections());
+        if (!is.markSupported()) {
+            is = new BufferedInputStream(is);
+        }
+        if (DatabaseFile.isBinary(is)) {
+            loadBinaryData(DatabaseFile.read(is));
+            return;
+        }
+        loadTextData(new InputStreamReader(is));
+    }
+
+    /**
+     * Creates the internal data structures from the text form of the data file. It is read in a
+     * single pass, each record going straight into the tables of a new database, unless a
+     * subclass overrides {@link #createInternalDataStructure(List)}, which then gets the sections.
+     *
+     * @param reader
+     * @throws IOException
+     */
+    protected void loadTextData(Reader reader) throws IOException {
+        if (overridesCreateInternalDataStructure()) {
+            createInternalDataStructure(new PHPFileParser(reader).getSections());
+            return;
+        }
+        Database db = newDatabase();
+        PHPFileParser.parse(reader, new DatabaseBuilder(db, this));
+        compileAndPublish(db, true);
+    }
+
+    /**
+     * Creates the internal data structures from the binary form of the data file
+     *
+     * @param buffer
+     * @throws IOException
+     */
+    protected void loadBinaryData(ByteBuffer buffer) throws IOException {
+        Database db = newDatabase();
+        DatabaseFile.read(buffer, db, this);
+        compileAndPublish(db, true);
     }
 
     /**
-     * Creates the internal data structures from the sectionList
+     * @return true if a subclass overrides {@link #createInternalDataStructure(List)}, to keep
+     *         calling it for text loads
+     */
+    private boolean overridesCreateInternalDataStructure() {
+        for (Class<?> c = getClass(); c != UASparser.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("createInternalDataStructure", List.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // not in this class
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the internal data structures from the sectionList. They are built into a new
+     * database, which replaces the current one once it is complete. Text loads only call this
+     * if a subclass overrides it, otherwise they stream the records into the tables.
      *
      * @param sectionList
      */
     protected void createInternalDataStructure(List<Section> sectionList) {
+        Database db = newDatabase();
+        DatabaseBuilder builder = new DatabaseBuilder(db, this);
         for (Section sec : sectionList) {
-            if ("robots".equals(sec.getName())) {
-                Map<String, RobotEntry> robotsMapTmp = new HashMap<String, RobotEntry>();
-                for (Entry en : sec.getEntries()) {
-                    RobotEntry re = new RobotEntry(en.getData());
-                    robotsMapTmp.put(re.getUserAgentString(), re);
-                }
-                robotsMap = robotsMapTmp;
-            } else if ("os".equals(sec.getName())) {
-                Map<Long, OsEntry> osMapTmp = new HashMap<Long, OsEntry>();
-                for (Entry en : sec.getEntries()) {
-                    OsEntry oe = new OsEntry(en.getData());
-                    osMapTmp.put(Long.parseLong(en.getKey()), oe);
-                }
-                osMap = osMapTmp;
-            } else if ("browser".equals(sec.getName())) {
-                Map<Long, BrowserEntry> browserMapTmp = new HashMap<Long, BrowserEntry>();
-                for (Entry en : sec.getEntries()) {
-                    BrowserEntry be = new BrowserEntry(en.getData());
-                    browserMapTmp.put(Long.parseLong(en.getKey()), be);
-                }
-                browserMap = browserMapTmp;
-            } else if ("browser_type".equals(sec.getName())) {
-                Map<Long, String> browserTypeMapTmp = new HashMap<Long, String>();
-                for (Entry en : sec.getEntries()) {
-                    browserTypeMapTmp.put(Long.parseLong(en.getKey()), en.getData().iterator().next());
-                }
-                browserTypeMap = browserTypeMapTmp;
-            } else if ("browser_reg".equals(sec.getName())) {
-                Map<String, Long> browserRegMapTmp = new LinkedHashMap<String, Long>();
-                for (Entry en : sec.getEntries()) {
-                    Iterator<String> it = en.getData().iterator();
-                    browserRegMapTmp.put(convertPerlToJavaRegex(it.next()), Long.parseLong(it.next()));
-                }
-                browserRegMap = browserRegMapTmp;
-            } else if ("browser_os".equals(sec.getName())) {
-                Map<Long, Long> browserOsMapTmp = new HashMap<Long, Long>();
-                for (Entry en : sec.getEntries()) {
-                    browserOsMapTmp.put(Long.parseLong(en.getKey()), Long.parseLong(en.getData().iterator().next()));
-                }
-                browserOsMap = browserOsMapTmp;
-            } else if ("os_reg".equals(sec.getName())) {
-                Map<String, Long> osRegMapTmp = new LinkedHashMap<String, Long>();
-                for (Entry en : sec.getEntries()) {
-                    Iterator<String> it = en.getData().iterator();
-                    osRegMapTmp.put(convertPerlToJavaRegex(it.next()), Long.parseLong(it.next()));
-                }
-                osRegMap = osRegMapTmp;
-            } else if ("device".equals(sec.getName())) {
-            	Map<Long, DeviceEntry> deviceMapTmp = new HashMap<Long, DeviceEntry>();
-                for (Entry en : sec.getEntries()) {
-                	DeviceEntry de = new DeviceEntry(en.getData());
-                	deviceMapTmp.put(Long.parseLong(en.getKey()), de);
-                }
-                deviceMap = deviceMapTmp;
-            } else if ("device_reg".equals(sec.getName())) {
-                Map<String, Long> deviceRegMapTmp = new LinkedHashMap<String, Long>();
-                for (Entry en : sec.getEntries()) {
-                    Iterator<String> it = en.getData().iterator();
-                    deviceRegMapTmp.put(convertPerlToJavaRegex(it.next()), Long.parseLong(it.next()));
-                }
-                deviceRegMap = deviceRegMapTmp;
+            builder.section(sec.getName());
+            for (Entry en : sec.getEntries()) {
+                builder.entry(en.getKey(), en.getData());
             }
         }
-        preCompileRegExes();
+        compileAndPublish(db, true);
     }
 
     /**
@@ -408,4 +1849,30 @@ public class UASparser {
         return regex;
     }
 
+    /**
+     * Turns all capturing groups of a regex into non-capturing ones, so a match does not have to
+     * keep track of group bounds. Escapes and bracket classes are left alone.
+     *
+     * @param regex
+     * @return
+     */
+    protected static String removeCaptureGroups(String regex) {
+        StringBuilder sb = new StringBuilder(regex.length() + 8);
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            sb.append(c);
+            if (c == '\\' && i + 1 < regex.length()) {
+                sb.append(regex.charAt(++i));
+            } else if (inClass) {
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(' && (i + 1 == regex.length() || regex.charAt(i + 1) != '?')) {
+                sb.append("?:");
+            }
+        }
+        return sb.toString();
+    }
+
 }
@@ -0,0 +1,43 @@
+package cz.mallat.uasparser;
+
+/**
+ * The parts of a {@link UserAgentInfo} which a parse can be limited to, see
+ * {@link UASparser#parse(String, java.util.Set)}.
+ *
+ * @author chetan
+ *
+ */
+public enum UaField {
+
+    /**
+     * Whether it is a robot, and the robot data. Always found, robots are a single hash lookup.
+     */
+    ROBOT,
+
+    /**
+     * The user agent type, e.g. "Browser" or "Mobile Browser". Needs the browser table.
+     */
+    TYPE,
+
+    /**
+     * The browser data, without the version
+     */
+    BROWSER,
+
+    /**
+     * The browser version
+     */
+    BROWSER_VERSION,
+
+    /**
+     * The operating system data. Needs the browser table too, as some browsers imply their OS.
+     */
+    OS,
+
+    /**
+     * The device data. The browser table is only scanned when no device pattern matches and the
+     * device type has to be guessed from the user agent type.
+     */
+    DEVICE
+
+}
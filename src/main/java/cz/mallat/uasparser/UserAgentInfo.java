@@ -1,5 +1,7 @@
 package cz.mallat.uasparser;
 
+import java.util.Set;
+
 /**
  * Encapsulates all information pertaining to a User Agent. Returned by calling
  * {@link UASparser#parse(String)}.
@@ -24,10 +26,53 @@ public class UserAgentInfo {
 	private OsEntry osEntry;
 	private DeviceEntry deviceEntry;
 
+	private boolean truncated;
+
+	// user agent passed to UASparser#parse(CharSequence, UserAgentInfo) and the offset of the
+	// text the parser saw in it, the version is then kept as a range of it
+	private CharSequence input;
+	private int inputOffset;
+	private int browserVersionStart = -1;
+	private int browserVersionEnd = -1;
+	// reused to read user agents given as bytes
+	private Utf8Text utf8Text;
+
+	// budget of the parse in progress, if any
+	MatchBudget budget;
+	// fields wanted by the parse in progress, null for all
+	Set<UaField> fields;
+
+	// table positions of the patterns which matched, -1 for none, for the skeleton cache
+	int browserIndex = -1;
+	int osIndex = -1;
+	int deviceIndex = -1;
+
 	public UserAgentInfo() {
         this.type = UNKNOWN;
 	}
 
+	/**
+	 * Clear all information, to fill this in again
+	 */
+	void reset() {
+		type = UNKNOWN;
+		browserVersionInfo = null;
+		robotEntry = null;
+		browserEntry = null;
+		osEntry = null;
+		deviceEntry = null;
+		truncated = false;
+		input = null;
+		inputOffset = 0;
+		browserVersionStart = -1;
+		browserVersionEnd = -1;
+		budget = null;
+		fields = null;
+		browserIndex = -1;
+		osIndex = -1;
+		deviceIndex = -1;
+	}
+
 	/**
 	 * Returns true if this represents a Robot
 	 * @return
@@ -44,6 +89,17 @@ public class UserAgentInfo {
 		return deviceEntry != null;
 	}
 
+	/**
+	 * Returns true if the parser ran out of its matching budget before all regexes were tried.
+	 * The information returned is then incomplete, e.g. only the browser may have been found.
+	 *
+	 * @return
+	 * @see UASparser#setMatchBudget(int, long)
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
 	/**
 	 * Retrieve the type of UA. Can be one of the following:
 	 *
@@ -105,8 +161,9 @@ public class UserAgentInfo {
      */
     public String getUaName() {
         if (browserEntry != null) {
-            if (browserVersionInfo != null && !browserVersionInfo.isEmpty()) {
-                return getUaFamily() + " " + browserVersionInfo;
+            String version = getBrowserVersionInfo();
+            if (version != null && !version.isEmpty()) {
+                return getUaFamily() + " " + version;
             }
             return getUaFamily();
         }
@@ -127,10 +184,10 @@ public class UserAgentInfo {
      */
 	public String getUaUrl() {
         if (browserEntry != null) {
-            return browserEntry.getUrl();
+            return orUnknown(browserEntry.getUrl());
         }
         if (robotEntry != null) {
-            return robotEntry.getUrl();
+            return orUnknown(robotEntry.getUrl());
         }
         return UNKNOWN;
 	}
@@ -147,10 +204,10 @@ public class UserAgentInfo {
      */
 	public String getUaInfoUrl() {
 	    if (browserEntry != null) {
-	        return UASparser.INFO_URL + browserEntry.getInfoUrl();
+	        return infoUrl(browserEntry.getInfoUrl());
 	    }
 	    if (robotEntry != null) {
-	        return UASparser.INFO_URL + robotEntry.getInfoUrl();
+	        return infoUrl(robotEntry.getInfoUrl());
 	    }
 	    return UNKNOWN;
 	}
@@ -166,10 +223,10 @@ public class UserAgentInfo {
      */
 	public String getUaCompany() {
         if (browserEntry != null) {
-            return browserEntry.getCompany();
+            return orUnknown(browserEntry.getCompany());
         }
         if (robotEntry != null) {
-            return robotEntry.getCompany();
+            return orUnknown(robotEntry.getCompany());
         }
         return UNKNOWN;
 	}
@@ -185,10 +242,10 @@ public class UserAgentInfo {
      */
 	public String getUaCompanyUrl() {
         if (browserEntry != null) {
-            return browserEntry.getCompanyUrl();
+            return orUnknown(browserEntry.getCompanyUrl());
         }
         if (robotEntry != null) {
-            return robotEntry.getCompanyUrl();
+            return orUnknown(robotEntry.getCompanyUrl());
         }
         return UNKNOWN;
 	}
@@ -205,10 +262,10 @@ public class UserAgentInfo {
      */
 	public String getUaIcon() {
         if (browserEntry != null) {
-            return browserEntry.getIco();
+            return orUnknown(browserEntry.getIco());
         }
         if (robotEntry != null) {
-            return robotEntry.getIco();
+            return orUnknown(robotEntry.getIco());
         }
         return UNKNOWN;
 	}
@@ -241,7 +298,7 @@ public class UserAgentInfo {
 	 */
 	public String getOsUrl() {
         if (osEntry != null) {
-            return osEntry.getUrl();
+            return orUnknown(osEntry.getUrl());
         }
         return UNKNOWN;
 	}
@@ -252,7 +309,7 @@ public class UserAgentInfo {
 	 */
 	public String getOsCompany() {
         if (osEntry != null) {
-            return osEntry.getCompany();
+            return orUnknown(osEntry.getCompany());
         }
         return UNKNOWN;
 	}
@@ -263,7 +320,7 @@ public class UserAgentInfo {
 	 */
 	public String getOsCompanyUrl() {
         if (osEntry != null) {
-            return osEntry.getCompanyUrl();
+            return orUnknown(osEntry.getCompanyUrl());
         }
         return UNKNOWN;
 	}
@@ -275,7 +332,7 @@ public class UserAgentInfo {
 	 */
 	public String getOsIcon() {
         if (osEntry != null) {
-            return osEntry.getIco();
+            return orUnknown(osEntry.getIco());
         }
         return UNKNOWN;
 	}
@@ -290,9 +347,30 @@ public class UserAgentInfo {
 	 * @return {@link String} version number
 	 */
     public String getBrowserVersionInfo() {
+        if (browserVersionInfo == null && browserVersionStart >= 0) {
+            browserVersionInfo = input.subSequence(browserVersionStart, browserVersionEnd).toString();
+        }
         return browserVersionInfo;
     }
 
+    /**
+     * Retrieve where the UA version number starts in the user agent passed to
+     * {@link UASparser#parse(CharSequence, UserAgentInfo)}, to read it without creating a String.
+     * The user agent must not have changed since.
+     *
+     * @return offset of the version, or -1 if there is none or it is only available as a String
+     */
+    public int getBrowserVersionStart() {
+        return browserVersionStart;
+    }
+
+    /**
+     * @return offset after the UA version number, see {@link #getBrowserVersionStart()}
+     */
+    public int getBrowserVersionEnd() {
+        return browserVersionEnd;
+    }
+
     /**
 	 * Retrieve the type of the device, if available. Can be one of the following:
 	 *
@@ -322,7 +400,7 @@ public class UserAgentInfo {
      * @see <a href="http://user-agent-string.info/download">http://user-agent-string.info/download</a>
      */
 	public String getDeviceIcon() {
-    	return deviceEntry != null ? deviceEntry.getIco() : UNKNOWN;
+    	return deviceEntry != null ? orUnknown(deviceEntry.getIco()) : UNKNOWN;
     }
 
 	/**
@@ -335,9 +413,83 @@ public class UserAgentInfo {
      * @return {@link String} URL path
      */
 	public String getDeviceInfoUrl() {
-    	return deviceEntry != null ? UASparser.INFO_URL + deviceEntry.getInfoUrl() : UNKNOWN;
+    	return deviceEntry != null ? infoUrl(deviceEntry.getInfoUrl()) : UNKNOWN;
+    }
+
+	/**
+	 * @return the value, or {@link #UNKNOWN} if its column was not loaded, see
+	 *         {@link UASparser#setMetadataFields(Set)}
+	 */
+	private static String orUnknown(String value) {
+		return value != null ? value : UNKNOWN;
+	}
+
+	/**
+	 * @return the URL of the path on user-agent-string.info, or {@link #UNKNOWN} if its column
+	 *         was not loaded
+	 */
+	private static String infoUrl(String path) {
+		return path != null ? UASparser.INFO_URL + path : UNKNOWN;
+	}
+
+	// the version range of parse(CharSequence, UserAgentInfo)
+
+	void setInput(CharSequence input, int offset) {
+		this.input = input;
+		this.inputOffset = offset;
+	}
+
+	CharSequence getInput() {
+		return input;
+	}
+
+	/**
+	 * @param field
+	 * @return true if the parse in progress has to find the given field
+	 */
+	boolean wants(UaField field) {
+		return fields == null || fields.contains(field);
+	}
+
+	/**
+	 * @return the view of this result to read a user agent in bytes, created on first use
+	 */
+	Utf8Text getUtf8Text() {
+		if (utf8Text == null) {
+			utf8Text = new Utf8Text();
+		}
+		return utf8Text;
+	}
+
+	/**
+	 * @param start
+	 *            offset in the text the parser saw, -1 for no version
+	 * @param end
+	 */
+	void setBrowserVersionRange(int start, int end) {
+		browserVersionInfo = null;
+		if (start >= 0) {
+			browserVersionStart = inputOffset + start;
+			browserVersionEnd = inputOffset + end;
+		} else {
+			browserVersionStart = -1;
+			browserVersionEnd = -1;
+		}
+	}
+
+	// entries, for the result caches
+
+    BrowserEntry getBrowserEntry() {
+        return browserEntry;
     }
 
+    OsEntry getOsEntry() {
+        return osEntry;
+    }
+
+    DeviceEntry getDeviceEntry() {
+        return deviceEntry;
+    }
 
 	// setters
 
@@ -347,6 +499,8 @@ public class UserAgentInfo {
 
     public void setBrowserVersionInfo(String browserVersionInfo) {
         this.browserVersionInfo = browserVersionInfo;
+        this.browserVersionStart = -1;
+        this.browserVersionEnd = -1;
     }
 
     public void setOsEntry(OsEntry osEntry) {
@@ -361,6 +515,10 @@ public class UserAgentInfo {
     	this.deviceEntry = deviceEntry;
     }
 
+    public void setTruncated(boolean truncated) {
+        this.truncated = truncated;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
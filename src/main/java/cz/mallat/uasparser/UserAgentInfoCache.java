@@ -0,0 +1,28 @@
+package cz.mallat.uasparser;
+
+/**
+ * Bounded cache of parse results, keyed by the user agent string.
+ *
+ * Uses W-TinyLFU: new entries go into a small LRU window, and an entry leaving the window only
+ * replaces an entry of the main area if its user agent was seen more often. Frequencies are
+ * tracked in a compact count-min sketch which is halved periodically, so one-off user agents
+ * (e.g. from scanners) can not flush out the hot ones.
+ *
+ * The cache is split into segments which are locked separately, so it can be shared by all
+ * threads. Cached results are shared as well and must not be modified.
+ *
+ * @see UASparser#setCache(UserAgentInfoCache)
+ * @author chetan
+ *
+ */
+public class UserAgentInfoCache extends BoundedCache<UserAgentInfo> {
+
+    /**
+     * @param maximumSize
+     *            maximum number of cached user agents
+     */
+    public UserAgentInfoCache(int maximumSize) {
+        super(maximumSize);
+    }
+
+}
@@ -0,0 +1,116 @@
+package cz.mallat.uasparser;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Translates parse results to and from the database ids of their entries, so they can be stored
+ * compactly. Built for one database and one epoch of the {@link OffHeapUserAgentInfoCache}; a new
+ * one is needed when the database is replaced.
+ *
+ * @author chetan
+ *
+ */
+final class UserAgentInfoCodec {
+
+    static final int NONE = -1;
+    static final int UNKNOWN_ENTRY = -2;
+
+    private final Map<Long, BrowserEntry> browserMap;
+    private final Map<Long, String> browserTypeMap;
+    private final Map<Long, OsEntry> osMap;
+    private final Map<Long, DeviceEntry> deviceMap;
+    private final Map<Object, Integer> ids = new IdentityHashMap<Object, Integer>();
+    private final int epoch;
+
+    UserAgentInfoCodec(Map<Long, BrowserEntry> browserMap, Map<Long, String> browserTypeMap,
+            Map<Long, OsEntry> osMap, Map<Long, DeviceEntry> deviceMap, int epoch) {
+        this.epoch = epoch;
+        this.browserMap = browserMap;
+        this.browserTypeMap = browserTypeMap;
+        this.osMap = osMap;
+        this.deviceMap = deviceMap;
+        addIds(browserMap);
+        addIds(osMap);
+        if (deviceMap != null) {
+            addIds(deviceMap);
+        }
+    }
+
+    /**
+     * @return the cache epoch of the records this codec reads and writes
+     */
+    int getEpoch() {
+        return epoch;
+    }
+
+    private void addIds(Map<Long, ?> map) {
+        for (Map.Entry<Long, ?> entry : map.entrySet()) {
+            long id = entry.getKey();
+            if (id >= 0 && id <= Integer.MAX_VALUE) {
+                ids.put(entry.getValue(), (int) id);
+            }
+        }
+    }
+
+    /**
+     * @param entry
+     *            a browser, os or device entry, or null
+     * @return the id of the entry, {@link #NONE} for null or {@link #UNKNOWN_ENTRY} if the entry
+     *         is not part of this database
+     */
+    int idOf(Object entry) {
+        if (entry == null) {
+            return NONE;
+        }
+        Integer id = ids.get(entry);
+        return id != null ? id : UNKNOWN_ENTRY;
+    }
+
+    /**
+     * Check whether a result consists only of its entries and version, i.e. whether
+     * {@link #decode(int, int, int, String)} gives back an equal result. Robots and truncated
+     * results are not.
+     *
+     * @param uaInfo
+     * @return
+     */
+    boolean canEncode(UserAgentInfo uaInfo) {
+        if (uaInfo.isRobot() || uaInfo.isTruncated()
+                || idOf(uaInfo.getBrowserEntry()) == UNKNOWN_ENTRY
+                || idOf(uaInfo.getOsEntry()) == UNKNOWN_ENTRY
+                || idOf(uaInfo.getDeviceEntry()) == UNKNOWN_ENTRY) {
+            return false;
+        }
+        return uaInfo.getType().equals(typeOf(uaInfo.getBrowserEntry()));
+    }
+
+    /**
+     * Rebuild a result from the ids of its entries
+     */
+    UserAgentInfo decode(int browserId, int osId, int deviceId, String browserVersionInfo) {
+        UserAgentInfo uaInfo = new UserAgentInfo();
+        if (browserId != NONE) {
+            BrowserEntry be = browserMap.get((long) browserId);
+            uaInfo.setType(typeOf(be));
+            uaInfo.setBrowserEntry(be);
+        }
+        uaInfo.setBrowserVersionInfo(browserVersionInfo);
+        if (osId != NONE) {
+            uaInfo.setOsEntry(osMap.get((long) osId));
+        }
+        if (deviceId != NONE) {
+            uaInfo.setDeviceEntry(deviceMap.get((long) deviceId));
+        }
+        return uaInfo;
+    }
+
+    private String typeOf(BrowserEntry be) {
+        if (be == null) {
+            return UserAgentInfo.UNKNOWN;
+        }
+        String type = browserTypeMap.get(be.getType());
+        return type != null ? type : UserAgentInfo.UNKNOWN;
+    }
+
+}
@@ -0,0 +1,157 @@
+package cz.mallat.uasparser;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cleans up a user agent string before it is parsed. Control characters can be stripped, runs of
+ * whitespace collapsed into a single space and the result cut to a maximum length, so that the
+ * cost of parsing junk headers is bounded.
+ *
+ * Counts how often each rule changed a user agent. Thread-safe.
+ *
+ * @see UASparser#setNormalizer(UserAgentNormalizer)
+ * @author chetan
+ *
+ */
+public class UserAgentNormalizer {
+
+    private final int maxLength;
+    private final boolean stripControlChars;
+    private final boolean collapseWhitespace;
+
+    private final AtomicLong truncatedCount = new AtomicLong();
+    private final AtomicLong controlCharsStrippedCount = new AtomicLong();
+    private final AtomicLong whitespaceCollapsedCount = new AtomicLong();
+
+    /**
+     * @param maxLength
+     *            user agents are cut to this many chars, 0 for no limit
+     * @param stripControlChars
+     *            remove ISO control chars (other than whitespace when it is collapsed)
+     * @param collapseWhitespace
+     *            replace each run of whitespace with a single space
+     */
+    public UserAgentNormalizer(int maxLength, boolean stripControlChars, boolean collapseWhitespace) {
+        this.maxLength = maxLength;
+        this.stripControlChars = stripControlChars;
+        this.collapseWhitespace = collapseWhitespace;
+    }
+
+    /**
+     * Normalize the given user agent. Leading and trailing whitespace is removed as well.
+     *
+     * @param useragent
+     * @return the normalized user agent, the same instance if no rule applied
+     */
+    public String normalize(String useragent) {
+        int length = useragent.length();
+        if (!needsWork(useragent)) {
+            return useragent;
+        }
+
+        int limit = maxLength > 0 ? maxLength : length;
+        StringBuilder sb = new StringBuilder(Math.min(length, limit));
+        boolean stripped = false;
+        boolean collapsed = false;
+        boolean truncated = false;
+        boolean inWhitespace = false;
+        for (int i = 0; i < length; i++) {
+            char c = useragent.charAt(i);
+            if (collapseWhitespace && Character.isWhitespace(c)) {
+                if (inWhitespace || c != ' ') {
+                    collapsed = true;
+                }
+                if (!inWhitespace) {
+                    inWhitespace = true;
+                    if (sb.length() == limit) {
+                        truncated = true;
+                        break;
+                    }
+                    sb.append(' ');
+                }
+                continue;
+            }
+            if (stripControlChars && Character.isISOControl(c)) {
+                stripped = true;
+                continue;
+            }
+            inWhitespace = false;
+            if (sb.length() == limit) {
+                truncated = true;
+                break;
+            }
+            sb.append(c);
+        }
+
+        if (stripped) {
+            controlCharsStrippedCount.incrementAndGet();
+        }
+        if (collapsed) {
+            whitespaceCollapsedCount.incrementAndGet();
+        }
+        if (truncated) {
+            truncatedCount.incrementAndGet();
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * Quick check whether any rule could apply, so clean user agents are not copied
+     */
+    private boolean needsWork(String useragent) {
+        int length = useragent.length();
+        if (maxLength > 0 && length > maxLength) {
+            return true;
+        }
+        // surrounding whitespace is trimmed, as by String#trim()
+        if (length > 0 && (useragent.charAt(0) <= ' ' || useragent.charAt(length - 1) <= ' ')) {
+            return true;
+        }
+        char previous = 'x';
+        for (int i = 0; i < length; i++) {
+            char c = useragent.charAt(i);
+            if (collapseWhitespace && Character.isWhitespace(c) && (c != ' ' || previous == ' ')) {
+                return true;
+            }
+            if (stripControlChars && Character.isISOControl(c)) {
+                return true;
+            }
+            previous = c;
+        }
+        return false;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public boolean isStripControlChars() {
+        return stripControlChars;
+    }
+
+    public boolean isCollapseWhitespace() {
+        return collapseWhitespace;
+    }
+
+    /**
+     * @return number of user agents which were cut to the maximum length
+     */
+    public long getTruncatedCount() {
+        return truncatedCount.get();
+    }
+
+    /**
+     * @return number of user agents from which control chars were removed
+     */
+    public long getControlCharsStrippedCount() {
+        return controlCharsStrippedCount.get();
+    }
+
+    /**
+     * @return number of user agents in which whitespace was collapsed
+     */
+    public long getWhitespaceCollapsedCount() {
+        return whitespaceCollapsedCount.get();
+    }
+
+}
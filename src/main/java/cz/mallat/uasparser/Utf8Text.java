@@ -0,0 +1,133 @@
+package cz.mallat.uasparser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A user agent in UTF-8 bytes, read as chars without copying. User agents are nearly always
+ * ASCII, where each byte is a char; only other input is decoded, into a buffer which is reused.
+ * Apart from that, Strings are only created by {@link #subSequence(int, int)} and
+ * {@link #toString()}.
+ *
+ * Not thread-safe, reused for each user agent.
+ *
+ * @see UASparser#parseUtf8(byte[], int, int, UserAgentInfo)
+ * @author chetan
+ *
+ */
+final class Utf8Text implements CharSequence {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private byte[] bytes;
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    // the chars, if the bytes are not all ASCII
+    private char[] chars;
+    private boolean decoded;
+
+    /**
+     * Read the given bytes, which must not change while this is in use
+     */
+    Utf8Text wrap(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", size " + bytes.length);
+        }
+        this.bytes = bytes;
+        this.buffer = null;
+        this.offset = offset;
+        this.length = length;
+        decoded = false;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            if (bytes[i] < 0) {
+                decode();
+                break;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Read the bytes between position and limit of a buffer, which must not change while this is
+     * in use. The position is not moved.
+     */
+    Utf8Text wrap(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return wrap(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        this.bytes = null;
+        this.buffer = buffer;
+        this.offset = buffer.position();
+        this.length = buffer.remaining();
+        decoded = false;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            if (buffer.get(i) < 0) {
+                decode();
+                break;
+            }
+        }
+        return this;
+    }
+
+    private byte byteAt(int index) {
+        return bytes != null ? bytes[offset + index] : buffer.get(offset + index);
+    }
+
+    /**
+     * Decode the bytes into the char buffer, malformed input as U+FFFD
+     */
+    private void decode() {
+        String text;
+        if (bytes != null) {
+            text = new String(bytes, offset, length, UTF8);
+        } else {
+            byte[] copy = new byte[length];
+            for (int i = 0; i < length; i++) {
+                copy[i] = buffer.get(offset + i);
+            }
+            text = new String(copy, UTF8);
+        }
+        length = text.length();
+        if (chars == null || chars.length < length) {
+            chars = new char[Math.max(length, 64)];
+        }
+        text.getChars(0, length, chars, 0);
+        decoded = true;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        if (decoded) {
+            return chars[index];
+        }
+        return (char) byteAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (decoded) {
+            return new String(chars, start, end - start);
+        }
+        char[] text = new char[end - start];
+        for (int i = start; i < end; i++) {
+            text[i - start] = (char) byteAt(i);
+        }
+        return new String(text);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+
+}
@@ -0,0 +1,31 @@
+package cz.mallat.uasparser.fileparser;
+
+import java.util.List;
+
+/**
+ * Receives the contents of a parsed file one record at a time, as
+ * {@link PHPFileParser#parse(java.io.Reader, PHPFileHandler)} reads it, instead of collecting
+ * them into {@link Section}s first.
+ *
+ * @author chetan
+ */
+public interface PHPFileHandler {
+
+	/**
+	 * A new section starts, the entries which follow belong to it
+	 *
+	 * @param name
+	 */
+	void section(String name);
+
+	/**
+	 * An entry of the current section, from all consecutive lines with the same key
+	 *
+	 * @param key
+	 * @param data
+	 *            the values of the lines in order. The list is reused for the next entry, so it
+	 *            must be copied to be kept.
+	 */
+	void entry(String key, List<String> data);
+
+}
@@ -15,6 +15,9 @@ import java.util.List;
  *
  * Does NOT support all features of the php function.
  *
+ * Files can also be read in a single pass with {@link #parse(Reader, PHPFileHandler)}, which
+ * hands each entry to a callback instead of keeping all of them.
+ *
  * @author oli
  */
 public class PHPFileParser {
@@ -44,50 +47,120 @@ public class PHPFileParser {
 	private void loadFile(Reader reader) throws IOException {
 		this.sections = new ArrayList<Section>();
 
-		BufferedReader bufferedReader = new BufferedReader(reader);
+		parse(reader, new PHPFileHandler() {
 
-		int unnamedSectionCounter = 0;
+			private Section currentSection;
 
-		Section currentSection = null;
-		Entry currentEntry = null;
-
-		String line = bufferedReader.readLine();
-		while (line != null) {
-			if (line.trim().startsWith(";")) {
-				// comment, do nothing
-			} else if (line.trim().startsWith("[") && line.trim().endsWith("]")) {
-				String rawLine = line.trim();
-				String sectionName = rawLine.substring(1, rawLine.length() - 1);
-				currentSection = new Section(sectionName);
+			@Override
+			public void section(String name) {
+				currentSection = new Section(name);
 				sections.add(currentSection);
-			} else {
-				if (currentSection == null) {
-					currentSection = new Section("unname section" + (++unnamedSectionCounter));
-					sections.add(currentSection);
-				}
+			}
+
+			@Override
+			public void entry(String key, List<String> data) {
+				Entry entry = new Entry(key);
+				entry.getData().addAll(data);
+				currentSection.getEntries().add(entry);
+			}
+		});
+	}
+
+	/**
+	 * Reads a file in a single pass and hands each section and entry to the handler as soon as
+	 * it is complete. Each line is scanned once; blank lines are skipped.
+	 *
+	 * @param reader
+	 * @param handler
+	 * @throws IOException
+	 *             also if a line is neither a comment, a section nor a key=value pair
+	 */
+	public static void parse(Reader reader, PHPFileHandler handler) throws IOException {
+		BufferedReader bufferedReader = reader instanceof BufferedReader ? (BufferedReader) reader
+				: new BufferedReader(reader);
 
-				int indexOfEquals = line.indexOf('=');
-				String key = line.substring(0, indexOfEquals);
-				String data = line.substring(indexOfEquals + 1);
-				key = key.replace('[', ' ');
-				key = key.replace(']', ' ');
-				key = key.trim();
-				data = data.trim();
-				if (data.startsWith("\"") && data.endsWith("\"")) {
-					data = data.substring(1, data.length() - 1);
+		int unnamedSectionCounter = 0;
+		boolean inSection = false;
+
+		String key = null;
+		List<String> data = new ArrayList<String>();
+
+		int lineNumber = 0;
+		String line;
+		while ((line = bufferedReader.readLine()) != null) {
+			lineNumber++;
+			int start = 0;
+			int end = line.length();
+			while (start < end && line.charAt(start) <= ' ') {
+				start++;
+			}
+			while (end > start && line.charAt(end - 1) <= ' ') {
+				end--;
+			}
+			if (start == end || line.charAt(start) == ';') {
+				// blank or comment, do nothing
+				continue;
+			}
+
+			if (line.charAt(start) == '[' && line.charAt(end - 1) == ']') {
+				if (key != null) {
+					handler.entry(key, data);
+					data.clear();
+					key = null;
 				}
+				handler.section(line.substring(start + 1, end - 1));
+				inSection = true;
+				continue;
+			}
+
+			int indexOfEquals = line.indexOf('=', start);
+			if (indexOfEquals < 0) {
+				throw new IOException("line " + lineNumber + ": expected key=value");
+			}
+			if (!inSection) {
+				handler.section("unname section" + (++unnamedSectionCounter));
+				inSection = true;
+			}
 
-				if (currentEntry == null || !currentEntry.getKey().equals(key)) {
-					currentEntry = new Entry(key);
-					currentSection.getEntries().add(currentEntry);
+			// the key without surrounding whitespace and brackets, e.g. 12 for "12[] = ..."
+			int keyStart = start;
+			int keyEnd = indexOfEquals;
+			while (keyStart < keyEnd && isKeyPadding(line.charAt(keyStart))) {
+				keyStart++;
+			}
+			while (keyEnd > keyStart && isKeyPadding(line.charAt(keyEnd - 1))) {
+				keyEnd--;
+			}
+			if (key == null || key.length() != keyEnd - keyStart || !line.startsWith(key, keyStart)) {
+				String newKey = line.substring(keyStart, keyEnd).replace('[', ' ').replace(']', ' ');
+				if (!newKey.equals(key)) {
+					if (key != null) {
+						handler.entry(key, data);
+						data.clear();
+					}
+					key = newKey;
 				}
+			}
 
-				currentEntry.getData().add(data);
+			int dataStart = indexOfEquals + 1;
+			while (dataStart < end && line.charAt(dataStart) <= ' ') {
+				dataStart++;
+			}
+			int dataEnd = end;
+			if (dataEnd - dataStart >= 2 && line.charAt(dataStart) == '"' && line.charAt(dataEnd - 1) == '"') {
+				dataStart++;
+				dataEnd--;
 			}
+			data.add(line.substring(dataStart, dataEnd));
+		}
 
-			line = bufferedReader.readLine();
+		if (key != null) {
+			handler.entry(key, data);
 		}
+	}
 
+	private static boolean isKeyPadding(char c) {
+		return c <= ' ' || c == '[' || c == ']';
 	}
 
 	public List<Section> getSections() {
@@ -0,0 +1,115 @@
+package cz.mallat.uasparser.regex;
+
+import java.util.BitSet;
+
+/**
+ * A set of characters matched by a single regex atom: a literal, a bracket class or the dot.
+ *
+ * <p>Case-insensitivity follows jregex: a class ignoring case also contains the upper and lower
+ * case variants of each of its members, and negation is applied afterwards.</p>
+ *
+ * @author chetan
+ *
+ */
+final class CharClass {
+
+    /**
+     * '.' in DOTALL mode
+     */
+    static final CharClass ANY = new CharClass(new char[] { 0, Character.MAX_VALUE }, false);
+
+    // sorted, non-overlapping, inclusive ranges: lo0, hi0, lo1, hi1, ...
+    private final char[] ranges;
+    private final boolean negated;
+    private final long asciiLow;
+    private final long asciiHigh;
+
+    private CharClass(char[] ranges, boolean negated) {
+        this.ranges = ranges;
+        this.negated = negated;
+        long low = 0;
+        long high = 0;
+        for (char c = 0; c < 128; c++) {
+            if (contains(c)) {
+                if (c < 64) {
+                    low |= 1L << c;
+                } else {
+                    high |= 1L << (c - 64);
+                }
+            }
+        }
+        this.asciiLow = low;
+        this.asciiHigh = high;
+    }
+
+    /**
+     * Build a class from the given (unsorted, possibly overlapping) ranges
+     *
+     * @param members     inclusive ranges: lo0, hi0, lo1, hi1, ...
+     * @param count       number of chars used in members
+     * @param negated
+     * @param ignoreCase
+     * @return
+     */
+    static CharClass of(char[] members, int count, boolean negated, boolean ignoreCase) {
+        BitSet set = new BitSet();
+        for (int i = 0; i < count; i += 2) {
+            set.set(members[i], members[i + 1] + 1);
+        }
+        if (ignoreCase) {
+            BitSet variants = new BitSet();
+            for (int c = set.nextSetBit(0); c >= 0; c = set.nextSetBit(c + 1)) {
+                variants.set(Character.toLowerCase((char) c));
+                variants.set(Character.toUpperCase((char) c));
+            }
+            set.or(variants);
+        }
+
+        int rangeCount = 0;
+        for (int c = set.nextSetBit(0); c >= 0; c = set.nextSetBit(set.nextClearBit(c))) {
+            rangeCount++;
+        }
+        char[] ranges = new char[rangeCount * 2];
+        int i = 0;
+        for (int c = set.nextSetBit(0); c >= 0; c = set.nextSetBit(c)) {
+            int end = set.nextClearBit(c);
+            ranges[i++] = (char) c;
+            ranges[i++] = (char) (end - 1);
+            c = end;
+        }
+        return new CharClass(ranges, negated);
+    }
+
+    static CharClass of(char c, boolean ignoreCase) {
+        return of(new char[] { c, c }, 2, false, ignoreCase);
+    }
+
+    boolean matches(char c) {
+        if (c < 64) {
+            return (asciiLow & (1L << c)) != 0;
+        }
+        if (c < 128) {
+            return (asciiHigh & (1L << (c - 64))) != 0;
+        }
+        return contains(c);
+    }
+
+    private boolean contains(char c) {
+        int lo = 0;
+        int hi = ranges.length / 2 - 1;
+        boolean found = false;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (c < ranges[mid * 2]) {
+                hi = mid - 1;
+            } else if (c > ranges[mid * 2 + 1]) {
+                lo = mid + 1;
+            } else {
+                found = true;
+                break;
+            }
+        }
+        return found != negated;
+    }
+
+}
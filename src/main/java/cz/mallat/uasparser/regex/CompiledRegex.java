@@ -0,0 +1,28 @@
+package cz.mallat.uasparser.regex;
+
+/**
+ * A regex compiled by a {@link RegexEngine}. Instances are thread-safe, the matchers they create
+ * are not.
+ *
+ * @author chetan
+ *
+ */
+public interface CompiledRegex {
+
+    /**
+     * @return a new matcher without a target
+     */
+    RegexMatcher matcher();
+
+    /**
+     * @param input
+     * @return a new matcher for the given input
+     */
+    RegexMatcher matcher(CharSequence input);
+
+    /**
+     * @return the source of this regex
+     */
+    String pattern();
+
+}
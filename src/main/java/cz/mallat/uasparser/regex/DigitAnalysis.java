@@ -0,0 +1,70 @@
+package cz.mallat.uasparser.regex;
+
+/**
+ * Checks whether a regex can tell ASCII digits apart.
+ *
+ * <p>If every atom of a regex matches either all of '0'..'9' or none of them, the regex behaves
+ * the same on any two inputs which only differ in the values of their digits: it matches at the
+ * same position, with the same groups. Patterns like "Firefox/([0-9.]+)" are digit-agnostic,
+ * patterns like "Firefox/3\.6" are not.</p>
+ *
+ * @author chetan
+ *
+ */
+public final class DigitAnalysis {
+
+    private DigitAnalysis() {
+    }
+
+    /**
+     * @param regex
+     * @return true if the regex treats all digits alike; false if it does not, or if its syntax
+     *         is not supported by the analysis
+     */
+    public static boolean isDigitAgnostic(String regex) {
+        RegexNode root;
+        try {
+            root = new RegexParser(regex).parse();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return isDigitAgnostic(root);
+    }
+
+    private static boolean isDigitAgnostic(RegexNode node) {
+        if (node instanceof RegexNode.Chars) {
+            CharClass charClass = ((RegexNode.Chars) node).charClass;
+            boolean zero = charClass.matches('0');
+            for (char c = '1'; c <= '9'; c++) {
+                if (charClass.matches(c) != zero) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (node instanceof RegexNode.Concat) {
+            for (RegexNode item : ((RegexNode.Concat) node).items) {
+                if (!isDigitAgnostic(item)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (node instanceof RegexNode.Alternation) {
+            for (RegexNode branch : ((RegexNode.Alternation) node).branches) {
+                if (!isDigitAgnostic(branch)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (node instanceof RegexNode.Group) {
+            return isDigitAgnostic(((RegexNode.Group) node).body);
+        }
+        if (node instanceof RegexNode.Repeat) {
+            return isDigitAgnostic(((RegexNode.Repeat) node).body);
+        }
+        return true; // anchors
+    }
+
+}
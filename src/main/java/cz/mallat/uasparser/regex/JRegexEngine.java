@@ -0,0 +1,104 @@
+package cz.mallat.uasparser.regex;
+
+import jregex.Matcher;
+import jregex.Pattern;
+
+/**
+ * {@link RegexEngine} backed by the <a href="http://jregex.sourceforge.net/">JRegex</a> library.
+ * This is the default engine.
+ *
+ * @author chetan
+ *
+ */
+public class JRegexEngine implements RegexEngine {
+
+    @Override
+    public CompiledRegex compile(String regex) {
+        return new JRegex(new Pattern(regex, Pattern.IGNORE_CASE | Pattern.DOTALL));
+    }
+
+    private static final class JRegex implements CompiledRegex {
+        private final Pattern pattern;
+
+        JRegex(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        public RegexMatcher matcher() {
+            return new JRegexMatcher(pattern.matcher());
+        }
+
+        @Override
+        public RegexMatcher matcher(CharSequence input) {
+            RegexMatcher matcher = matcher();
+            matcher.setTarget(input);
+            return matcher;
+        }
+
+        @Override
+        public String pattern() {
+            return pattern.toString();
+        }
+
+        @Override
+        public String toString() {
+            return pattern.toString();
+        }
+    }
+
+    private static final class JRegexMatcher implements RegexMatcher {
+        private final Matcher matcher;
+        // copy of the target, reused
+        private char[] chars;
+
+        JRegexMatcher(Matcher matcher) {
+            this.matcher = matcher;
+        }
+
+        @Override
+        public void setTarget(CharSequence input) {
+            // copy into our own buffer for any kind of input; jregex reallocates its own one
+            // whenever the target switches between a String and chars
+            int length = input.length();
+            if (chars == null || chars.length < length) {
+                chars = new char[Math.max(length, 64)];
+            }
+            if (input instanceof String) {
+                ((String) input).getChars(0, length, chars, 0);
+            } else {
+                for (int i = 0; i < length; i++) {
+                    chars[i] = input.charAt(i);
+                }
+            }
+            matcher.setTarget(chars, 0, length);
+        }
+
+        @Override
+        public boolean find() {
+            return matcher.find();
+        }
+
+        @Override
+        public int groupCount() {
+            // jregex counts the whole match as a group
+            return matcher.groupCount() - 1;
+        }
+
+        @Override
+        public String group(int group) {
+            return matcher.group(group);
+        }
+
+        @Override
+        public int start(int group) {
+            return matcher.isCaptured(group) ? matcher.start(group) : -1;
+        }
+
+        @Override
+        public int end(int group) {
+            return matcher.isCaptured(group) ? matcher.end(group) : -1;
+        }
+    }
+
+}
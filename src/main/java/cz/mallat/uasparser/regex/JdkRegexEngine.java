@@ -0,0 +1,90 @@
+package cz.mallat.uasparser.regex;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link RegexEngine} backed by {@link java.util.regex}.
+ *
+ * Note that the JDK folds case and treats '$' slightly differently from jregex, so exotic user
+ * agents (non-ASCII letters, a trailing lone '\r') may parse differently than with the default
+ * {@link JRegexEngine}.
+ *
+ * @author chetan
+ *
+ */
+public class JdkRegexEngine implements RegexEngine {
+
+    @Override
+    public CompiledRegex compile(String regex) {
+        return new JdkRegex(Pattern.compile(regex, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE
+                | Pattern.DOTALL));
+    }
+
+    private static final class JdkRegex implements CompiledRegex {
+        private final Pattern pattern;
+
+        JdkRegex(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        public RegexMatcher matcher() {
+            return new JdkRegexMatcher(pattern.matcher(""));
+        }
+
+        @Override
+        public RegexMatcher matcher(CharSequence input) {
+            return new JdkRegexMatcher(pattern.matcher(input));
+        }
+
+        @Override
+        public String pattern() {
+            return pattern.pattern();
+        }
+
+        @Override
+        public String toString() {
+            return pattern.pattern();
+        }
+    }
+
+    private static final class JdkRegexMatcher implements RegexMatcher {
+        private final Matcher matcher;
+
+        JdkRegexMatcher(Matcher matcher) {
+            this.matcher = matcher;
+        }
+
+        @Override
+        public void setTarget(CharSequence input) {
+            matcher.reset(input);
+        }
+
+        @Override
+        public boolean find() {
+            return matcher.find();
+        }
+
+        @Override
+        public int groupCount() {
+            return matcher.groupCount();
+        }
+
+        @Override
+        public String group(int group) {
+            return matcher.group(group);
+        }
+
+        @Override
+        public int start(int group) {
+            return matcher.start(group);
+        }
+
+        @Override
+        public int end(int group) {
+            return matcher.end(group);
+        }
+    }
+
+}
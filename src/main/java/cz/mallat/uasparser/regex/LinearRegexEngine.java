@@ -0,0 +1,242 @@
+package cz.mallat.uasparser.regex;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * {@link RegexEngine} which never backtracks. Regexes are compiled into an NFA which is simulated
+ * one input char at a time (a "Pike VM"), so a search takes time proportional to the length of
+ * the input times the size of the regex, no matter how hostile the input is.
+ *
+ * Matches and capture groups follow the same leftmost, first-alternative-wins rules as jregex.
+ * Only the regex syntax used by the user agent database is supported: backreferences,
+ * lookaround and escapes like \d or \b are rejected when compiling.
+ *
+ * @author chetan
+ *
+ */
+public class LinearRegexEngine implements RegexEngine {
+
+    @Override
+    public CompiledRegex compile(String regex) {
+        RegexParser parser = new RegexParser(regex);
+        RegexNode root = parser.parse();
+        int groupCount = parser.getGroupCount();
+        Nfa nfa = Nfa.compile(Collections.singletonList(root), new int[] { groupCount });
+        return new LinearRegex(regex, nfa, groupCount);
+    }
+
+    private static final class LinearRegex implements CompiledRegex {
+        final String regex;
+        final Nfa nfa;
+        final int groupCount;
+
+        LinearRegex(String regex, Nfa nfa, int groupCount) {
+            this.regex = regex;
+            this.nfa = nfa;
+            this.groupCount = groupCount;
+        }
+
+        @Override
+        public RegexMatcher matcher() {
+            return new LinearMatcher(this);
+        }
+
+        @Override
+        public RegexMatcher matcher(CharSequence input) {
+            RegexMatcher matcher = new LinearMatcher(this);
+            matcher.setTarget(input);
+            return matcher;
+        }
+
+        @Override
+        public String pattern() {
+            return regex;
+        }
+
+        @Override
+        public String toString() {
+            return regex;
+        }
+    }
+
+    /**
+     * States reached at one input position, in priority order, with the capture slots of each
+     */
+    private static final class ThreadList {
+        final int[] dense;
+        final int[] sparse;
+        final int[] caps;
+        int size;
+
+        ThreadList(int states, int slots) {
+            dense = new int[states];
+            sparse = new int[states];
+            caps = new int[states * slots];
+        }
+
+        boolean contains(int state) {
+            int i = sparse[state];
+            return i < size && dense[i] == state;
+        }
+
+        int add(int state) {
+            dense[size] = state;
+            sparse[state] = size;
+            return size++;
+        }
+    }
+
+    private static final class LinearMatcher implements RegexMatcher {
+        private final Nfa nfa;
+        private final int groupCount;
+        private final int slots;
+        private final int[] matchCaps;
+        private final int[] scratch;
+        private ThreadList clist;
+        private ThreadList nlist;
+
+        private CharSequence input;
+        private int searchFrom;
+        private boolean matched;
+
+        LinearMatcher(LinearRegex regex) {
+            this.nfa = regex.nfa;
+            this.groupCount = regex.groupCount;
+            this.slots = nfa.slotCount;
+            this.matchCaps = new int[slots];
+            this.scratch = new int[slots];
+            this.clist = new ThreadList(nfa.size(), slots);
+            this.nlist = new ThreadList(nfa.size(), slots);
+        }
+
+        @Override
+        public void setTarget(CharSequence input) {
+            this.input = input;
+            this.searchFrom = 0;
+            this.matched = false;
+        }
+
+        @Override
+        public boolean find() {
+            matched = false;
+            if (input == null || searchFrom > input.length()) {
+                return false;
+            }
+            int length = input.length();
+            int start = nfa.starts[0];
+            clist.size = 0;
+            for (int pos = searchFrom;; pos++) {
+                if (!matched) {
+                    // a new attempt starting here, behind all earlier (leftmost) ones
+                    Arrays.fill(scratch, -1);
+                    addThread(clist, start, scratch, pos);
+                }
+                nlist.size = 0;
+                char c = pos < length ? input.charAt(pos) : 0;
+                for (int i = 0; i < clist.size; i++) {
+                    int s = clist.dense[i];
+                    int op = nfa.op[s];
+                    if (op == Nfa.CHAR) {
+                        if (pos < length && nfa.classes[nfa.arg[s]].matches(c)) {
+                            System.arraycopy(clist.caps, i * slots, scratch, 0, slots);
+                            addThread(nlist, nfa.out[s], scratch, pos + 1);
+                        }
+                    } else if (op == Nfa.MATCH) {
+                        // threads behind this one have lower priority
+                        matched = true;
+                        System.arraycopy(clist.caps, i * slots, matchCaps, 0, slots);
+                        break;
+                    }
+                }
+                ThreadList tmp = clist;
+                clist = nlist;
+                nlist = tmp;
+                if (pos >= length || (matched && clist.size == 0)) {
+                    break;
+                }
+            }
+            if (matched) {
+                searchFrom = matchCaps[1] == matchCaps[0] ? matchCaps[1] + 1 : matchCaps[1];
+            } else {
+                searchFrom = length + 1;
+            }
+            return matched;
+        }
+
+        private void addThread(ThreadList list, int s, int[] caps, int pos) {
+            if (list.contains(s)) {
+                return;
+            }
+            int index = list.add(s);
+            switch (nfa.op[s]) {
+            case Nfa.SPLIT:
+                addThread(list, nfa.out[s], caps, pos);
+                addThread(list, nfa.out1[s], caps, pos);
+                break;
+            case Nfa.SAVE:
+                int slot = nfa.arg[s];
+                int old = caps[slot];
+                caps[slot] = pos;
+                addThread(list, nfa.out[s], caps, pos);
+                caps[slot] = old;
+                break;
+            case Nfa.BOL:
+                if (pos == 0) {
+                    addThread(list, nfa.out[s], caps, pos);
+                }
+                break;
+            case Nfa.EOL:
+                if (isEnd(pos)) {
+                    addThread(list, nfa.out[s], caps, pos);
+                }
+                break;
+            default:
+                System.arraycopy(caps, 0, list.caps, index * slots, slots);
+            }
+        }
+
+        /**
+         * '$' matches at the end of the input or before a final "\n" or "\r\n", as in jregex
+         */
+        private boolean isEnd(int pos) {
+            int remaining = input.length() - pos;
+            return remaining == 0
+                    || (remaining == 1 && input.charAt(pos) == '\n')
+                    || (remaining == 2 && input.charAt(pos) == '\r' && input.charAt(pos + 1) == '\n');
+        }
+
+        @Override
+        public int groupCount() {
+            return groupCount;
+        }
+
+        @Override
+        public String group(int group) {
+            int start = start(group);
+            if (start < 0) {
+                return null;
+            }
+            return input.subSequence(start, end(group)).toString();
+        }
+
+        @Override
+        public int start(int group) {
+            checkGroup(group);
+            return matched ? matchCaps[group * 2] : -1;
+        }
+
+        @Override
+        public int end(int group) {
+            checkGroup(group);
+            return matched ? matchCaps[group * 2 + 1] : -1;
+        }
+
+        private void checkGroup(int group) {
+            if (group < 0 || group > groupCount) {
+                throw new IndexOutOfBoundsException("No group " + group);
+            }
+        }
+    }
+
+}
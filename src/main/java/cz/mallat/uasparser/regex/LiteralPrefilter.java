@@ -0,0 +1,506 @@
+package cz.mallat.uasparser.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Load-time index over the literal substrings required by an ordered list of regexes.
+ *
+ * <p>Each regex is reduced to a set of literals, one of which must occur (ignoring case) in
+ * every string the regex can match. A single Aho-Corasick scan over the user agent then yields
+ * the patterns which can possibly match. Patterns without a usable literal are always
+ * candidates. Candidate indexes refer to the original list order, so callers keep their
+ * first-match-wins semantics.</p>
+ *
+ * <p>Instances are immutable and thread-safe.</p>
+ *
+ * @author chetan
+ *
+ */
+public class LiteralPrefilter {
+
+    /**
+     * Literals shorter than this are not selective enough to be worth indexing
+     */
+    static final int MIN_LITERAL_LENGTH = 2;
+
+    private final int size;
+    private final BitSet unfiltered;
+
+    private final int[] charClasses;
+    private final int classCount;
+    private final int[] delta;
+    private final int[][] outputs;
+    private final int[][] literalPatterns;
+
+    /**
+     * Build the index for the given regexes, in iteration order
+     *
+     * @param regexes
+     */
+    public LiteralPrefilter(Collection<String> regexes) {
+        this.size = regexes.size();
+        this.unfiltered = new BitSet(size);
+
+        // collect the candidate runs of every branch first, so we can prefer rare literals
+        List<List<List<String>>> runsPerPattern = new ArrayList<List<List<String>>>(size);
+        Map<String, Integer> frequency = new HashMap<String, Integer>();
+        for (String regex : regexes) {
+            List<List<String>> branches = literalRuns(regex);
+            runsPerPattern.add(branches);
+            if (branches == null) {
+                continue;
+            }
+            for (List<String> runs : branches) {
+                for (String run : runs) {
+                    Integer count = frequency.get(run);
+                    frequency.put(run, count == null ? 1 : count + 1);
+                }
+            }
+        }
+
+        // literal -> patterns which require it (in one of their branches)
+        Map<String, List<Integer>> literals = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < size; i++) {
+            List<List<String>> branches = runsPerPattern.get(i);
+            List<String> chosen = branches == null ? null : chooseLiterals(branches, frequency);
+            if (chosen == null) {
+                unfiltered.set(i);
+                continue;
+            }
+            for (String literal : chosen) {
+                List<Integer> patterns = literals.get(literal);
+                if (patterns == null) {
+                    patterns = new ArrayList<Integer>(1);
+                    literals.put(literal, patterns);
+                }
+                if (patterns.isEmpty() || patterns.get(patterns.size() - 1) != i) {
+                    patterns.add(i);
+                }
+            }
+        }
+
+        // compress the alphabet to the characters which actually occur in a literal
+        this.charClasses = new int[128];
+        int classes = 1;
+        for (String literal : literals.keySet()) {
+            for (int j = 0; j < literal.length(); j++) {
+                char c = literal.charAt(j);
+                if (charClasses[c] == 0) {
+                    charClasses[c] = classes++;
+                }
+            }
+        }
+        this.classCount = classes;
+
+        this.literalPatterns = new int[literals.size()][];
+        List<String> literalList = new ArrayList<String>(literals.keySet());
+        for (int i = 0; i < literalList.size(); i++) {
+            List<Integer> patterns = literals.get(literalList.get(i));
+            literalPatterns[i] = new int[patterns.size()];
+            for (int j = 0; j < patterns.size(); j++) {
+                literalPatterns[i][j] = patterns.get(j);
+            }
+        }
+
+        // build the trie in the rows of the transition table, 0 where there is no edge as no edge
+        // leads back to the root. The children of each state are linked as well, so the rows can
+        // be completed without looking at every cell.
+        int capacity = 64;
+        int[] table = new int[capacity * classCount];
+        int[] firstChild = new int[capacity];
+        int[] nextSibling = new int[capacity];
+        int[] edgeClass = new int[capacity];
+        List<List<Integer>> ownOutputs = new ArrayList<List<Integer>>();
+        ownOutputs.add(null);
+        for (int i = 0; i < literalList.size(); i++) {
+            String literal = literalList.get(i);
+            int state = 0;
+            for (int j = 0; j < literal.length(); j++) {
+                int cls = charClasses[literal.charAt(j)];
+                int next = table[state * classCount + cls];
+                if (next == 0) {
+                    next = ownOutputs.size();
+                    ownOutputs.add(null);
+                    if (next == capacity) {
+                        capacity *= 2;
+                        table = Arrays.copyOf(table, capacity * classCount);
+                        firstChild = Arrays.copyOf(firstChild, capacity);
+                        nextSibling = Arrays.copyOf(nextSibling, capacity);
+                        edgeClass = Arrays.copyOf(edgeClass, capacity);
+                    }
+                    table[state * classCount + cls] = next;
+                    edgeClass[next] = cls;
+                    nextSibling[next] = firstChild[state];
+                    firstChild[state] = next;
+                }
+                state = next;
+            }
+            if (ownOutputs.get(state) == null) {
+                ownOutputs.set(state, new ArrayList<Integer>(1));
+            }
+            ownOutputs.get(state).add(i);
+        }
+
+        // breadth first: failure links, the missing transitions and merged outputs
+        int states = ownOutputs.size();
+        this.delta = Arrays.copyOf(table, states * classCount);
+        this.outputs = new int[states][];
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+
+        outputs[0] = toArray(ownOutputs.get(0), null);
+        for (int next = firstChild[0]; next != 0; next = nextSibling[next]) {
+            fail[next] = 0;
+            queue[tail++] = next;
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            int base = state * classCount;
+            int failBase = fail[state] * classCount;
+            outputs[state] = toArray(ownOutputs.get(state), outputs[fail[state]]);
+            // the failure state is shallower, so its row is complete already: start from it and
+            // put back the edges of the trie
+            System.arraycopy(delta, failBase, delta, base, classCount);
+            for (int next = firstChild[state]; next != 0; next = nextSibling[next]) {
+                fail[next] = delta[failBase + edgeClass[next]];
+                delta[base + edgeClass[next]] = next;
+                queue[tail++] = next;
+            }
+        }
+    }
+
+    /**
+     * @return number of patterns covered by this index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the indexes of all patterns which may match the given user agent. A pattern which is
+     * not in the returned set cannot match.
+     *
+     * @param useragent
+     * @return {@link BitSet} of candidate pattern indexes
+     */
+    public BitSet candidates(CharSequence useragent) {
+        return addMatches(useragent, (BitSet) unfiltered.clone());
+    }
+
+    /**
+     * Like {@link #candidates(CharSequence)}, but fills in the given set instead of allocating a
+     * new one
+     *
+     * @param useragent
+     * @param result
+     *            cleared first, may be null
+     * @return result, or a new set if it was null
+     */
+    public BitSet candidates(CharSequence useragent, BitSet result) {
+        if (result == null) {
+            return candidates(useragent);
+        }
+        result.clear();
+        result.or(unfiltered);
+        return addMatches(useragent, result);
+    }
+
+    /**
+     * Add the patterns of all literals found in the user agent
+     */
+    private BitSet addMatches(CharSequence useragent, BitSet result) {
+        int state = 0;
+        for (int i = 0, n = useragent.length(); i < n; i++) {
+            state = delta[state * classCount + charClass(useragent.charAt(i))];
+            int[] out = outputs[state];
+            if (out != null) {
+                for (int literal : out) {
+                    for (int pattern : literalPatterns[literal]) {
+                        result.set(pattern);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private int charClass(char c) {
+        if (c < 128) {
+            return charClasses[fold(c)];
+        }
+        // a few non-ASCII chars (e.g. the Kelvin sign) fold onto ASCII letters when ignoring case
+        c = Character.toLowerCase(Character.toUpperCase(c));
+        return c < 128 ? charClasses[c] : 0;
+    }
+
+    private static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static int[] toArray(List<Integer> own, int[] inherited) {
+        int ownSize = own == null ? 0 : own.size();
+        int inheritedSize = inherited == null ? 0 : inherited.length;
+        if (ownSize + inheritedSize == 0) {
+            return null;
+        }
+        int[] result = new int[ownSize + inheritedSize];
+        for (int i = 0; i < ownSize; i++) {
+            result[i] = own.get(i);
+        }
+        if (inheritedSize > 0) {
+            System.arraycopy(inherited, 0, result, ownSize, inheritedSize);
+        }
+        return result;
+    }
+
+    /**
+     * Pick one literal per branch, preferring literals which few other patterns require
+     *
+     * @return literals, or null if any branch has no usable literal
+     */
+    private static List<String> chooseLiterals(List<List<String>> branches, Map<String, Integer> frequency) {
+        List<String> chosen = new ArrayList<String>(branches.size());
+        for (List<String> runs : branches) {
+            String best = null;
+            for (String run : runs) {
+                if (best == null
+                        || frequency.get(run) < frequency.get(best)
+                        || (frequency.get(run).equals(frequency.get(best)) && run.length() > best.length())) {
+                    best = run;
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            chosen.add(best);
+        }
+        return chosen;
+    }
+
+    /**
+     * Returns, for each top-level alternative of the regex, the literal runs which any match of
+     * that alternative must contain. Runs are lower-cased and restricted to ASCII.
+     *
+     * @param regex
+     * @return list of runs per branch, or null if some branch yields no usable run
+     */
+    static List<List<String>> literalRuns(String regex) {
+        List<List<String>> branches = new ArrayList<List<String>>();
+        List<String> runs = new ArrayList<String>();
+        StringBuilder current = new StringBuilder();
+
+        int i = 0;
+        int n = regex.length();
+        while (i < n) {
+            char c = regex.charAt(i);
+            int atom = -1;
+            if (c == '\\') {
+                if (i + 1 >= n) {
+                    return null;
+                }
+                char escaped = regex.charAt(i + 1);
+                if (Character.isLetterOrDigit(escaped)) {
+                    // \d, \w, \b, \x41, backreferences etc. are not literals, as a whole
+                    i = skipEscape(regex, i);
+                } else {
+                    atom = escaped;
+                    i += 2;
+                }
+            } else if (c == '|') {
+                endRun(runs, current);
+                if (runs.isEmpty()) {
+                    return null;
+                }
+                branches.add(runs);
+                runs = new ArrayList<String>();
+                i++;
+                continue;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+            } else if (c == '(') {
+                i = skipGroup(regex, i);
+            } else if (c == '.' || c == '^' || c == '$' || c == ')') {
+                i++;
+            } else {
+                atom = c;
+                i++;
+            }
+            if (i < 0) {
+                return null;
+            }
+
+            char quantifier = i < n ? regex.charAt(i) : 0;
+            if (atom < 0 || atom >= 128) {
+                endRun(runs, current);
+                i = skipQuantifier(regex, i);
+                continue;
+            }
+            if (quantifier == '*' || quantifier == '?' || quantifier == '{') {
+                // optional (or counted, which we don't bother with) atom breaks the run
+                endRun(runs, current);
+                i = skipQuantifier(regex, i);
+            } else if (quantifier == '+') {
+                // at least one repetition: the run ends here and a new one begins with the atom
+                current.append(fold((char) atom));
+                endRun(runs, current);
+                current.append(fold((char) atom));
+                i = skipQuantifier(regex, i);
+            } else {
+                current.append(fold((char) atom));
+            }
+        }
+        endRun(runs, current);
+        if (runs.isEmpty()) {
+            return null;
+        }
+        branches.add(runs);
+        return branches;
+    }
+
+    private static void endRun(List<String> runs, StringBuilder current) {
+        if (current.length() >= MIN_LITERAL_LENGTH) {
+            runs.add(current.toString());
+        }
+        current.setLength(0);
+    }
+
+    private static int skipQuantifier(String regex, int i) {
+        if (i >= regex.length()) {
+            return i;
+        }
+        char c = regex.charAt(i);
+        if (c == '{') {
+            int close = regex.indexOf('}', i);
+            i = close < 0 ? regex.length() : close + 1;
+        } else if (c == '*' || c == '+' || c == '?') {
+            i++;
+        } else {
+            return i;
+        }
+        // lazy or possessive modifier
+        if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return index after the escape starting at the given '\\' with its arguments, e.g. the
+     *         digits of \\x41, \\u0041 or \\012, or -1 if it is not terminated
+     */
+    private static int skipEscape(String regex, int i) {
+        int n = regex.length();
+        if (i + 1 >= n) {
+            return -1;
+        }
+        char escaped = regex.charAt(i + 1);
+        i += 2;
+        switch (escaped) {
+        case 'x':
+            if (i < n && regex.charAt(i) == '{') {
+                int close = regex.indexOf('}', i);
+                return close < 0 ? -1 : close + 1;
+            }
+            return Math.min(i + 2, n);
+        case 'u':
+            return Math.min(i + 4, n);
+        case '0':
+            // up to three octal digits
+            for (int end = Math.min(i + 3, n); i < end && regex.charAt(i) >= '0' && regex.charAt(i) <= '7'; i++) {
+            }
+            return i;
+        case 'c':
+            return Math.min(i + 1, n);
+        case 'p':
+        case 'P':
+            if (i < n && regex.charAt(i) == '{') {
+                int close = regex.indexOf('}', i);
+                return close < 0 ? -1 : close + 1;
+            }
+            return Math.min(i + 1, n);
+        case 'k':
+            if (i < n && regex.charAt(i) == '<') {
+                int close = regex.indexOf('>', i);
+                return close < 0 ? -1 : close + 1;
+            }
+            return i;
+        case 'Q':
+            int end = regex.indexOf("\\E", i);
+            return end < 0 ? n : end + 2;
+        default:
+            if (escaped >= '1' && escaped <= '9') {
+                // a backreference may take more digits
+                while (i < n && Character.isDigit(regex.charAt(i))) {
+                    i++;
+                }
+            }
+            return i;
+        }
+    }
+
+    /**
+     * @return index after the closing ']', or -1 if the class is not terminated
+     */
+    private static int skipClass(String regex, int i) {
+        int n = regex.length();
+        i++;
+        if (i < n && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < n && regex.charAt(i) == ']') {
+            i++;
+        }
+        while (i < n && regex.charAt(i) != ']') {
+            if (regex.charAt(i) == '\\') {
+                i++;
+            }
+            i++;
+        }
+        return i < n ? i + 1 : -1;
+    }
+
+    /**
+     * @return index after the matching ')', or -1 if the group is not terminated
+     */
+    private static int skipGroup(String regex, int i) {
+        int n = regex.length();
+        int depth = 0;
+        while (i < n) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i = skipEscape(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            }
+            if (c == '[') {
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,433 @@
+package cz.mallat.uasparser.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * All patterns of a regex table combined into lazily built DFAs.
+ *
+ * <p>{@link #firstMatch(CharSequence)} returns the lowest index of a pattern which matches
+ * anywhere in the input, i.e. the same pattern a sequential {@code find()} over the table would
+ * stop at. Captures are not tracked: callers re-run the winning pattern to extract groups.</p>
+ *
+ * <p>A single DFA over hundreds of unanchored patterns with '.*' in them has far too many
+ * states, so the table is split into chunks of consecutive patterns with one DFA each. Chunks
+ * are scanned in order and the first one with a match wins, so the cost is at most one pass over
+ * the input per chunk instead of one backtracking search per pattern. It still grows with the
+ * number of patterns, by one pass per chunk; larger chunks make fewer passes but need many more
+ * states to stay fast. On the 631 browser patterns of the vendored file, with 11k user agents:
+ * chunks of 16 took 15 us per user agent with 18 MB of states; a single DFA took 4 us but only
+ * with 100k states, 336 MB, and still growing, while capped at {@link #DEFAULT_MAX_STATES} it
+ * kept rebuilding and took 720 us. Chunks of 32 or 64 were slower than 16 at that cap.</p>
+ *
+ * <p>DFA states are created on demand and cached; once a chunk has more than {@code maxStates}
+ * states, its cache is dropped and rebuilt. Patterns using syntax the automaton does not support
+ * are reported by {@link #getUnsupported()} and must be checked separately by the caller.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ *
+ * @author chetan
+ *
+ */
+public class MultiPatternAutomaton {
+
+    /**
+     * Default number of patterns combined into one DFA
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 16;
+
+    /**
+     * Default limit on the number of cached states per DFA
+     */
+    public static final int DEFAULT_MAX_STATES = 4000;
+
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+
+    private final int size;
+    private final int[] unsupported;
+    private final Chunk[] chunks;
+
+    /**
+     * Combine the given regexes, in iteration order
+     *
+     * @param regexes
+     */
+    public MultiPatternAutomaton(Collection<String> regexes) {
+        this(regexes, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_STATES);
+    }
+
+    /**
+     * Combine the given regexes, in iteration order
+     *
+     * @param regexes
+     * @param chunkSize number of patterns combined into one DFA
+     * @param maxStates limit on the number of cached states per DFA
+     */
+    public MultiPatternAutomaton(Collection<String> regexes, int chunkSize, int maxStates) {
+        this.size = regexes.size();
+
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        List<RegexNode> parsed = new ArrayList<RegexNode>(chunkSize);
+        List<Integer> groupCounts = new ArrayList<Integer>(chunkSize);
+        List<Integer> indexes = new ArrayList<Integer>(chunkSize);
+        List<Integer> failed = new ArrayList<Integer>();
+        int i = 0;
+        for (String regex : regexes) {
+            try {
+                RegexParser parser = new RegexParser(regex);
+                parsed.add(parser.parse());
+                groupCounts.add(parser.getGroupCount());
+                indexes.add(i);
+            } catch (IllegalArgumentException e) {
+                failed.add(i);
+            }
+            i++;
+            if (parsed.size() == chunkSize) {
+                chunks.add(new Chunk(parsed, groupCounts, indexes, maxStates));
+                parsed.clear();
+                groupCounts.clear();
+                indexes.clear();
+            }
+        }
+        if (!parsed.isEmpty()) {
+            chunks.add(new Chunk(parsed, groupCounts, indexes, maxStates));
+        }
+
+        this.unsupported = toArray(failed);
+        this.chunks = chunks.toArray(new Chunk[chunks.size()]);
+    }
+
+    /**
+     * @return number of patterns in this automaton, including unsupported ones
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return indexes of patterns which could not be compiled into the automaton, in ascending
+     *         order. {@link #firstMatch(CharSequence)} never reports them. The array is shared and
+     *         must not be modified.
+     */
+    public int[] getUnsupported() {
+        return unsupported;
+    }
+
+    /**
+     * @return number of DFA states currently cached, over all chunks
+     */
+    public int getCachedStateCount() {
+        int count = 0;
+        for (Chunk chunk : chunks) {
+            count += chunk.cache.count.get();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the lowest index of a supported pattern which matches somewhere in the input
+     *
+     * @param input
+     * @return pattern index, or -1 if none matches
+     */
+    public int firstMatch(CharSequence input) {
+        for (Chunk chunk : chunks) {
+            int index = chunk.firstMatch(input);
+            if (index >= 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * '$' matches before a final "\n" or "\r\n", as in jregex
+     */
+    private static boolean isFinalLineTerminator(CharSequence input, int i) {
+        int remaining = input.length() - i;
+        if (remaining == 1) {
+            return input.charAt(i) == '\n';
+        }
+        return remaining == 2 && input.charAt(i) == '\r' && input.charAt(i + 1) == '\n';
+    }
+
+    /**
+     * A lazily built DFA over a run of consecutive patterns
+     */
+    private static final class Chunk {
+        final Nfa nfa;
+        final int[] patternIndex;
+        final int maxStates;
+        /** ASCII chars which no class of this chunk tells apart share a transition slot */
+        final byte[] alphabet = new byte[128];
+        final int alphabetSize;
+        volatile StateCache cache = new StateCache();
+
+        Chunk(List<RegexNode> parsed, List<Integer> groupCounts, List<Integer> indexes, int maxStates) {
+            this.nfa = Nfa.compile(parsed, toArray(groupCounts));
+            this.patternIndex = toArray(indexes);
+            this.maxStates = maxStates;
+
+            List<BitSet> signatures = new ArrayList<BitSet>();
+            for (char c = 0; c < 128; c++) {
+                BitSet signature = new BitSet(nfa.classes.length);
+                for (int i = 0; i < nfa.classes.length; i++) {
+                    if (nfa.classes[i].matches(c)) {
+                        signature.set(i);
+                    }
+                }
+                int slot = signatures.indexOf(signature);
+                if (slot < 0) {
+                    slot = signatures.size();
+                    signatures.add(signature);
+                }
+                alphabet[c] = (byte) slot;
+            }
+            this.alphabetSize = signatures.size();
+        }
+
+        int firstMatch(CharSequence input) {
+            StateCache current = cache;
+            Scratch scratch = null;
+            int length = input.length();
+            int best = NO_MATCH;
+
+            DState state = current.start;
+            if (state == null) {
+                scratch = new Scratch(nfa.size());
+                state = intern(closure(scratch, nfa.starts, nfa.starts.length, true));
+                current.start = state;
+            }
+            for (int i = 0; i < length; i++) {
+                best = Math.min(best, state.match);
+                if (best == 0) {
+                    // nothing can beat the first pattern
+                    return patternIndex[0];
+                }
+                if (state.hasEol && isFinalLineTerminator(input, i)) {
+                    best = Math.min(best, endMatch(state, i == 0, scratch));
+                }
+
+                char c = input.charAt(i);
+                DState next = c < 128 ? state.next[alphabet[c]] : null;
+                if (next == null) {
+                    if (scratch == null) {
+                        scratch = new Scratch(nfa.size());
+                    }
+                    next = step(scratch, state, c);
+                    if (c < 128) {
+                        state.next[alphabet[c]] = next;
+                    }
+                }
+                state = next;
+            }
+            best = Math.min(best, state.match);
+            if (state.hasEol) {
+                best = Math.min(best, endMatch(state, length == 0, scratch));
+            }
+            return best == NO_MATCH ? -1 : patternIndex[best];
+        }
+
+        private DState step(Scratch scratch, DState state, char c) {
+            int[] starts = nfa.starts;
+            int[] seeds = scratch.seeds(state.states.length + starts.length);
+            int n = 0;
+            for (int s : state.states) {
+                if (nfa.op[s] == Nfa.CHAR && nfa.classes[nfa.arg[s]].matches(c)) {
+                    seeds[n++] = nfa.out[s];
+                }
+            }
+            // patterns may start matching at any position
+            System.arraycopy(starts, 0, seeds, n, starts.length);
+            n += starts.length;
+            return intern(closure(scratch, seeds, n, false));
+        }
+
+        private int endMatch(DState state, boolean atStart, Scratch scratch) {
+            if (!atStart && state.endMatch != Integer.MIN_VALUE) {
+                return state.endMatch;
+            }
+            if (scratch == null) {
+                scratch = new Scratch(nfa.size());
+            }
+            int[] seeds = scratch.seeds(state.states.length);
+            int n = 0;
+            for (int s : state.states) {
+                if (nfa.op[s] == Nfa.EOL) {
+                    seeds[n++] = nfa.out[s];
+                }
+            }
+            int match = NO_MATCH;
+            for (int s : closure(scratch, seeds, n, atStart)) {
+                if (nfa.op[s] == Nfa.MATCH) {
+                    match = Math.min(match, nfa.arg[s]);
+                }
+            }
+            if (!atStart) {
+                state.endMatch = match;
+            }
+            return match;
+        }
+
+        /**
+         * Follow all epsilon transitions from the seeds. The result holds the CHAR, EOL and MATCH
+         * states reached, sorted.
+         */
+        private int[] closure(Scratch scratch, int[] seeds, int count, boolean atStart) {
+            int generation = scratch.nextGeneration();
+            int[] mark = scratch.mark;
+            int[] stack = scratch.stack;
+            int[] result = scratch.result;
+            int resultSize = 0;
+            int top = 0;
+            for (int i = count - 1; i >= 0; i--) {
+                stack[top++] = seeds[i];
+            }
+            while (top > 0) {
+                int s = stack[--top];
+                if (mark[s] == generation) {
+                    continue;
+                }
+                mark[s] = generation;
+                switch (nfa.op[s]) {
+                case Nfa.SPLIT:
+                    stack[top++] = nfa.out1[s];
+                    stack[top++] = nfa.out[s];
+                    break;
+                case Nfa.SAVE:
+                    stack[top++] = nfa.out[s];
+                    break;
+                case Nfa.BOL:
+                    if (atStart) {
+                        stack[top++] = nfa.out[s];
+                    }
+                    break;
+                default:
+                    result[resultSize++] = s;
+                }
+            }
+            int[] states = new int[resultSize];
+            System.arraycopy(result, 0, states, 0, resultSize);
+            Arrays.sort(states);
+            return states;
+        }
+
+        private DState intern(int[] states) {
+            StateCache current = cache;
+            StateKey key = new StateKey(states);
+            DState state = current.states.get(key);
+            if (state != null) {
+                return state;
+            }
+            if (current.count.get() >= maxStates) {
+                // start over rather than grow without bounds; states already handed out stay valid
+                current = new StateCache();
+                cache = current;
+            }
+            state = new DState(states, nfa, alphabetSize);
+            DState existing = current.states.putIfAbsent(key, state);
+            if (existing != null) {
+                return existing;
+            }
+            current.count.incrementAndGet();
+            return state;
+        }
+    }
+
+    private static final class StateCache {
+        final ConcurrentHashMap<StateKey, DState> states = new ConcurrentHashMap<StateKey, DState>();
+        final AtomicInteger count = new AtomicInteger();
+        volatile DState start;
+    }
+
+    private static final class StateKey {
+        final int[] states;
+        final int hash;
+
+        StateKey(int[] states) {
+            this.states = states;
+            this.hash = Arrays.hashCode(states);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof StateKey && Arrays.equals(states, ((StateKey) obj).states);
+        }
+    }
+
+    private static final class DState {
+        final int[] states;
+        /** lowest pattern (within the chunk) matched in this state */
+        final int match;
+        final boolean hasEol;
+        /** transitions for ASCII chars by alphabet slot, filled lazily */
+        final DState[] next;
+        /** lowest pattern matched at the end of input, computed lazily */
+        volatile int endMatch = Integer.MIN_VALUE;
+
+        DState(int[] states, Nfa nfa, int alphabetSize) {
+            this.states = states;
+            this.next = new DState[alphabetSize];
+            int match = NO_MATCH;
+            boolean hasEol = false;
+            for (int s : states) {
+                if (nfa.op[s] == Nfa.MATCH) {
+                    match = Math.min(match, nfa.arg[s]);
+                } else if (nfa.op[s] == Nfa.EOL) {
+                    hasEol = true;
+                }
+            }
+            this.match = match;
+            this.hasEol = hasEol;
+        }
+    }
+
+    /**
+     * Per-call work arrays, only allocated when new DFA states have to be built
+     */
+    private static final class Scratch {
+        final int[] mark;
+        final int[] stack;
+        final int[] result;
+        int[] seeds;
+        int generation;
+
+        Scratch(int nfaSize) {
+            mark = new int[nfaSize];
+            // seeds (at most two per state) plus two pushes per visited state
+            stack = new int[nfaSize * 4 + 1];
+            result = new int[nfaSize];
+            seeds = new int[64];
+        }
+
+        int nextGeneration() {
+            return ++generation;
+        }
+
+        int[] seeds(int size) {
+            if (seeds.length < size) {
+                seeds = new int[size];
+            }
+            return seeds;
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+package cz.mallat.uasparser.regex;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thompson NFA for one or more patterns, compiled from {@link RegexNode} trees.
+ *
+ * <p>States are stored in parallel arrays. Every state remembers the index of the pattern it
+ * belongs to, so a combined NFA can report which of its patterns matched.</p>
+ *
+ * @author chetan
+ *
+ */
+final class Nfa {
+
+    /** consume one char of {@link #classes}[arg] */
+    static final int CHAR = 0;
+    /** epsilon to out, then out1 (out is preferred) */
+    static final int SPLIT = 1;
+    /** epsilon, recording the current position in capture slot arg */
+    static final int SAVE = 2;
+    /** epsilon, only at the start of the input */
+    static final int BOL = 3;
+    /** epsilon, only at the end of the input or before a final line terminator */
+    static final int EOL = 4;
+    /** pattern arg matched */
+    static final int MATCH = 5;
+
+    final int[] op;
+    final int[] out;
+    final int[] out1;
+    final int[] arg;
+    final int[] owner;
+    final CharClass[] classes;
+
+    /** entry state per pattern */
+    final int[] starts;
+    /** capture slots needed by the largest pattern (two per group, including group 0) */
+    final int slotCount;
+
+    private Nfa(Builder builder, int[] starts, int slotCount) {
+        int n = builder.size;
+        this.op = copy(builder.op, n);
+        this.out = copy(builder.out, n);
+        this.out1 = copy(builder.out1, n);
+        this.arg = copy(builder.arg, n);
+        this.owner = copy(builder.owner, n);
+        this.classes = builder.classes.toArray(new CharClass[builder.classes.size()]);
+        this.starts = starts;
+        this.slotCount = slotCount;
+    }
+
+    int size() {
+        return op.length;
+    }
+
+    /**
+     * Compile the given parsed patterns into one NFA. Pattern i ends in a MATCH state with arg i,
+     * and its whole match is recorded in slots 0 and 1.
+     *
+     * @param patterns
+     * @param groupCounts capturing groups per pattern
+     * @return
+     */
+    static Nfa compile(List<RegexNode> patterns, int[] groupCounts) {
+        Builder builder = new Builder();
+        int[] starts = new int[patterns.size()];
+        int slots = 2;
+        for (int i = 0; i < patterns.size(); i++) {
+            builder.currentOwner = i;
+            int match = builder.add(MATCH, -1, -1, i);
+            int end = builder.add(SAVE, match, -1, 1);
+            int body = builder.compile(patterns.get(i), end);
+            starts[i] = builder.add(SAVE, body, -1, 0);
+            slots = Math.max(slots, 2 * (groupCounts[i] + 1));
+        }
+        return new Nfa(builder, starts, slots);
+    }
+
+    private static int[] copy(int[] a, int n) {
+        int[] result = new int[n];
+        System.arraycopy(a, 0, result, 0, n);
+        return result;
+    }
+
+    private static final class Builder {
+        int[] op = new int[256];
+        int[] out = new int[256];
+        int[] out1 = new int[256];
+        int[] arg = new int[256];
+        int[] owner = new int[256];
+        List<CharClass> classes = new ArrayList<CharClass>();
+        Map<CharClass, Integer> classIndex = new IdentityHashMap<CharClass, Integer>();
+        int size;
+        int currentOwner;
+
+        int add(int opcode, int next, int next1, int argument) {
+            if (size == op.length) {
+                op = grow(op);
+                out = grow(out);
+                out1 = grow(out1);
+                arg = grow(arg);
+                owner = grow(owner);
+            }
+            op[size] = opcode;
+            out[size] = next;
+            out1[size] = next1;
+            arg[size] = argument;
+            owner[size] = currentOwner;
+            return size++;
+        }
+
+        private static int[] grow(int[] a) {
+            int[] result = new int[a.length * 2];
+            System.arraycopy(a, 0, result, 0, a.length);
+            return result;
+        }
+
+        private int classIndex(CharClass charClass) {
+            Integer index = classIndex.get(charClass);
+            if (index == null) {
+                index = classes.size();
+                classes.add(charClass);
+                classIndex.put(charClass, index);
+            }
+            return index;
+        }
+
+        /**
+         * Compile node so that it continues with state next
+         *
+         * @return entry state of the node
+         */
+        int compile(RegexNode node, int next) {
+            if (node instanceof RegexNode.Chars) {
+                return add(CHAR, next, -1, classIndex(((RegexNode.Chars) node).charClass));
+            }
+            if (node instanceof RegexNode.Concat) {
+                List<RegexNode> items = ((RegexNode.Concat) node).items;
+                int entry = next;
+                for (int i = items.size() - 1; i >= 0; i--) {
+                    entry = compile(items.get(i), entry);
+                }
+                return entry;
+            }
+            if (node instanceof RegexNode.Alternation) {
+                List<RegexNode> branches = ((RegexNode.Alternation) node).branches;
+                int entry = compile(branches.get(branches.size() - 1), next);
+                for (int i = branches.size() - 2; i >= 0; i--) {
+                    entry = add(SPLIT, compile(branches.get(i), next), entry, -1);
+                }
+                return entry;
+            }
+            if (node instanceof RegexNode.Group) {
+                RegexNode.Group group = (RegexNode.Group) node;
+                int close = add(SAVE, next, -1, group.index * 2 + 1);
+                return add(SAVE, compile(group.body, close), -1, group.index * 2);
+            }
+            if (node instanceof RegexNode.Anchor) {
+                return add(((RegexNode.Anchor) node).start ? BOL : EOL, next, -1, -1);
+            }
+            RegexNode.Repeat repeat = (RegexNode.Repeat) node;
+            int entry = next;
+            if (repeat.max < 0) {
+                // body* : the split is patched once the body is compiled
+                int loop = add(SPLIT, -1, -1, -1);
+                int body = compile(repeat.body, loop);
+                setBranches(loop, body, next, repeat.greedy);
+                entry = loop;
+            } else {
+                // optional copies, innermost first: (body(body)?)?
+                for (int i = repeat.min; i < repeat.max; i++) {
+                    int split = add(SPLIT, -1, -1, -1);
+                    setBranches(split, compile(repeat.body, entry), next, repeat.greedy);
+                    entry = split;
+                }
+            }
+            for (int i = 0; i < repeat.min; i++) {
+                entry = compile(repeat.body, entry);
+            }
+            return entry;
+        }
+
+        private void setBranches(int split, int body, int skip, boolean greedy) {
+            out[split] = greedy ? body : skip;
+            out1[split] = greedy ? skip : body;
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package cz.mallat.uasparser.regex;
+
+/**
+ * Compiles the regexes of the user agent database. Implementations wrap a particular regex
+ * library, so the parsers can be run with whichever engine suits the deployment.
+ *
+ * @author chetan
+ *
+ */
+public interface RegexEngine {
+
+    /**
+     * Compile the given regex. Matching is always case-insensitive and '.' matches any char,
+     * including line terminators, as the database expects.
+     *
+     * @param regex
+     * @return
+     * @throws IllegalArgumentException
+     *             if the regex is invalid or not supported by this engine
+     */
+    CompiledRegex compile(String regex);
+
+}
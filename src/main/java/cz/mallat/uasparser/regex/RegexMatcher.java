@@ -0,0 +1,50 @@
+package cz.mallat.uasparser.regex;
+
+/**
+ * Searches a target for a {@link CompiledRegex}. Not thread-safe; a matcher can be reused for
+ * any number of targets.
+ *
+ * @author chetan
+ *
+ */
+public interface RegexMatcher {
+
+    /**
+     * Reset this matcher to search the given input from the start
+     *
+     * @param input
+     */
+    void setTarget(CharSequence input);
+
+    /**
+     * Find the next match in the target
+     *
+     * @return true if a match was found
+     */
+    boolean find();
+
+    /**
+     * @return number of capturing groups in the regex, not counting the whole match
+     */
+    int groupCount();
+
+    /**
+     * @param group
+     *            group number, 0 for the whole match
+     * @return text captured by the group in the last match, or null if it did not participate
+     */
+    String group(int group);
+
+    /**
+     * @param group
+     * @return start offset of the group in the last match, or -1 if it did not participate
+     */
+    int start(int group);
+
+    /**
+     * @param group
+     * @return end offset of the group in the last match, or -1 if it did not participate
+     */
+    int end(int group);
+
+}
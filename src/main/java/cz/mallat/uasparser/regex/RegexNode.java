@@ -0,0 +1,81 @@
+package cz.mallat.uasparser.regex;
+
+import java.util.List;
+
+/**
+ * Syntax tree of a regex, as produced by {@link RegexParser}
+ *
+ * @author chetan
+ *
+ */
+abstract class RegexNode {
+
+    /**
+     * A single character out of a {@link CharClass}
+     */
+    static final class Chars extends RegexNode {
+        final CharClass charClass;
+
+        Chars(CharClass charClass) {
+            this.charClass = charClass;
+        }
+    }
+
+    static final class Concat extends RegexNode {
+        final List<RegexNode> items;
+
+        Concat(List<RegexNode> items) {
+            this.items = items;
+        }
+    }
+
+    static final class Alternation extends RegexNode {
+        final List<RegexNode> branches;
+
+        Alternation(List<RegexNode> branches) {
+            this.branches = branches;
+        }
+    }
+
+    /**
+     * body{min,max}; max is -1 if unbounded
+     */
+    static final class Repeat extends RegexNode {
+        final RegexNode body;
+        final int min;
+        final int max;
+        final boolean greedy;
+
+        Repeat(RegexNode body, int min, int max, boolean greedy) {
+            this.body = body;
+            this.min = min;
+            this.max = max;
+            this.greedy = greedy;
+        }
+    }
+
+    /**
+     * Capturing group number {@code index} (starting at 1)
+     */
+    static final class Group extends RegexNode {
+        final RegexNode body;
+        final int index;
+
+        Group(RegexNode body, int index) {
+            this.body = body;
+            this.index = index;
+        }
+    }
+
+    /**
+     * '^' (start of input) or '$' (end of input, or before a final line terminator)
+     */
+    static final class Anchor extends RegexNode {
+        final boolean start;
+
+        Anchor(boolean start) {
+            this.start = start;
+        }
+    }
+
+}
@@ -0,0 +1,259 @@
+package cz.mallat.uasparser.regex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the regex dialect used by the user agent database into a {@link RegexNode} tree.
+ *
+ * <p>Patterns are always treated as case-insensitive and DOTALL, which is how the parsers
+ * compile them with jregex. Only the subset of the syntax actually found in the database is
+ * supported: literals and escapes, '.', bracket classes, groups (capturing and "(?:"),
+ * alternation, the greedy and lazy quantifiers and the '^' and '$' anchors. Anything else
+ * (backreferences, lookaround, \b, \d etc.) is rejected with an {@link IllegalArgumentException}
+ * so callers can fall back to a backtracking engine.</p>
+ *
+ * @author chetan
+ *
+ */
+final class RegexParser {
+
+    private final String regex;
+    private final Map<Character, CharClass> literals = new HashMap<Character, CharClass>();
+
+    private int pos;
+    private int groupCount;
+
+    RegexParser(String regex) {
+        this.regex = regex;
+    }
+
+    /**
+     * @return root of the syntax tree
+     * @throws IllegalArgumentException
+     *             if the regex is invalid or uses unsupported syntax
+     */
+    RegexNode parse() {
+        pos = 0;
+        groupCount = 0;
+        RegexNode root = parseAlternation();
+        if (pos < regex.length()) {
+            throw error("unbalanced ')'");
+        }
+        return root;
+    }
+
+    /**
+     * @return number of capturing groups, valid after {@link #parse()}
+     */
+    int getGroupCount() {
+        return groupCount;
+    }
+
+    private RegexNode parseAlternation() {
+        List<RegexNode> branches = new ArrayList<RegexNode>(1);
+        branches.add(parseConcat());
+        while (pos < regex.length() && regex.charAt(pos) == '|') {
+            pos++;
+            branches.add(parseConcat());
+        }
+        return branches.size() == 1 ? branches.get(0) : new RegexNode.Alternation(branches);
+    }
+
+    private RegexNode parseConcat() {
+        List<RegexNode> items = new ArrayList<RegexNode>();
+        while (pos < regex.length()) {
+            char c = regex.charAt(pos);
+            if (c == '|' || c == ')') {
+                break;
+            }
+            items.add(parseRepeat(parseAtom()));
+        }
+        return items.size() == 1 ? items.get(0) : new RegexNode.Concat(items);
+    }
+
+    private RegexNode parseRepeat(RegexNode atom) {
+        while (pos < regex.length()) {
+            char c = regex.charAt(pos);
+            int min;
+            int max;
+            if (c == '*') {
+                min = 0;
+                max = -1;
+                pos++;
+            } else if (c == '+') {
+                min = 1;
+                max = -1;
+                pos++;
+            } else if (c == '?') {
+                min = 0;
+                max = 1;
+                pos++;
+            } else if (c == '{') {
+                pos++;
+                min = parseNumber();
+                max = min;
+                if (pos < regex.length() && regex.charAt(pos) == ',') {
+                    pos++;
+                    max = pos < regex.length() && regex.charAt(pos) == '}' ? -1 : parseNumber();
+                }
+                if (pos >= regex.length() || regex.charAt(pos) != '}' || (max >= 0 && max < min)) {
+                    throw error("bad repetition");
+                }
+                pos++;
+            } else {
+                return atom;
+            }
+            if (atom instanceof RegexNode.Anchor) {
+                throw error("quantified anchor");
+            }
+            boolean greedy = true;
+            if (pos < regex.length() && regex.charAt(pos) == '?') {
+                greedy = false;
+                pos++;
+            } else if (pos < regex.length() && regex.charAt(pos) == '+') {
+                throw error("possessive quantifiers are not supported");
+            }
+            atom = new RegexNode.Repeat(atom, min, max, greedy);
+        }
+        return atom;
+    }
+
+    private int parseNumber() {
+        int start = pos;
+        while (pos < regex.length() && Character.isDigit(regex.charAt(pos)) && regex.charAt(pos) < 128) {
+            pos++;
+        }
+        if (start == pos || pos - start > 4) {
+            throw error("bad repetition count");
+        }
+        return Integer.parseInt(regex.substring(start, pos));
+    }
+
+    private RegexNode parseAtom() {
+        char c = regex.charAt(pos++);
+        switch (c) {
+        case '(':
+            int index = -1;
+            if (regex.startsWith("?:", pos)) {
+                pos += 2;
+            } else if (pos < regex.length() && regex.charAt(pos) == '?') {
+                throw error("unsupported group construct");
+            } else {
+                index = ++groupCount;
+            }
+            RegexNode body = parseAlternation();
+            if (pos >= regex.length() || regex.charAt(pos) != ')') {
+                throw error("missing ')'");
+            }
+            pos++;
+            return index < 0 ? body : new RegexNode.Group(body, index);
+        case '[':
+            return new RegexNode.Chars(parseClass());
+        case '.':
+            return new RegexNode.Chars(CharClass.ANY);
+        case '^':
+            return new RegexNode.Anchor(true);
+        case '$':
+            return new RegexNode.Anchor(false);
+        case '\\':
+            return literal(parseEscape());
+        case '*':
+        case '+':
+        case '?':
+        case '{':
+            throw error("dangling quantifier");
+        default:
+            return literal(c);
+        }
+    }
+
+    private RegexNode literal(char c) {
+        CharClass charClass = literals.get(c);
+        if (charClass == null) {
+            charClass = CharClass.of(c, true);
+            literals.put(c, charClass);
+        }
+        return new RegexNode.Chars(charClass);
+    }
+
+    private CharClass parseClass() {
+        boolean negated = false;
+        if (pos < regex.length() && regex.charAt(pos) == '^') {
+            negated = true;
+            pos++;
+        }
+        char[] members = new char[16];
+        int count = 0;
+        boolean first = true;
+        while (true) {
+            if (pos >= regex.length()) {
+                throw error("missing ']'");
+            }
+            char c = regex.charAt(pos++);
+            if (c == ']' && !first) {
+                break;
+            }
+            if (c == ']' || c == '[') {
+                throw error("unsupported class syntax");
+            }
+            first = false;
+            if (c == '\\') {
+                c = parseEscape();
+            }
+            char hi = c;
+            if (pos + 1 < regex.length() && regex.charAt(pos) == '-' && regex.charAt(pos + 1) != ']') {
+                pos++;
+                hi = regex.charAt(pos++);
+                if (hi == '\\') {
+                    hi = parseEscape();
+                } else if (hi == '[') {
+                    throw error("unsupported class syntax");
+                }
+                if (hi < c) {
+                    throw error("bad class range");
+                }
+            }
+            if (count + 2 > members.length) {
+                char[] grown = new char[members.length * 2];
+                System.arraycopy(members, 0, grown, 0, count);
+                members = grown;
+            }
+            members[count++] = c;
+            members[count++] = hi;
+        }
+        return CharClass.of(members, count, negated, true);
+    }
+
+    /**
+     * Parse the char following a backslash. Only escapes standing for a single char are supported.
+     */
+    private char parseEscape() {
+        if (pos >= regex.length()) {
+            throw error("trailing '\\'");
+        }
+        char c = regex.charAt(pos++);
+        switch (c) {
+        case 't':
+            return '\t';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 'f':
+            return '\f';
+        default:
+            if (Character.isLetterOrDigit(c)) {
+                throw error("unsupported escape \\" + c);
+            }
+            return c;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at index " + pos + " in " + regex);
+    }
+
+}
@@ -0,0 +1,36 @@
+package cz.mallat.uasparser;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test the parser which hands out lanes
+ *
+ * @author chetan
+ *
+ */
+public class TestConcurrentUASparser {
+
+    @Test
+    public void testConcurrentParser() throws Exception {
+        UASparser reference = new UASparser(OnlineUpdater.getVendoredInputStream());
+        ConcurrentUASparser parser = new ConcurrentUASparser(OnlineUpdater.getVendoredInputStream(), 1);
+        assertEquals(1, parser.getLaneCount());
+        for (String ua : TestDatabase.USERAGENTS) {
+            assertEquals(reference.parse(ua).toString(), parser.parse(ua).toString());
+            assertEquals(reference.parseBrowserOnly(ua).toString(), parser.parseBrowserOnly(ua).toString());
+        }
+        assertEquals(0, parser.getTemporaryLaneCount());
+
+        // the lanes see the caches attached later
+        parser.setSkeletonCache(new SkeletonCache(100));
+        for (String ua : TestDatabase.USERAGENTS) {
+            assertEquals(reference.parse(ua).toString(), parser.parse(ua).toString());
+        }
+        assertTrue(parser.getSkeletonCache().size() > 0);
+
+        TestDatabase.assertConcurrentlyEqual(reference, parser);
+    }
+
+}
@@ -0,0 +1,113 @@
+package cz.mallat.uasparser;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import cz.mallat.uasparser.regex.JdkRegexEngine;
+import cz.mallat.uasparser.regex.LinearRegexEngine;
+import cz.mallat.uasparser.regex.RegexMatcher;
+
+/**
+ * Make sure the prefiltered, automaton and other engine scans give the same results as a plain
+ * jregex scan of every table, on a corpus of user agents: the robots of the definition file and
+ * browser, OS and device tokens of its regexes put together
+ *
+ * @author chetan
+ *
+ */
+public class TestCorpus {
+
+    /**
+     * The original scan: every regex of a table in order, no prefilter
+     */
+    static class ScanningUASparser extends UASparser {
+
+        ScanningUASparser() throws IOException {
+            super(OnlineUpdater.getVendoredInputStream());
+        }
+
+        @Override
+        protected void processBrowserRegex(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
+            for (int index = 0; index < db.browserPatterns.length; index++) {
+                RegexMatcher matcher = db.browserPatterns[index].matcher(useragent);
+                if (matcher.find()) {
+                    applyBrowserMatch(db, db.browserTargets[index], matcher, uaInfo);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        protected void processOsRegex(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
+            for (int index = 0; index < db.osPatterns.length; index++) {
+                if (db.osPatterns[index].matcher(useragent).find()) {
+                    uaInfo.setOsEntry(db.oses[db.osTargets[index]]);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        protected void processDeviceRegex(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
+            for (int index = 0; index < db.devicePatterns.length; index++) {
+                if (db.devicePatterns[index].matcher(useragent).find()) {
+                    uaInfo.setDeviceEntry(db.devices[db.deviceTargets[index]]);
+                    return;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCorpus() throws IOException {
+        List<String> useragents = readCorpus();
+        List<String> expected = parseAll(new ScanningUASparser(), useragents);
+
+        UASparser twoPhase = new UASparser(OnlineUpdater.getVendoredInputStream());
+        twoPhase.setTwoPhaseMatching(true);
+        UASparser[] parsers = { new UASparser(OnlineUpdater.getVendoredInputStream()), twoPhase,
+                new AutomatonUASparser(OnlineUpdater.getVendoredInputStream()),
+                new UASparser(OnlineUpdater.getVendoredInputStream(), new JdkRegexEngine()),
+                new SingleThreadedUASparser(OnlineUpdater.getVendoredInputStream(), new LinearRegexEngine()) };
+        for (UASparser parser : parsers) {
+            List<String> actual = parseAll(parser, useragents);
+            for (int i = 0; i < useragents.size(); i++) {
+                assertEquals(parser.getClass().getSimpleName() + " with " + parser.getRegexEngine().getClass().getSimpleName()
+                        + ": " + useragents.get(i), expected.get(i), actual.get(i));
+            }
+        }
+    }
+
+    private static List<String> parseAll(UASparser parser, List<String> useragents) throws IOException {
+        List<String> results = new ArrayList<String>(useragents.size());
+        for (String ua : useragents) {
+            UserAgentInfo uai = parser.parse(ua);
+            results.add(uai + "|" + uai.getBrowserVersionInfo() + "|" + uai.getDeviceType());
+        }
+        return results;
+    }
+
+    private static List<String> readCorpus() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                TestCorpus.class.getClassLoader().getResourceAsStream("useragents.txt.gz")), "UTF-8"));
+        List<String> useragents = new ArrayList<String>();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                useragents.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return useragents;
+    }
+
+}
@@ -0,0 +1,263 @@
+package cz.mallat.uasparser;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import cz.mallat.uasparser.regex.CompiledRegex;
+import cz.mallat.uasparser.regex.JRegexEngine;
+import cz.mallat.uasparser.regex.JdkRegexEngine;
+import cz.mallat.uasparser.regex.RegexMatcher;
+
+/**
+ * Test building and publishing of database snapshots
+ *
+ * @author chetan
+ *
+ */
+public class TestDatabase {
+
+    static final String[] USERAGENTS = {
+            "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12",
+            "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.19",
+            "Mozilla/4.0 (compatible; MSIE 7.0; Windows NT 6.1; MSOffice 12)",
+            "Mozilla/5.0 (iPhone; U; CPU iPhone OS 4_3_3 like Mac OS X; en-us) AppleWebKit/533.17.9 (KHTML, like Gecko) Version/5.0.2 Mobile/8J2 Safari/6533.18.5",
+            "Opera/9.80 (Windows NT 6.1; U; en) Presto/2.10.229 Version/11.60",
+            "Pingdom.com_bot_version_1.4_(http://www.pingdom.com/)",
+            "foo/1.0" };
+
+    @Test
+    public void testRecompile() throws IOException {
+        UASparser parser = new UASparser(OnlineUpdater.getVendoredInputStream());
+        Database db = parser.database;
+        parser.setRegexEngine(new JdkRegexEngine());
+
+        // a new snapshot with the same tables, the old one is left alone
+        assertNotSame(db, parser.database);
+        assertSame(db.browserMap, parser.database.browserMap);
+        assertTrue(db.regexEngine instanceof JRegexEngine);
+        assertTrue(parser.database.regexEngine instanceof JdkRegexEngine);
+
+        // attaching a cache shares the compiled state
+        db = parser.database;
+        parser.setSkeletonCache(new SkeletonCache(100));
+        assertNotSame(db, parser.database);
+        assertSame(db.browserPatterns, parser.database.browserPatterns);
+        assertNull(db.browserSkeletonTable);
+    }
+
+    @Test
+    public void testReloadWhileParsing() throws Exception {
+        UASparser reference = new MultithreadedUASparser(OnlineUpdater.getVendoredInputStream());
+        final String[] expected = new String[USERAGENTS.length];
+        for (int i = 0; i < USERAGENTS.length; i++) {
+            expected[i] = reference.parse(USERAGENTS[i]).toString();
+        }
+
+        final UASparser parser = new MultithreadedUASparser(OnlineUpdater.getVendoredInputStream());
+        parser.setCache(new UserAgentInfoCache(100));
+        parser.setOffHeapCache(new OffHeapUserAgentInfoCache(1 << 20));
+        parser.setSkeletonCache(new SkeletonCache(100));
+
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        final boolean[] done = new boolean[1];
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (!isDone()) {
+                            for (int i = 0; i < USERAGENTS.length; i++) {
+                                String result = parser.parse(USERAGENTS[i]).toString();
+                                if (!expected[i].equals(result)) {
+                                    errors.add(result);
+                                    return;
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e.toString());
+                    }
+                }
+
+                private boolean isDone() {
+                    synchronized (done) {
+                        return done[0];
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (int i = 0; i < 6; i++) {
+            parser.loadDataFromFile(OnlineUpdater.getVendoredInputStream());
+            parser.setTwoPhaseMatching(i % 2 == 0);
+        }
+        synchronized (done) {
+            done[0] = true;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+    }
+
+    @Test
+    public void testSharedPatterns() throws Exception {
+        final MultithreadedUASparser parser = new MultithreadedUASparser(OnlineUpdater.getVendoredInputStream());
+        final RegexMatcher[][] matchers = new RegexMatcher[2][];
+        final String[] results = new String[2];
+        for (int t = 0; t < 2; t++) {
+            final int index = t;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results[index] = parser.parse(USERAGENTS[0]).toString();
+                        matchers[index] = parser.getBrowserMatchers(parser.database);
+                    } catch (IOException e) {
+                        results[index] = e.toString();
+                    }
+                }
+            };
+            thread.start();
+            thread.join();
+        }
+
+        // one set of patterns, a set of matchers per thread
+        assertEquals(results[0], results[1]);
+        assertNotNull(parser.database.browserPatterns);
+        assertNotSame(matchers[0], matchers[1]);
+        assertEquals(parser.database.browserPatterns.length, matchers[0].length);
+        assertEquals(2, parser.getMatcherSetCount());
+        assertTrue(parser.getMatcherSetNanos() > 0);
+        assertTrue(parser.getMatcherSetBytes() == -1 || parser.getMatcherSetBytes() > 0);
+    }
+
+    @Test
+    public void testLazyCompilation() throws Exception {
+        UASparser[] parsers = { new UASparser(), new SingleThreadedUASparser(), new AutomatonUASparser() };
+        for (UASparser parser : parsers) {
+            UASparser reference = parser.getClass().newInstance();
+            reference.load(OnlineUpdater.getVendoredInputStream());
+            parser.setLazyCompilation(true);
+            parser.load(OnlineUpdater.getVendoredInputStream());
+            for (String ua : USERAGENTS) {
+                assertEquals(reference.parse(ua).toString(), parser.parse(ua).toString());
+            }
+        }
+
+        UASparser parser = parsers[0];
+        Database db = parser.database;
+        assertTrue(compiledCount(db.browserPatterns) > 0);
+        assertTrue(compiledCount(db.browserPatterns) < db.browserPatterns.length);
+
+        parser.setBackgroundWarmUp(true);
+        for (int i = 0; i < 200 && compiledCount(db.devicePatterns) < db.devicePatterns.length; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(db.browserPatterns.length, compiledCount(db.browserPatterns));
+        assertEquals(db.osPatterns.length, compiledCount(db.osPatterns));
+        assertEquals(db.devicePatterns.length, compiledCount(db.devicePatterns));
+
+        parser.setLazyCompilation(false);
+        assertEquals(0, compiledCount(parser.database.browserPatterns));
+        assertFalse(parser.database.browserPatterns[0] instanceof LazyRegex);
+    }
+
+    /**
+     * Parse the user agents on a few threads at once, comparing every result to the reference
+     * parser
+     */
+    static void assertConcurrentlyEqual(final UASparser reference, final UASparser parser)
+            throws InterruptedException {
+        Thread[] threads = new Thread[4];
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20; i++) {
+                            for (String ua : USERAGENTS) {
+                                if (!reference.parse(ua).toString().equals(parser.parse(ua).toString())) {
+                                    failures.add(ua);
+                                }
+                            }
+                        }
+                    } catch (IOException e) {
+                        failures.add(e.toString());
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), failures);
+    }
+
+    private static int compiledCount(CompiledRegex[] patterns) {
+        int count = 0;
+        for (CompiledRegex pattern : patterns) {
+            if (pattern instanceof LazyRegex && ((LazyRegex) pattern).isCompiled()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testParallelBuild() throws IOException {
+        // a single thread makes the build steps run the chunks they wait for themselves
+        ExecutorService[] executors = { Executors.newFixedThreadPool(1), Executors.newFixedThreadPool(4) };
+        try {
+            for (ExecutorService executor : executors) {
+                UASparser[] parsers = { new UASparser(OnlineUpdater.getVendoredInputStream()),
+                        new MultithreadedUASparser(OnlineUpdater.getVendoredInputStream()),
+                        new AutomatonUASparser(OnlineUpdater.getVendoredInputStream()) };
+                for (UASparser parser : parsers) {
+                    Database db = parser.database;
+                    List<String> expected = new ArrayList<String>();
+                    for (String ua : USERAGENTS) {
+                        expected.add(parser.parse(ua).toString());
+                    }
+
+                    parser.setBuildExecutor(executor);
+                    parser.setSkeletonCache(new SkeletonCache(100));
+                    parser.loadDataFromFile(OnlineUpdater.getVendoredInputStream());
+                    assertNotSame(db, parser.database);
+                    assertNotNull(parser.database.browserSkeletonTable);
+
+                    List<String> actual = new ArrayList<String>();
+                    for (String ua : USERAGENTS) {
+                        actual.add(parser.parse(ua).toString());
+                    }
+                    assertEquals(expected, actual);
+
+                    parser.setTwoPhaseMatching(true);
+                    actual.clear();
+                    for (String ua : USERAGENTS) {
+                        actual.add(parser.parse(ua).toString());
+                    }
+                    assertEquals(expected, actual);
+                }
+            }
+        } finally {
+            for (ExecutorService executor : executors) {
+                executor.shutdown();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package cz.mallat.uasparser;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import cz.mallat.uasparser.fileparser.PHPFileParser;
+
+/**
+ * Test against the binary form of the database
+ *
+ * @author chetan
+ *
+ */
+public class TestDatabaseFile extends TestParsers {
+
+    private static byte[] binary;
+
+    @Override
+    protected InputStream getDataInputStream() {
+        try {
+            if (binary == null) {
+                binary = toBinary(OnlineUpdater.getVendoredInputStream());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new ByteArrayInputStream(binary);
+    }
+
+    private static byte[] toBinary(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DatabaseFile.write(new PHPFileParser(is).getSections(), out);
+        return out.toByteArray();
+    }
+
+    @Override
+    @Test
+    public void runOnlineUAParser() throws IOException {
+        // disable
+    }
+
+    @Override
+    @Test
+    public void runCachedOnlineUAParser() throws IOException {
+        // disable
+    }
+
+    @Test
+    public void testMappedFile() throws IOException {
+        File file = File.createTempFile("uas", ".bin");
+        file.deleteOnExit();
+        DatabaseFile.write(new PHPFileParser(OnlineUpdater.getVendoredInputStream()).getSections(), file);
+
+        UASparser text = new UASparser(OnlineUpdater.getVendoredInputStream());
+        UASparser mapped = new UASparser(file.getPath());
+        assertEquals(text.database.robotsMap.keySet(), mapped.database.robotsMap.keySet());
+        assertEquals(Arrays.asList(text.database.browserRegMap.keySet().toArray()),
+                Arrays.asList(mapped.database.browserRegMap.keySet().toArray()));
+        assertEquals(text.database.deviceRegMap, mapped.database.deviceRegMap);
+        for (String ua : text.database.robotsMap.keySet()) {
+            assertEquals(text.parse(ua).toString(), mapped.parse(ua).toString());
+        }
+        String firefox = "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12";
+        assertEquals(text.parse(firefox).toString(), mapped.parse(firefox).toString());
+    }
+
+    @Test
+    public void testOldDatabase() throws IOException {
+        byte[] old = toBinary(new GZIPInputStream(getClass().getClassLoader().getResourceAsStream("uas-nodevice.txt.gz")));
+        UASparser parser = new UASparser(new ByteArrayInputStream(old));
+        assertNull(parser.database.deviceMap);
+        assertNull(parser.database.deviceRegMap);
+        assertNotNull(parser.database.browserRegMap);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        byte[] truncated = Arrays.copyOf(toBinary(OnlineUpdater.getVendoredInputStream()), 100000);
+        new UASparser(new ByteArrayInputStream(truncated));
+    }
+
+}
@@ -0,0 +1,102 @@
+package cz.mallat.uasparser;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import jregex.Pattern;
+
+import org.junit.Test;
+
+import cz.mallat.uasparser.regex.LiteralPrefilter;
+
+/**
+ * Make sure the literal prefilter never drops a pattern which would have matched
+ *
+ * @author chetan
+ *
+ */
+public class TestLiteralPrefilter {
+
+    @Test
+    public void testCandidates() {
+        LiteralPrefilter prefilter = new LiteralPrefilter(Arrays.asList(
+                "^Mozilla.*Android.*AppleWebKit.*Chrome.*OPR\\/([0-9\\.]+)",
+                "^FlyCast\\/([0-9\\.]+)",
+                "Android 2.0|Android 2.1",
+                "(PlayBook|RIM Tablet)"));
+
+        BitSet candidates = prefilter.candidates("flycast/1.2");
+        assertFalse(candidates.get(0));
+        assertTrue(candidates.get(1));
+        assertFalse(candidates.get(2));
+        assertTrue(candidates.get(3)); // no literal outside of the group, always checked
+
+        candidates = prefilter.candidates("Mozilla/5.0 (Linux; Android 2.1) AppleWebKit Chrome OPR/18.0");
+        assertTrue(candidates.get(0));
+        assertFalse(candidates.get(1));
+        assertTrue(candidates.get(2));
+    }
+
+    @Test
+    public void testEscapes() {
+        // each pattern matches its user agent, the escapes must not be read as literal digits
+        String[][] cases = { { "Nokia\\x41gent\\/1", "NokiaAgent/1" },
+                { "Nokia\\x{41}gent\\/1", "NokiaAgent/1" },
+                { "Nokia\\u0041gent\\/1", "NokiaAgent/1" },
+                { "Nokia\\0101gent\\/1", "NokiaAgent/1" },
+                { "Nokia\\p{Lu}gent\\/1", "NokiaAgent/1" },
+                { "Nokia\\cIgent\\/1", "Nokia\tgent/1" },
+                { "(Nok)ia\\1gent", "NokiaNokgent" },
+                { "Nokia\\Q(1)\\Egent", "Nokia(1)gent" } };
+        for (String[] c : cases) {
+            assertTrue(c[0], java.util.regex.Pattern.compile(c[0]).matcher(c[1]).find());
+            LiteralPrefilter prefilter = new LiteralPrefilter(Arrays.asList(c[0]));
+            assertTrue(c[0], prefilter.candidates(c[1]).get(0));
+        }
+    }
+
+    @Test
+    public void testNoMissedMatches() throws IOException {
+        UASparser parser = new UASparser(OnlineUpdater.getVendoredInputStream());
+
+        List<String> useragents = new ArrayList<String>();
+        int i = 0;
+        for (String ua : parser.database.robotsMap.keySet()) {
+            if (i++ % 5 == 0) {
+                useragents.add(ua);
+            }
+        }
+        useragents.add("Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12");
+        useragents.add("Mozilla/5.0 (Macintosh; Intel Mac OS X 10_5_8) AppleWebKit/534.50.2 (KHTML, like Gecko)");
+        useragents.add("Mozilla/5.0 (iPad; CPU OS 6_0 like Mac OS X) AppleWebKit/537.51.1 (KHTML, like Gecko) Version/6.0 Mobile/11A465 Safari/9537.53");
+        useragents.add("Mozilla/5.0 (Linux; U; Android 4.0.4; en-au; GT-N7000 Build/IMM76D) AppleWebKit/534.30 (KHTML, like Gecko) Version/4.0 Mobile Safari/534.30 Maxthon/4.1.1.2000");
+
+        assertNoMissedMatches(parser.database.browserPrefilter, parser.database.browserRegMap, useragents);
+        assertNoMissedMatches(parser.database.osPrefilter, parser.database.osRegMap, useragents);
+        assertNoMissedMatches(parser.database.devicePrefilter, parser.database.deviceRegMap, useragents);
+    }
+
+    private void assertNoMissedMatches(LiteralPrefilter prefilter, Map<String, Long> regMap, List<String> useragents) {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (String regex : regMap.keySet()) {
+            patterns.add(new Pattern(regex, Pattern.IGNORE_CASE | Pattern.DOTALL));
+        }
+        assertEquals(patterns.size(), prefilter.size());
+
+        for (String ua : useragents) {
+            BitSet candidates = prefilter.candidates(ua);
+            for (int i = 0; i < patterns.size(); i++) {
+                if (!candidates.get(i)) {
+                    assertFalse(patterns.get(i) + " matches " + ua, patterns.get(i).matcher(ua).find());
+                }
+            }
+        }
+    }
+
+}
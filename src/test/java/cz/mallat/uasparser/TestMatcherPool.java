@@ -0,0 +1,73 @@
+package cz.mallat.uasparser;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import cz.mallat.uasparser.regex.RegexMatcher;
+
+/**
+ * Test the matcher pools and the parser using them
+ *
+ * @author chetan
+ *
+ */
+public class TestMatcherPool {
+
+    @Test
+    public void testMatcherPool() throws Exception {
+        UASparser parser = new UASparser(OnlineUpdater.getVendoredInputStream());
+        MatcherPool pool = new MatcherPool(parser.database.osPatterns, 1);
+
+        RegexMatcher[] first = pool.borrow();
+        RegexMatcher[] second = pool.borrow();
+        assertNotSame(first, second);
+        assertEquals(parser.database.osPatterns.length, first.length);
+        // filling the empty pool is not a miss, only the borrow finding the set in use
+        assertEquals(1, pool.getMissCount());
+
+        // bounded: the second set finds the slot taken and is dropped
+        pool.release(first);
+        pool.release(second);
+        assertSame(first, pool.borrow());
+        assertEquals(1, pool.getMissCount());
+
+        // short-lived threads, each starting at another slot, all find the one free set
+        final MatcherPool big = new MatcherPool(parser.database.osPatterns, 64);
+        final RegexMatcher[] shared = big.borrow();
+        big.release(shared);
+        for (int i = 0; i < 20; i++) {
+            final RegexMatcher[][] borrowed = new RegexMatcher[1][];
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    borrowed[0] = big.borrow();
+                    big.release(borrowed[0]);
+                }
+            };
+            thread.start();
+            thread.join();
+            assertSame(shared, borrowed[0]);
+        }
+        assertEquals(0, big.getMissCount());
+    }
+
+    @Test
+    public void testPooledParser() throws Exception {
+        UASparser reference = new UASparser(OnlineUpdater.getVendoredInputStream());
+        PooledUASparser parser = new PooledUASparser(OnlineUpdater.getVendoredInputStream(), 2);
+        assertEquals(2, parser.getPoolSize());
+
+        // the pools fill on first return, then the same matchers are reused
+        for (String ua : TestDatabase.USERAGENTS) {
+            assertEquals(reference.parse(ua).toString(), parser.parse(ua).toString());
+        }
+        assertEquals(0, parser.getPoolMissCount());
+
+        TestDatabase.assertConcurrentlyEqual(reference, parser);
+
+        parser.setPoolSize(1);
+        assertEquals(1, ((PooledUASparser.PooledDatabase) parser.database).browserPool.size());
+    }
+
+}
@@ -0,0 +1,115 @@
+package cz.mallat.uasparser;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import jregex.Pattern;
+
+import org.junit.Test;
+
+import cz.mallat.uasparser.regex.CompiledRegex;
+import cz.mallat.uasparser.regex.JRegexEngine;
+import cz.mallat.uasparser.regex.MultiPatternAutomaton;
+import cz.mallat.uasparser.regex.RegexEngine;
+
+/**
+ * Make sure the combined automaton finds the same pattern as a sequential search
+ *
+ * @author chetan
+ *
+ */
+public class TestMultiPatternAutomaton {
+
+    @Test
+    public void testFirstMatch() {
+        // chunks of two patterns
+        MultiPatternAutomaton automaton = new MultiPatternAutomaton(Arrays.asList(
+                "^FlyCast\\/([0-9\\.]+)",
+                "Opera Mini$",
+                "Android [0-9]+\\.[0-9]+",
+                "(PlayBook|RIM Tablet)",
+                "mozilla.*"), 2, 100);
+
+        assertEquals(0, automaton.firstMatch("flycast/1.2 Android 2.1"));
+        assertEquals(2, automaton.firstMatch("xFlyCast/1.2 Android 2.1"));
+        assertEquals(1, automaton.firstMatch("Foo Opera Mini"));
+        assertEquals(1, automaton.firstMatch("Foo Opera Mini\r\n"));
+        assertEquals(4, automaton.firstMatch("Mozilla Opera Mini\r"));
+        assertEquals(3, automaton.firstMatch("Mozilla (RIM tablet)"));
+        assertEquals(-1, automaton.firstMatch("Android x"));
+        assertEquals(-1, automaton.firstMatch(""));
+    }
+
+    @Test
+    public void testEngineFallback() throws IOException {
+        String ua = "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/30.0.1599.101 Safari/537.36";
+        UASparser plain = new UASparser(OnlineUpdater.getVendoredInputStream());
+        UserAgentInfo unchanged = plain.parse(ua);
+        final String winner = plain.database.browserPatterns[unchanged.browserIndex].pattern();
+
+        // an engine which never matches the pattern the automaton finds
+        RegexEngine engine = new RegexEngine() {
+            private final RegexEngine jregex = new JRegexEngine();
+
+            @Override
+            public CompiledRegex compile(String regex) {
+                return jregex.compile(regex.equals(winner) ? "[^\\s\\S]" : regex);
+            }
+        };
+        UserAgentInfo expected = new UASparser(OnlineUpdater.getVendoredInputStream(), engine).parse(ua);
+        assertTrue(expected.getBrowserVersionInfo() != null);
+        assertFalse(unchanged.toString().equals(expected.toString()));
+        UASparser parser = new AutomatonUASparser(OnlineUpdater.getVendoredInputStream(), engine);
+        assertEquals(expected.toString(), parser.parse(ua).toString());
+    }
+
+    @Test
+    public void testUnsupported() {
+        MultiPatternAutomaton automaton = new MultiPatternAutomaton(Arrays.asList(
+                "foo", "(?=bar)", "\\bbaz", "bar"));
+
+        assertEquals(4, automaton.size());
+        assertArrayEquals(new int[] { 1, 2 }, automaton.getUnsupported());
+        assertEquals(3, automaton.firstMatch("baz bar"));
+    }
+
+    @Test
+    public void testSameAsSequential() throws IOException {
+        UASparser parser = new UASparser(OnlineUpdater.getVendoredInputStream());
+
+        List<String> useragents = new ArrayList<String>(parser.database.robotsMap.keySet());
+        useragents.add("Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12");
+        useragents.add("Mozilla/5.0 (iPad; CPU OS 6_0 like Mac OS X) AppleWebKit/537.51.1 (KHTML, like Gecko) Version/6.0 Mobile/11A465 Safari/9537.53");
+        useragents.add("Mozilla/5.0 (Linux; U; Android 4.0.4; en-au; GT-N7000 Build/IMM76D) AppleWebKit/534.30 (KHTML, like Gecko) Version/4.0 Mobile Safari/534.30 Maxthon/4.1.1.2000");
+
+        assertSameAsSequential(parser.database.browserRegMap, useragents);
+        assertSameAsSequential(parser.database.osRegMap, useragents);
+        assertSameAsSequential(parser.database.deviceRegMap, useragents);
+    }
+
+    private void assertSameAsSequential(Map<String, Long> regMap, List<String> useragents) {
+        MultiPatternAutomaton automaton = new MultiPatternAutomaton(regMap.keySet());
+        assertEquals(0, automaton.getUnsupported().length);
+
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (String regex : regMap.keySet()) {
+            patterns.add(new Pattern(regex, Pattern.IGNORE_CASE | Pattern.DOTALL));
+        }
+        for (String ua : useragents) {
+            int expected = -1;
+            for (int i = 0; i < patterns.size(); i++) {
+                if (patterns.get(i).matcher(ua).find()) {
+                    expected = i;
+                    break;
+                }
+            }
+            assertEquals(ua, expected, automaton.firstMatch(ua));
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package cz.mallat.uasparser;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Test the off-heap parse result cache
+ *
+ * @author chetan
+ *
+ */
+public class TestOffHeapUserAgentInfoCache {
+
+    private static final String FIREFOX = "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12";
+
+    @Test
+    public void testParse() throws IOException {
+        UASparser parser = new UASparser(OnlineUpdater.getVendoredInputStream());
+        OffHeapUserAgentInfoCache cache = new OffHeapUserAgentInfoCache(1 << 20);
+        parser.setOffHeapCache(cache);
+
+        UserAgentInfo uai = parser.parse(FIREFOX);
+        UserAgentInfo cached = parser.parse(FIREFOX);
+        assertNotSame(uai, cached);
+        assertEquals(uai.toString(), cached.toString());
+        assertEquals("3.0.12", cached.getBrowserVersionInfo());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // robots are not cached
+        String robot = "Pingdom.com_bot_version_1.4_(http://www.pingdom.com/)";
+        assertTrue(parser.parse(robot).isRobot());
+        assertTrue(parser.parse(robot).isRobot());
+        assertEquals(1, cache.getHitCount());
+
+        // a new database invalidates the cache
+        parser.loadDataFromFile(OnlineUpdater.getVendoredInputStream());
+        assertEquals("Firefox 3.0.12", parser.parse(FIREFOX).getUaName());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testOverwrite() throws IOException {
+        UASparser parser = new UASparser(OnlineUpdater.getVendoredInputStream());
+        OffHeapUserAgentInfoCache cache = new OffHeapUserAgentInfoCache(16 * 4096);
+        parser.setOffHeapCache(cache);
+
+        // far more than fits, the oldest records are overwritten
+        for (int i = 0; i < 20000; i++) {
+            UserAgentInfo uai = parser.parse(FIREFOX + "." + i);
+            assertEquals("Firefox 3.0.12." + i, uai.getUaName());
+        }
+        for (int i = 19999; i >= 0; i--) {
+            UserAgentInfo uai = parser.parse(FIREFOX + "." + i);
+            assertEquals("Firefox 3.0.12." + i, uai.getUaName());
+        }
+        assertTrue(cache.getHitCount() > 0);
+        assertTrue(cache.getHitCount() < 20000);
+    }
+
+    @Test
+    public void testOwner() throws IOException {
+        UASparser parser = new UASparser(OnlineUpdater.getVendoredInputStream());
+        UASparser other = new SingleThreadedUASparser(OnlineUpdater.getVendoredInputStream());
+        OffHeapUserAgentInfoCache cache = new OffHeapUserAgentInfoCache(1 << 20);
+        parser.setOffHeapCache(cache);
+        parser.parse(FIREFOX);
+        parser.setOffHeapCache(cache);
+        assertEquals("Firefox 3.0.12", parser.parse(FIREFOX).getUaName());
+        assertEquals(1, cache.getHitCount());
+        try {
+            other.setOffHeapCache(cache);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // the ids are those of the first parser
+        }
+        assertNull(other.getOffHeapCache());
+
+        // free again once the first parser lets go of it, without its records
+        parser.setOffHeapCache(new OffHeapUserAgentInfoCache(1 << 20));
+        other.setOffHeapCache(cache);
+        other.parse(FIREFOX);
+        assertEquals("Firefox 3.0.12", other.parse(FIREFOX).getUaName());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+}
@@ -22,10 +22,10 @@ public class TestOnlineUpdater {
         try {
 
             UASparser parser = new UASparser();
-            assertNull(parser.browserMap);
+            assertNull(parser.database);
 
             OnlineUpdater updater = new OnlineUpdater(parser, tmpDir.toString(), 1, TimeUnit.DAYS);
-            assertNotNull(parser.browserMap);
+            assertNotNull(parser.database.browserMap);
             assertTrue(updater.isAlive());
             updater.update(); // force immediate update
 
@@ -36,9 +36,9 @@ public class TestOnlineUpdater {
             assert(new File(tmpDir, OnlineUpdater.PROPERTIES_FILENAME).exists());
 
             parser = new UASparser();
-            assertNull(parser.browserMap);
+            assertNull(parser.database);
             parser.loadDataFromFile(new File(tmpDir, OnlineUpdater.CACHE_FILENAME));
-            assertNotNull(parser.browserMap);
+            assertNotNull(parser.database.browserMap);
 
         } finally {
 //            new File(tmpDir, OnlineUpdater.CACHE_FILENAME).delete();
@@ -0,0 +1,105 @@
+package cz.mallat.uasparser;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import cz.mallat.uasparser.fileparser.PHPFileHandler;
+import cz.mallat.uasparser.fileparser.PHPFileParser;
+import cz.mallat.uasparser.fileparser.Section;
+
+/**
+ * Test the single pass reading of definition files
+ *
+ * @author chetan
+ *
+ */
+public class TestPHPFileParser {
+
+    private static List<String> parse(String text) throws IOException {
+        final List<String> records = new ArrayList<String>();
+        PHPFileParser.parse(new StringReader(text), new PHPFileHandler() {
+            @Override
+            public void section(String name) {
+                records.add("[" + name + "]");
+            }
+
+            @Override
+            public void entry(String key, List<String> data) {
+                records.add(key + data);
+            }
+        });
+        return records;
+    }
+
+    @Test
+    public void testRecords() throws IOException {
+        String text = "top = 1\n"
+                + "; comment\n"
+                + "[browser]\n"
+                + "\n"
+                + "1[] = \"Firefox\"\n"
+                + "  1[] = \"\"\n"
+                + "2[]=\"Opera\"  \n"
+                + "1[] = plain\n"
+                + " [os] \n"
+                + "3[] = \"a = b\"\n";
+        List<String> expected = new ArrayList<String>();
+        expected.add("[unname section1]");
+        expected.add("top[1]");
+        expected.add("[browser]");
+        expected.add("1[Firefox, ]");
+        expected.add("2[Opera]");
+        expected.add("1[plain]");
+        expected.add("[os]");
+        expected.add("3[a = b]");
+        assertEquals(expected, parse(text));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMalformed() throws IOException {
+        parse("[browser]\nno value\n");
+    }
+
+    @Test
+    public void testSameAsSections() throws IOException {
+        UASparser streamed = new UASparser(OnlineUpdater.getVendoredInputStream());
+        UASparser parser = new UASparser();
+        parser.createInternalDataStructure(new PHPFileParser(OnlineUpdater.getVendoredInputStream()).getSections());
+
+        assertEquals(parser.database.robotsMap.keySet(), streamed.database.robotsMap.keySet());
+        assertEquals(parser.database.browserMap.keySet(), streamed.database.browserMap.keySet());
+        assertEquals(parser.database.browserTypeMap, streamed.database.browserTypeMap);
+        assertEquals(parser.database.browserOsMap, streamed.database.browserOsMap);
+        assertEquals(new ArrayList<String>(parser.database.browserRegMap.keySet()),
+                new ArrayList<String>(streamed.database.browserRegMap.keySet()));
+        assertEquals(parser.database.osRegMap, streamed.database.osRegMap);
+        assertEquals(parser.database.deviceRegMap, streamed.database.deviceRegMap);
+        String firefox = "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12";
+        assertEquals(parser.parse(firefox).toString(), streamed.parse(firefox).toString());
+    }
+
+    @Test
+    public void testOverriddenSectionHook() throws IOException {
+        final List<String> sections = new ArrayList<String>();
+        UASparser parser = new UASparser() {
+            @Override
+            protected void createInternalDataStructure(List<Section> sectionList) {
+                for (Section sec : sectionList) {
+                    sections.add(sec.getName());
+                }
+                super.createInternalDataStructure(sectionList);
+            }
+        };
+        parser.load(OnlineUpdater.getVendoredInputStream());
+        assertTrue(sections.contains("browser_reg"));
+        String firefox = "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12";
+        assertEquals("Firefox", parser.parse(firefox).getUaFamily());
+    }
+
+}
@@ -4,9 +4,14 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
 
 import org.junit.Test;
 
+import cz.mallat.uasparser.regex.JdkRegexEngine;
+import cz.mallat.uasparser.regex.LinearRegexEngine;
+
 /**
  * Test the various parser implementations
  *
@@ -47,6 +52,368 @@ public class TestParsers {
         testUserAgents(p);
     }
 
+    @Test
+    public void testAutomatonParser() throws IOException {
+        UASparser p = new AutomatonUASparser(getDataInputStream());
+        testUserAgents(p);
+    }
+
+    @Test
+    public void testJdkRegexEngine() throws IOException {
+        UASparser p = new UASparser(getDataInputStream(), new JdkRegexEngine());
+        testUserAgents(p);
+    }
+
+    @Test
+    public void testLinearRegexEngine() throws IOException {
+        UASparser p = new SingleThreadedUASparser(getDataInputStream(), new LinearRegexEngine());
+        testUserAgents(p);
+    }
+
+    @Test
+    public void testMatchBudget() throws IOException {
+        UASparser[] parsers = { new UASparser(getDataInputStream()),
+                new SingleThreadedUASparser(getDataInputStream()),
+                new AutomatonUASparser(getDataInputStream()) };
+        String ua = "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12";
+        for (UASparser p : parsers) {
+            p.setMatchBudget(1, 0);
+            UserAgentInfo uai = p.parse(ua);
+            assertTrue(uai.isTruncated());
+            assertEquals(1, p.getTruncatedParseCount());
+
+            // robots are not matched with regexes
+            uai = p.parse("Pingdom.com_bot_version_1.4_(http://www.pingdom.com/)");
+            assertTrue(uai.isRobot());
+            assertFalse(uai.isTruncated());
+
+            p.setMatchBudget(10000, 10000000000L);
+            uai = p.parse(ua);
+            assertFalse(uai.isTruncated());
+            assertEquals("Firefox 3.0.12", uai.getUaName());
+            assertEquals(1, p.getTruncatedParseCount());
+
+            p.setMatchBudget(0, 0);
+            testUserAgents(p);
+        }
+    }
+
+    @Test
+    public void testMatchBudgetLongInput() throws IOException {
+        UASparser[] parsers = { new UASparser(getDataInputStream()),
+                new SingleThreadedUASparser(getDataInputStream()),
+                new UASparser(getDataInputStream(), new JdkRegexEngine()) };
+        // takes the backtracking engines hundreds of milliseconds in a single OPR regex search
+        StringBuilder sb = new StringBuilder("Mozilla");
+        for (int i = 0; i < 100; i++) {
+            sb.append(" Android AppleWebKit Chrome");
+        }
+        String ua = sb.append(" OPR/").toString();
+        for (UASparser p : parsers) {
+            p.setMatchBudget(0, 5000000L);
+            for (int i = 0; i < 5; i++) {
+                long start = System.nanoTime();
+                UserAgentInfo uai = p.parse(ua + i);
+                assertTrue((System.nanoTime() - start) / 1000000 < 100);
+                assertTrue(uai.isTruncated());
+            }
+            assertEquals(5, p.getTruncatedParseCount());
+
+            // cut even when the budget would have been enough
+            p.setMatchBudget(0, 10000000000L);
+            assertTrue(p.parse(ua).isTruncated());
+            assertFalse(p.parse("Mozilla/5.0 (Windows NT 6.1; WOW64) Chrome/30.0.1599.101").isTruncated());
+        }
+
+        // the linear engine bounds every search, so it sees the whole user agent
+        UASparser p = new SingleThreadedUASparser(getDataInputStream(), new LinearRegexEngine());
+        p.setMatchBudget(0, 10000000000L);
+        UserAgentInfo uai = p.parse(ua + "12.0");
+        assertFalse(uai.isTruncated());
+        assertEquals("Opera Mobile", uai.getUaFamily());
+    }
+
+    @Test
+    public void testTwoPhaseMatching() throws IOException {
+        UASparser[] parsers = { new UASparser(getDataInputStream()),
+                new SingleThreadedUASparser(getDataInputStream()),
+                new MultithreadedUASparser(getDataInputStream()),
+                new AutomatonUASparser(getDataInputStream()) };
+        for (UASparser p : parsers) {
+            p.setTwoPhaseMatching(true);
+            testUserAgents(p);
+        }
+
+        assertEquals("^Mozilla(?:[^(]*)\\((?:a|[b(])\\)\\(?:x",
+                UASparser.removeCaptureGroups("^Mozilla([^(]*)\\((?:a|[b(])\\)\\(?:x"));
+    }
+
+    @Test
+    public void testReusedResult() throws IOException {
+        UASparser[] parsers = { new UASparser(getDataInputStream()),
+                new SingleThreadedUASparser(getDataInputStream()),
+                new ConcurrentUASparser(getDataInputStream()),
+                new AutomatonUASparser(getDataInputStream()) };
+        String firefox = "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12";
+        String robot = "Pingdom.com_bot_version_1.4_(http://www.pingdom.com/)";
+        for (UASparser p : parsers) {
+            UserAgentInfo uai = new UserAgentInfo();
+            StringBuilder ua = new StringBuilder("  ").append(firefox).append(' ');
+            assertSame(uai, p.parse(ua, uai));
+            assertEquals(p.parse(firefox).toString(), uai.toString());
+            assertEquals(ua.indexOf("3.0.12"), uai.getBrowserVersionStart());
+            assertEquals(ua.indexOf("3.0.12") + 6, uai.getBrowserVersionEnd());
+            assertEquals("Firefox 3.0.12", uai.getUaName());
+
+            ua.setLength(0);
+            ua.append(robot);
+            p.parse(ua, uai);
+            assertTrue(uai.isRobot());
+            assertEquals(p.parse(robot).toString(), uai.toString());
+            assertEquals(-1, uai.getBrowserVersionStart());
+
+            p.parse(null, uai);
+            assertEquals(new UserAgentInfo().toString(), uai.toString());
+
+            // the version of a user agent changed by the normalizer is a String
+            p.setNormalizer(new UserAgentNormalizer(0, false, true));
+            p.parse(firefox.replace(" Gecko", "   Gecko"), uai);
+            assertEquals("Firefox 3.0.12", uai.getUaName());
+            assertEquals(-1, uai.getBrowserVersionStart());
+            p.setNormalizer(null);
+        }
+
+        if (AllocationCounter.isSupported()) {
+            UASparser p = parsers[1];
+            UserAgentInfo uai = new UserAgentInfo();
+            StringBuilder ua = new StringBuilder(firefox);
+            for (int i = 0; i < 1000; i++) {
+                p.parse(ua, uai);
+            }
+            long bytes = AllocationCounter.allocatedBytes();
+            for (int i = 0; i < 1000; i++) {
+                p.parse(ua, uai);
+            }
+            // less than a byte per parse, leaving room for the counter itself
+            assertTrue(AllocationCounter.allocatedBytes() - bytes < 1000);
+        }
+    }
+
+    @Test
+    public void testByteInput() throws IOException {
+        UASparser p = new SingleThreadedUASparser(getDataInputStream());
+        String firefox = "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12";
+        String robot = "Pingdom.com_bot_version_1.4_(http://www.pingdom.com/)";
+        String nonAscii = "Mozilla/5.0 (Windows; U; Windows NT 5.1; f\u00fc-\u20ac; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12";
+        UserAgentInfo uai = new UserAgentInfo();
+        for (String ua : new String[] { firefox, robot, nonAscii }) {
+            byte[] line = ("GET / \"" + ua + "\" 200").getBytes("UTF-8");
+            int offset = "GET / \"".length();
+            int length = ua.getBytes("UTF-8").length;
+            String expected = p.parse(ua).toString() + p.parse(ua).getUaName();
+
+            p.parseUtf8(line, offset, length, uai);
+            assertEquals(expected, uai.toString() + uai.getUaName());
+
+            ByteBuffer heap = ByteBuffer.wrap(line, offset, length);
+            p.parseUtf8(heap, uai);
+            assertEquals(expected, uai.toString() + uai.getUaName());
+            assertEquals(offset, heap.position());
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(line.length);
+            direct.put(line);
+            direct.position(offset);
+            direct.limit(offset + length);
+            p.parseUtf8(direct, uai);
+            assertEquals(expected, uai.toString() + uai.getUaName());
+        }
+
+        // offsets of an ASCII user agent are byte offsets
+        byte[] bytes = firefox.getBytes("UTF-8");
+        p.parseUtf8(bytes, 0, bytes.length, uai);
+        assertEquals("3.0.12", new String(bytes, uai.getBrowserVersionStart(),
+                uai.getBrowserVersionEnd() - uai.getBrowserVersionStart(), "UTF-8"));
+    }
+
+    @Test
+    public void testProjectedParse() throws IOException {
+        final int[] scans = new int[3];
+        UASparser counting = new SingleThreadedUASparser(getDataInputStream()) {
+            @Override
+            protected void processBrowserRegex(Database db, CharSequence useragent, UserAgentInfo retObj) {
+                scans[0]++;
+                super.processBrowserRegex(db, useragent, retObj);
+            }
+
+            @Override
+            protected void processOsRegex(Database db, CharSequence useragent, UserAgentInfo retObj) {
+                scans[1]++;
+                super.processOsRegex(db, useragent, retObj);
+            }
+
+            @Override
+            protected void processDeviceRegex(Database db, CharSequence useragent, UserAgentInfo uaInfo) {
+                scans[2]++;
+                super.processDeviceRegex(db, useragent, uaInfo);
+            }
+        };
+        UASparser[] parsers = { new UASparser(getDataInputStream()), counting,
+                new PooledUASparser(getDataInputStream()), new ConcurrentUASparser(getDataInputStream()),
+                new AutomatonUASparser(getDataInputStream()) };
+        String[] uas = {
+                "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12",
+                "Mozilla/5.0 (Linux; U; Android 4.0.4; en-au; GT-N7000 Build/IMM76D) AppleWebKit/534.30 (KHTML, like Gecko) Version/4.0 Mobile Safari/534.30 Maxthon/4.1.1.2000",
+                "Mozilla/5.0 (iPhone; U; CPU iPhone OS 4_3_3 like Mac OS X; en-us) AppleWebKit/533.17.9 (KHTML, like Gecko) Version/5.0.2 Mobile/8J2 Safari/6533.18.5",
+                "Mozilla/5.0 (iPad; CPU OS 6_0 like Mac OS X) AppleWebKit/536.26 (KHTML, like Gecko) Version/6.0 Mobile/10A5355d Safari/8536.25",
+                "Pingdom.com_bot_version_1.4_(http://www.pingdom.com/)",
+                "foo/1.0" };
+        for (UASparser p : parsers) {
+            p.setTwoPhaseMatching(p == parsers[4]);
+            for (String ua : uas) {
+                UserAgentInfo full = p.parse(ua);
+                assertEquals(full.toString(), p.parse(ua, EnumSet.allOf(UaField.class)).toString());
+
+                UserAgentInfo uai = p.parse(ua, EnumSet.of(UaField.ROBOT, UaField.DEVICE));
+                assertEquals(full.isRobot(), uai.isRobot());
+                assertEquals(full.getDeviceType(), uai.getDeviceType());
+
+                uai = p.parse(ua, EnumSet.of(UaField.BROWSER));
+                assertEquals(full.getUaFamily(), uai.getUaFamily());
+                assertEquals(full.isRobot() ? full.getBrowserVersionInfo() : null, uai.getBrowserVersionInfo());
+
+                uai = p.parse(ua, EnumSet.of(UaField.TYPE, UaField.BROWSER_VERSION));
+                assertEquals(full.getType(), uai.getType());
+                assertEquals(full.getBrowserVersionInfo(), uai.getBrowserVersionInfo());
+
+                uai = p.parse(ua, EnumSet.of(UaField.OS));
+                assertEquals(full.getOsName(), uai.getOsName());
+            }
+        }
+
+        // only the stages the fields need run
+        String firefox = uas[0];
+        scans[0] = scans[1] = scans[2] = 0;
+        counting.parse(firefox, EnumSet.of(UaField.BROWSER));
+        assertArrayEquals(new int[] { 1, 0, 0 }, scans);
+        scans[0] = 0;
+        counting.parse(firefox, EnumSet.of(UaField.OS));
+        assertArrayEquals(new int[] { 1, 1, 0 }, scans);
+        scans[0] = scans[1] = 0;
+        counting.parse(firefox, EnumSet.of(UaField.ROBOT));
+        assertArrayEquals(new int[] { 0, 0, 0 }, scans);
+        if (this.testDeviceInfo) {
+            // a device pattern matches, no type needed for a guess
+            counting.parse(uas[3], EnumSet.of(UaField.DEVICE));
+            assertArrayEquals(new int[] { 0, 0, 1 }, scans);
+            scans[2] = 0;
+            counting.parse(firefox, EnumSet.of(UaField.DEVICE));
+            assertArrayEquals(new int[] { 1, 0, 1 }, scans);
+        }
+    }
+
+    @Test
+    public void testRobotClassification() throws IOException {
+        UASparser p = new SingleThreadedUASparser(getDataInputStream());
+        String robot = "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)";
+        String newVersion = "Mozilla/5.0 (compatible; Googlebot/9.9; +http://www.google.com/bot.html)";
+        String firefox = "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12";
+
+        // the lookups are built on first use
+        assertNull(p.database.robotClassifier);
+        assertNull(p.database.robotPrefixes);
+
+        // exact match, same as parse
+        assertTrue(p.isRobot(robot));
+        assertNull(p.database.robotClassifier);
+        assertTrue(p.isRobot(new StringBuilder(" ").append(robot)));
+        assertEquals(p.parse(robot).toString(), p.classifyRobot(robot).toString());
+
+        // not in the robot table, found by its product token
+        assertFalse(p.parse(newVersion).isRobot());
+        assertTrue(p.isRobot(newVersion));
+        UserAgentInfo uai = p.classifyRobot(newVersion);
+        assertTrue(uai.isRobot());
+        assertEquals("Googlebot", uai.getUaFamily());
+
+        assertFalse(p.isRobot(firefox));
+        assertFalse(p.isRobot("Mozilla/5.0 (compatible; MSIE 9.0; Windows NT 6.1; Trident/5.0)"));
+        assertFalse(p.classifyRobot(firefox).isRobot());
+        assertFalse(p.isRobot(null));
+
+        // neither generic words nor app tokens such as "Pinterest/Android" name a robot
+        String weChat = "Mozilla/5.0 (Linux; Android 12; M2102J20SG Build/SKQ1.211006.001; wv) AppleWebKit/537.36 "
+                + "(KHTML, like Gecko) Version/4.0 Chrome/86.0.4240.99 XWEB/3234 MMWEBSDK/20220402 Mobile Safari/537.36 "
+                + "MMWEBID/6185 MicroMessenger/8.0.20.2100(0x2800143B) WeChat/arm64 Weixin NetType/WIFI Language/zh_CN ABI/arm64";
+        String pinterest = "Mozilla/5.0 (Linux; Android 11; SM-G991B Build/RP1A.200720.012; wv) AppleWebKit/537.36 "
+                + "(KHTML, like Gecko) Version/4.0 Chrome/96.0.4664.104 Mobile Safari/537.36 [Pinterest/Android]";
+        for (String ua : new String[] { weChat, pinterest }) {
+            assertFalse(ua, p.isRobot(ua));
+            assertFalse(ua, p.classifyRobot(ua).isRobot());
+        }
+        assertNotNull(p.database.robotClassifier);
+    }
+
+    @Test
+    public void testMetadataFields() throws IOException {
+        UASparser full = new UASparser(getDataInputStream());
+        UASparser p = new SingleThreadedUASparser();
+        p.setMetadataFields(EnumSet.of(MetadataField.ICON));
+        p.load(getDataInputStream());
+        assertEquals(EnumSet.of(MetadataField.ICON), p.getMetadataFields());
+
+        String[] uas = { "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12",
+                "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)" };
+        for (String ua : uas) {
+            UserAgentInfo expected = full.parse(ua);
+            UserAgentInfo uai = p.parse(ua);
+            assertEquals(expected.isRobot(), uai.isRobot());
+            assertEquals(expected.getUaFamily(), uai.getUaFamily());
+            assertEquals(expected.getUaName(), uai.getUaName());
+            assertEquals(expected.getType(), uai.getType());
+            assertEquals(expected.getUaIcon(), uai.getUaIcon());
+            assertFalse(UserAgentInfo.UNKNOWN.equals(expected.getUaCompany()));
+            assertEquals(UserAgentInfo.UNKNOWN, uai.getUaUrl());
+            assertEquals(UserAgentInfo.UNKNOWN, uai.getUaCompany());
+            assertEquals(UserAgentInfo.UNKNOWN, uai.getUaCompanyUrl());
+            assertEquals(UserAgentInfo.UNKNOWN, uai.getUaInfoUrl());
+            assertEquals(expected.getOsName(), uai.getOsName());
+            assertEquals(expected.getOsIcon(), uai.getOsIcon());
+            assertEquals(UserAgentInfo.UNKNOWN, uai.getOsCompanyUrl());
+            if (this.testDeviceInfo) {
+                assertEquals(expected.getDeviceType(), uai.getDeviceType());
+                assertEquals(expected.getDeviceIcon(), uai.getDeviceIcon());
+                assertEquals(UserAgentInfo.UNKNOWN, uai.getDeviceInfoUrl());
+            }
+        }
+    }
+
+    @Test
+    public void testRobotPrefixMatching() throws IOException {
+        UASparser p = new UASparser(getDataInputStream());
+        p.setCache(new UserAgentInfoCache(100));
+        String drifted = "Mozilla/5.0 (compatible; Googlebot/2.12; +http://www.google.com/bot.html) Extra/1.0";
+        String partial = "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bo";
+        String firefox = "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12";
+
+        assertFalse(p.isRobotPrefixMatching());
+        assertNull(p.database.robotPrefixes);
+        assertFalse(p.parse(drifted).isRobot());
+        assertTrue(p.isRobot(drifted));
+
+        // the cached result is dropped
+        p.setRobotPrefixMatching(true);
+        UserAgentInfo uai = p.parse(drifted);
+        assertTrue(uai.isRobot());
+        assertEquals("Googlebot", uai.getUaFamily());
+
+        // only whole tokens match
+        assertFalse(p.parse(partial).isRobot());
+        assertFalse(p.parse(firefox).isRobot());
+
+        p.setRobotPrefixMatching(false);
+        assertFalse(p.parse(drifted).isRobot());
+    }
+
     /**
      * Tests for various device types
      *
@@ -0,0 +1,101 @@
+package cz.mallat.uasparser;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import cz.mallat.uasparser.regex.CompiledRegex;
+import cz.mallat.uasparser.regex.JRegexEngine;
+import cz.mallat.uasparser.regex.JdkRegexEngine;
+import cz.mallat.uasparser.regex.LinearRegexEngine;
+import cz.mallat.uasparser.regex.RegexEngine;
+import cz.mallat.uasparser.regex.RegexMatcher;
+
+/**
+ * Make sure all regex engines agree with jregex on the database regexes
+ *
+ * @author chetan
+ *
+ */
+public class TestRegexEngines {
+
+    @Test
+    public void testLinearEngine() {
+        RegexEngine engine = new LinearRegexEngine();
+
+        RegexMatcher matcher = engine.compile("Firefox\\/([0-9\\.]+)( beta)?").matcher("Mozilla FIREFOX/3.0.12 x");
+        assertTrue(matcher.find());
+        assertEquals(2, matcher.groupCount());
+        assertEquals("FIREFOX/3.0.12", matcher.group(0));
+        assertEquals("3.0.12", matcher.group(1));
+        assertNull(matcher.group(2));
+        assertEquals(8, matcher.start(0));
+        assertEquals(-1, matcher.start(2));
+        assertFalse(matcher.find());
+
+        matcher = engine.compile("(a|ab)(c|bcd)(d*)").matcher("abcd");
+        assertTrue(matcher.find());
+        assertEquals("a", matcher.group(1));
+        assertEquals("bcd", matcher.group(2));
+        assertEquals("", matcher.group(3));
+
+        matcher = engine.compile("^Opera$").matcher("opera\r\n");
+        assertTrue(matcher.find());
+        matcher.setTarget("opera\r");
+        assertFalse(matcher.find());
+        matcher.setTarget("x opera");
+        assertFalse(matcher.find());
+
+        try {
+            engine.compile("\\d+");
+            fail("escape should not be supported");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSameAsJRegex() throws IOException {
+        UASparser parser = new UASparser(OnlineUpdater.getVendoredInputStream());
+
+        List<String> useragents = new ArrayList<String>();
+        int i = 0;
+        for (String ua : parser.database.robotsMap.keySet()) {
+            if (i++ % 5 == 0) {
+                useragents.add(ua);
+            }
+        }
+        useragents.add("Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12");
+        useragents.add("Mozilla/5.0 (iPad; CPU OS 6_0 like Mac OS X) AppleWebKit/537.51.1 (KHTML, like Gecko) Version/6.0 Mobile/11A465 Safari/9537.53");
+        useragents.add("Mozilla/5.0 (Linux; U; Android 4.0.4; en-au; GT-N7000 Build/IMM76D) AppleWebKit/534.30 (KHTML, like Gecko) Version/4.0 Mobile Safari/534.30 Maxthon/4.1.1.2000");
+
+        RegexEngine expected = new JRegexEngine();
+        for (RegexEngine engine : new RegexEngine[] { new LinearRegexEngine(), new JdkRegexEngine() }) {
+            for (String regex : parser.database.browserRegMap.keySet()) {
+                assertSameMatches(expected.compile(regex), engine.compile(regex), useragents);
+            }
+        }
+    }
+
+    private void assertSameMatches(CompiledRegex expected, CompiledRegex actual, List<String> useragents) {
+        RegexMatcher expectedMatcher = expected.matcher();
+        RegexMatcher actualMatcher = actual.matcher();
+        assertEquals(expectedMatcher.groupCount(), actualMatcher.groupCount());
+        for (String ua : useragents) {
+            expectedMatcher.setTarget(ua);
+            actualMatcher.setTarget(ua);
+            boolean found = expectedMatcher.find();
+            assertEquals(actual + " on " + ua, found, actualMatcher.find());
+            if (found) {
+                for (int group = 0; group <= expectedMatcher.groupCount(); group++) {
+                    assertEquals(actual + " on " + ua, expectedMatcher.group(group), actualMatcher.group(group));
+                }
+            }
+        }
+    }
+
+}
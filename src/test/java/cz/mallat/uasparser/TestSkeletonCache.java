@@ -0,0 +1,87 @@
+package cz.mallat.uasparser;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import cz.mallat.uasparser.regex.DigitAnalysis;
+
+/**
+ * Test the skeleton cache
+ *
+ * @author chetan
+ *
+ */
+public class TestSkeletonCache {
+
+    @Test
+    public void testSkeleton() {
+        assertEquals("Firefox/0.0.00", SkeletonCache.skeletonOf("Firefox/3.0.12"));
+        String noDigits = "Mozilla/x";
+        assertSame(noDigits, SkeletonCache.skeletonOf(noDigits));
+    }
+
+    @Test
+    public void testDigitAnalysis() {
+        assertTrue(DigitAnalysis.isDigitAgnostic("Firefox/([0-9\\.]+)"));
+        assertTrue(DigitAnalysis.isDigitAgnostic("^Mozilla.*Android.*(iPad|[a-z]{2})"));
+        assertTrue(DigitAnalysis.isDigitAgnostic("Opera[^;]*"));
+        assertFalse(DigitAnalysis.isDigitAgnostic("Firefox/3\\.6"));
+        assertFalse(DigitAnalysis.isDigitAgnostic("iPhone OS [1-5]_"));
+        // unsupported syntax
+        assertFalse(DigitAnalysis.isDigitAgnostic("Firefox/\\d"));
+    }
+
+    @Test
+    public void testParse() throws IOException {
+        UASparser parser = new UASparser(OnlineUpdater.getVendoredInputStream());
+        UASparser reference = new UASparser(OnlineUpdater.getVendoredInputStream());
+        SkeletonCache cache = new SkeletonCache(100);
+        parser.setSkeletonCache(cache);
+
+        String firefox = "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12";
+        assertEquals("Firefox 3.0.12", parser.parse(firefox).getUaName());
+        UserAgentInfo uai = parser.parse(firefox.replace("3.0.12", "3.0.19"));
+        assertEquals("Firefox 3.0.19", uai.getUaName());
+        assertEquals(1, cache.getHitCount());
+
+        // digit-specific patterns are checked on every hit
+        String office = "Mozilla/4.0 (compatible; MSIE 7.0; Windows NT 6.1; MSOffice 12)";
+        String other = office.replace("MSOffice 12", "MSOffice 14");
+        String skipped = office.replace("MSOffice 12", "MSOffice 19");
+        assertEquals(reference.parse(office).toString(), parser.parse(office).toString());
+        assertEquals(reference.parse(other).toString(), parser.parse(other).toString());
+        assertEquals(reference.parse(skipped).toString(), parser.parse(skipped).toString());
+        assertEquals(3, cache.getHitCount());
+        assertEquals("Outlook 2010", parser.parse(other).getUaName());
+        assertEquals("IE 7.0", parser.parse(skipped).getUaName());
+
+        // the browser of the cached user agent implied its OS, this one's doesn't
+        String proxy = "Mozilla/5.0 (compatible; MSIE 9.0; X11; Linux x86_64; MSOffice 13 (via ggpht.com GoogleImageProxy))";
+        String outlook = proxy.replace("MSOffice 13", "MSOffice 12");
+        assertEquals(reference.parse(proxy).toString(), parser.parse(proxy).toString());
+        uai = parser.parse(outlook);
+        assertEquals(6, cache.getHitCount());
+        assertEquals("Linux", uai.getOsFamily());
+        assertEquals(reference.parse(outlook).toString(), uai.toString());
+
+        // a new database invalidates the cache
+        parser.loadDataFromFile(OnlineUpdater.getVendoredInputStream());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBrowserFamilyParser() throws IOException {
+        BrowserFamilyParser parser = new BrowserFamilyParser(OnlineUpdater.getVendoredInputStream(),
+                new String[] { "Firefox" });
+        // ignored
+        parser.setSkeletonCache(new SkeletonCache(100));
+        assertNull(parser.getSkeletonCache());
+        String firefox = "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12";
+        assertEquals("Firefox", parser.parseBrowserFamily(firefox));
+        assertEquals("Firefox", parser.parseBrowserFamily(firefox.replace("3.0.12", "3.0.19")));
+    }
+
+}
@@ -0,0 +1,162 @@
+package cz.mallat.uasparser;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import cz.mallat.uasparser.fileparser.Entry;
+import cz.mallat.uasparser.fileparser.PHPFileParser;
+import cz.mallat.uasparser.fileparser.Section;
+import cz.mallat.uasparser.regex.CompiledRegex;
+import cz.mallat.uasparser.regex.JRegexEngine;
+
+/**
+ * Make sure a lazily compiled parser builds only what its first parse needs, and is ready for it
+ * no later than the original parser, which read all sections and compiled every regex up front.
+ * Startup is about cold code, so each measurement runs in a fresh JVM.
+ *
+ * @author chetan
+ *
+ */
+public class TestStartup {
+
+    private static final String UA = "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/30.0.1599.101 Safari/537.36";
+
+    private static final int RUNS = 7;
+
+    /**
+     * Fresh JVMs on a shared machine vary by 10% and more, so this only allows for that much
+     */
+    private static final double TOLERANCE = 1.15;
+
+    @Test
+    public void testLazyStartupWork() throws IOException {
+        UASparser parser = new UASparser();
+        parser.setLazyCompilation(true);
+        parser.loadDataFromFile(OnlineUpdater.getVendoredInputStream());
+        Database db = parser.database;
+        assertNull(db.browserPrefilter);
+        assertNull(db.osPrefilter);
+        assertNull(db.devicePrefilter);
+
+        assertEquals("Chrome", parser.parse(UA).getUaFamily());
+        // the tables scanned by the first parse, nothing for the robots
+        assertNotNull(db.browserPrefilter);
+        assertNotNull(db.osPrefilter);
+        assertNotNull(db.devicePrefilter);
+        assertNull(db.robotIndex);
+        assertNull(db.robotClassifier);
+        assertNull(db.robotPrefixes);
+        int compiled = 0;
+        for (CompiledRegex regex : db.browserPatterns) {
+            if (((LazyRegex) regex).isCompiled()) {
+                compiled++;
+            }
+        }
+        assertTrue(compiled < 10);
+    }
+
+    @Test
+    public void testLazyStartup() throws Exception {
+        // each lazy run is compared to the baseline run next to it, which saw the same load
+        double[] lazy = new double[RUNS];
+        double[] lazyBinary = new double[RUNS];
+        boolean binary = OnlineUpdater.getVendoredBinaryInputStream() != null;
+        for (int i = 0; i < RUNS; i++) {
+            double baseline = time("baseline");
+            lazy[i] = time("lazy") / baseline;
+            lazyBinary[i] = binary ? time("binary") / baseline : 0;
+        }
+        assertTrue("lazy / baseline " + median(lazy), median(lazy) < TOLERANCE);
+        assertTrue("lazy binary / baseline " + median(lazyBinary), median(lazyBinary) < TOLERANCE);
+    }
+
+    /**
+     * @return milliseconds from the start of {@link #main(String[])} to the first parse in a new
+     *         JVM
+     */
+    private static long time(String mode) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                TestStartup.class.getName(), mode).redirectErrorStream(true).start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        String line = reader.readLine();
+        reader.close();
+        assertEquals(0, process.waitFor());
+        return Long.parseLong(line);
+    }
+
+    private static double median(double[] times) {
+        double[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    public static void main(String[] args) throws IOException {
+        long start = System.nanoTime();
+        if ("baseline".equals(args[0])) {
+            baselineStartup();
+        } else {
+            InputStream is = "binary".equals(args[0]) ? OnlineUpdater.getVendoredBinaryInputStream()
+                    : OnlineUpdater.getVendoredInputStream();
+            UASparser parser = new UASparser();
+            parser.setLazyCompilation(true);
+            parser.loadDataFromFile(is);
+            if (!"Chrome".equals(parser.parse(UA).getUaFamily())) {
+                System.exit(1);
+            }
+        }
+        System.out.println((System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * What the original parser did up to its first parse: read the file into sections, fill in
+     * the maps, compile every regex, then look the user agent up in the robots and scan the
+     * browser, OS and device regexes until the first match
+     */
+    private static void baselineStartup() throws IOException {
+        UASparser parser = new UASparser();
+        JRegexEngine engine = new JRegexEngine();
+        Map<String, Map<String, List<String>>> maps = new HashMap<String, Map<String, List<String>>>();
+        Map<String, Map<CompiledRegex, Long>> regexes = new HashMap<String, Map<CompiledRegex, Long>>();
+        for (Section section : new PHPFileParser(OnlineUpdater.getVendoredInputStream()).getSections()) {
+            Map<String, List<String>> map = new HashMap<String, List<String>>();
+            Map<CompiledRegex, Long> compiled = new LinkedHashMap<CompiledRegex, Long>();
+            for (Entry entry : section.getEntries()) {
+                boolean robot = "robots".equals(section.getName());
+                map.put(robot ? entry.getData().get(0) : entry.getKey(), new ArrayList<String>(entry.getData()));
+                if (section.getName().endsWith("_reg")) {
+                    Iterator<String> it = entry.getData().iterator();
+                    String regex = parser.convertPerlToJavaRegex(it.next());
+                    compiled.put(engine.compile(regex), Long.parseLong(it.next()));
+                }
+            }
+            maps.put(section.getName(), map);
+            regexes.put(section.getName(), compiled);
+        }
+        if (maps.get("robots").get(UA) != null) {
+            return;
+        }
+        for (String table : new String[] { "browser_reg", "os_reg", "device_reg" }) {
+            for (CompiledRegex regex : regexes.get(table).keySet()) {
+                if (regex.matcher(UA).find()) {
+                    break;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package cz.mallat.uasparser;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Test the string table holding the metadata columns
+ *
+ * @author chetan
+ *
+ */
+public class TestStringTable {
+
+    @Test
+    public void testStringTable() throws IOException {
+        StringTable strings = new StringTable(null);
+        int id = strings.add("http://www.mozilla.org/");
+        assertEquals(id, strings.add(new String("http://www.mozilla.org/")));
+        int other = strings.add("Sm\u00f6rg\u00e5sbord \u4e2d\u6587");
+        assertEquals(StringTable.NULL, strings.add(null));
+        strings.pack();
+        assertEquals(2, strings.size());
+        assertEquals("http://www.mozilla.org/", strings.get(id));
+        // nothing is cached
+        assertNotSame(strings.get(id), strings.get(id));
+        assertEquals("Sm\u00f6rg\u00e5sbord \u4e2d\u6587", strings.get(other));
+        assertNull(strings.get(StringTable.NULL));
+
+        // the entries of a database share the values of their metadata columns
+        UASparser parser = new UASparser(OnlineUpdater.getVendoredInputStream());
+        Database db = parser.database;
+        Set<String> companyUrls = new HashSet<String>();
+        for (BrowserEntry browser : db.browserMap.values()) {
+            companyUrls.add(browser.getCompanyUrl());
+        }
+        assertTrue(companyUrls.size() < db.browserMap.size());
+        assertTrue(db.strings.size() < db.robotsMap.size() * 5 + db.browserMap.size() * 5 + db.osMap.size() * 4
+                + db.deviceMap.size() * 2);
+        // the columns the parser reads itself are not in the table
+        for (RobotEntry robot : db.robotsMap.values()) {
+            assertSame(robot.getUserAgentString(), robot.getUserAgentString());
+            assertSame(robot.getFamily(), robot.getFamily());
+        }
+    }
+
+}
@@ -5,7 +5,12 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ TestOnlineUpdater.class, TestParsers.class, TestOldDatabase.class })
+@SuiteClasses({ TestOnlineUpdater.class, TestParsers.class, TestOldDatabase.class,
+        TestLiteralPrefilter.class, TestMultiPatternAutomaton.class, TestRegexEngines.class,
+        TestUserAgentNormalizer.class, TestUserAgentInfoCache.class,
+        TestOffHeapUserAgentInfoCache.class, TestSkeletonCache.class, TestDatabase.class,
+        TestMatcherPool.class, TestConcurrentUASparser.class, TestStringTable.class,
+        TestDatabaseFile.class, TestPHPFileParser.class, TestStartup.class, TestCorpus.class })
 public class TestSuite {
 
 }
@@ -0,0 +1,105 @@
+package cz.mallat.uasparser;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Test the parse result cache
+ *
+ * @author chetan
+ *
+ */
+public class TestUserAgentInfoCache {
+
+    @Test
+    public void testBounded() {
+        UserAgentInfoCache cache = new UserAgentInfoCache(1000);
+        UserAgentInfo uai = new UserAgentInfo();
+        for (int i = 0; i < 10000; i++) {
+            String ua = "ua " + i;
+            assertNull(cache.get(ua));
+            cache.put(ua, uai);
+            assertTrue(cache.size() <= 1000);
+        }
+        assertEquals(10000, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(10000 - cache.size(), cache.getEvictionCount());
+    }
+
+    @Test
+    public void testAdmission() {
+        UserAgentInfoCache cache = new UserAgentInfoCache(1000);
+        UserAgentInfo uai = new UserAgentInfo();
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 500; i++) {
+                String ua = "hot " + i;
+                if (cache.get(ua) == null) {
+                    cache.put(ua, uai);
+                }
+            }
+        }
+
+        // a scan of one-off user agents must not flush the hot ones
+        for (int i = 0; i < 100000; i++) {
+            String ua = "scanner " + i;
+            if (cache.get(ua) == null) {
+                cache.put(ua, uai);
+            }
+        }
+
+        int found = 0;
+        for (int i = 0; i < 500; i++) {
+            if (cache.get("hot " + i) != null) {
+                found++;
+            }
+        }
+        assertTrue("only " + found + " hot entries left", found > 450);
+    }
+
+    @Test
+    public void testClear() {
+        UserAgentInfoCache cache = new UserAgentInfoCache(10);
+        UserAgentInfo uai = new UserAgentInfo();
+        int epoch = cache.getEpoch();
+        cache.put("a", uai);
+        assertSame(uai, cache.get("a"));
+        cache.clear();
+        assertNull(cache.get("a"));
+
+        // parsed against the old database
+        cache.put("a", uai, epoch);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testParse() throws IOException {
+        UASparser parser = new MultithreadedUASparser(OnlineUpdater.getVendoredInputStream());
+        UserAgentInfoCache cache = new UserAgentInfoCache(100);
+        parser.setCache(cache);
+
+        String ua = "Mozilla/5.0 (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12";
+        UserAgentInfo uai = parser.parse(ua);
+        assertEquals("Firefox 3.0.12", uai.getUaName());
+        assertSame(uai, parser.parse(ua));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // a new database invalidates the cache
+        parser.loadDataFromFile(OnlineUpdater.getVendoredInputStream());
+        assertEquals(0, cache.size());
+        UserAgentInfo reparsed = parser.parse(ua);
+        assertNotSame(uai, reparsed);
+        assertEquals("Firefox 3.0.12", reparsed.getUaName());
+
+        // truncated results are not cached
+        parser.setMatchBudget(1, 0);
+        String other = "Mozilla/5.0 (X11; Linux x86_64; rv:10.0) Gecko/20100101 Firefox/10.0";
+        assertTrue(parser.parse(other).isTruncated());
+        assertNull(cache.get(other));
+    }
+
+}
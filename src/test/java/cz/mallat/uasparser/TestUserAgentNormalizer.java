@@ -0,0 +1,88 @@
+package cz.mallat.uasparser;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Test the user agent pre-processing rules
+ *
+ * @author chetan
+ *
+ */
+public class TestUserAgentNormalizer {
+
+    @Test
+    public void testRules() {
+        UserAgentNormalizer normalizer = new UserAgentNormalizer(20, true, true);
+
+        String clean = "Mozilla/5.0 (X11)";
+        assertSame(clean, normalizer.normalize(clean));
+
+        assertEquals("Mozilla/5.0 (X11)", normalizer.normalize("Mozilla/5.0\t \n(X11)"));
+        assertEquals(1, normalizer.getWhitespaceCollapsedCount());
+
+        assertEquals("Mozilla/5.0 (X11)", normalizer.normalize("Moz\u0000illa/5.0 (X11)\u0007"));
+        assertEquals(1, normalizer.getControlCharsStrippedCount());
+
+        assertEquals("Mozilla/5.0 (Windows", normalizer.normalize("Mozilla/5.0 (Windows NT 6.1)"));
+        assertEquals("Mozilla/5.0 (Windows", normalizer.normalize("Mozilla/5.0  (Windows NT 6.1)"));
+        assertEquals(2, normalizer.getTruncatedCount());
+        assertEquals(2, normalizer.getWhitespaceCollapsedCount());
+    }
+
+    @Test
+    public void testSingleRules() {
+        UserAgentNormalizer normalizer = new UserAgentNormalizer(0, true, false);
+        assertEquals("a  b", normalizer.normalize("a \u0001 b"));
+
+        normalizer = new UserAgentNormalizer(0, false, true);
+        assertEquals("a \u0001 b", normalizer.normalize("a  \u0001  b"));
+
+        normalizer = new UserAgentNormalizer(3, false, false);
+        assertEquals("a", normalizer.normalize("a  b"));
+        assertEquals(0, normalizer.getWhitespaceCollapsedCount());
+        assertEquals(1, normalizer.getTruncatedCount());
+    }
+
+    @Test
+    public void testTrim() {
+        UserAgentNormalizer normalizer = new UserAgentNormalizer(0, false, false);
+        assertEquals("Mozilla/5.0 (X11)", normalizer.normalize(" Mozilla/5.0 (X11)"));
+        assertEquals("Mozilla/5.0 (X11)", normalizer.normalize("Mozilla/5.0 (X11) \n"));
+        assertEquals("", normalizer.normalize(" "));
+
+        normalizer = new UserAgentNormalizer(100, true, true);
+        assertEquals("Mozilla/5.0 (X11)", normalizer.normalize(" Mozilla/5.0 (X11) "));
+    }
+
+    @Test
+    public void testParse() throws IOException {
+        UASparser parser = new UASparser(OnlineUpdater.getVendoredInputStream());
+        parser.setNormalizer(new UserAgentNormalizer(512, true, true));
+
+        // the robot lookup sees the normalized string too
+        UserAgentInfo uai = parser.parse("Pingdom.com_bot\u0000_version_1.4_(http://www.pingdom.com/)");
+        assertTrue(uai.isRobot());
+
+        StringBuilder junk = new StringBuilder("Mozilla/5.0  (Windows; U; Windows NT 5.1; en-US; rv:1.9.0.12) Gecko/2009070611 Firefox/3.0.12 ");
+        for (int i = 0; i < 10000; i++) {
+            junk.append('x');
+        }
+        uai = parser.parse(junk.toString());
+        assertEquals("Firefox 3.0.12", uai.getUaName());
+        assertEquals(1, parser.getNormalizer().getTruncatedCount());
+        assertEquals(1, parser.getNormalizer().getControlCharsStrippedCount());
+
+        // so do the prefix and product token lookups of isRobot and classifyRobot
+        String drifted = "Mozilla/5.0 (compatible; Google\u0000bot/2.12; +http://www.google.com/bot.html) Extra/1.0";
+        assertTrue(parser.isRobot(drifted));
+        assertEquals("Googlebot", parser.classifyRobot(drifted).getUaFamily());
+        String newVersion = "Mozilla/5.0 (compatible; Google\u0000bot/9.9)";
+        assertTrue(parser.isRobot(newVersion));
+        assertEquals("Googlebot", parser.classifyRobot(newVersion).getUaFamily());
+    }
+
+}